@@ -20,16 +20,13 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
-import java.util.Set;
 
 import static com.appium.utils.ConfigFileManager.CAPS;
-import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
 
 public class Capabilities {
     private static final Logger LOGGER = Logger.getLogger(Capabilities.class.getName());
 
-    private static Capabilities instance;
+    private static volatile Capabilities instance;
     private JSONObject capabilities;
     private final AtdEnvironment atdEnvironment;
 
@@ -48,142 +45,23 @@ public class Capabilities {
         }
         JSONObject capabilitiesJsonObject = new JSONObject(new String(fileContent));
         String defaultFileName = FilenameUtils.removeExtension(new File(CAPS.get()).getName());
-        StringBuilder varParsing = new StringBuilder(200);
-        if (!fileName.equals(defaultFileName)) {
-            varParsing.append("atd_" + fileName).append("_");
-        } else {
-            varParsing.append("atd").append("_");
-        }
-        JSONObject loadedCapabilities = loadAndOverrideFromEnvVars(
-                capabilitiesJsonObject,
-                new JSONObject(),
-                getAllATDOverrideEnvVars(),
-                varParsing);
-        return loadedCapabilities;
+        String prefix = fileName.equals(defaultFileName) ? "atd_" : "atd_" + fileName + "_";
+        return CapabilityOverrides.fromEnvironment(prefix)
+                .apply(capabilitiesJsonObject, prefix);
     }
 
     public static Capabilities getInstance() {
-        if (instance == null) {
-            instance = new Capabilities();
-        }
-        return instance;
-    }
-
-    private Map<String, Object> getAllATDOverrideEnvVars() {
-        Map<String, Object> atdOverrideEnv = new HashMap<>();
-        System.getenv().forEach((key, value) -> {
-            if (key.startsWith("atd")) {
-                atdOverrideEnv.put(key, value);
-            }
-        });
-        Properties properties = System.getProperties();
-        properties.keySet().forEach(key -> {
-            if (key.toString().startsWith("atd")) {
-                atdOverrideEnv.put(key.toString(), properties.getProperty(key.toString()));
+        Capabilities result = instance;
+        if (result == null) {
+            synchronized (Capabilities.class) {
+                result = instance;
+                if (result == null) {
+                    result = new Capabilities();
+                    instance = result;
+                }
             }
-        });
-        return atdOverrideEnv;
-    }
-
-    private JSONObject loadAndOverrideFromEnvVars(JSONObject originalObject,
-                                                  JSONObject objectToUpdate,
-                                                  Map<String, Object> allATDOverrideEnvVars,
-                                                  StringBuilder currentPath) {
-        Set<String> keys = originalObject.keySet();
-        keys.forEach(keyStr -> {
-            Object keyvalue = originalObject.get(keyStr);
-            if (keyvalue instanceof JSONObject) {
-                processJSONObject(objectToUpdate,
-                        allATDOverrideEnvVars,
-                        currentPath,
-                        keyStr,
-                        (JSONObject) keyvalue);
-            } else if (keyvalue instanceof JSONArray) {
-                processJSONArray(objectToUpdate,
-                        allATDOverrideEnvVars,
-                        currentPath,
-                        keyStr,
-                        (JSONArray) keyvalue);
-            } else {
-                processJSONObject(objectToUpdate,
-                        currentPath,
-                        keyStr,
-                        keyvalue);
-            }
-        });
-        return objectToUpdate;
-    }
-
-    private void processJSONObject(JSONObject objectToUpdate,
-                                   StringBuilder currentPath,
-                                   String keyStr,
-                                   Object keyvalue) {
-        currentPath.append(keyStr);
-        String getFromEnv = getOverriddenStringValue(currentPath.toString());
-        Object updatedValue = (null == getFromEnv) ? keyvalue : getFromEnv;
-        objectToUpdate.put(keyStr, updatedValue);
-        currentPath.delete(currentPath.lastIndexOf("_") + 1, currentPath.length());
-    }
-
-    private void processStringInArrayItem(String objectToUpdate,
-                                          JSONArray arrayValues, StringBuilder currentPath,
-                                          int arrayIndex) {
-        currentPath.append(arrayIndex);
-        String getFromEnv = getOverriddenStringValue(currentPath.toString());
-        objectToUpdate = (null == getFromEnv) ? objectToUpdate : getFromEnv;
-        arrayValues.put(arrayIndex, objectToUpdate);
-        currentPath.delete(currentPath.lastIndexOf("_") + 1, currentPath.length());
-    }
-
-    private void processJSONArray(JSONObject objectToUpdate,
-                                  Map<String, Object> allATDOverrideEnvVars,
-                                  StringBuilder currentPath,
-                                  String keyStr,
-                                  JSONArray keyvalue) {
-        JSONArray jsonArray = new JSONArray();
-        objectToUpdate.put(keyStr, jsonArray);
-        currentPath.append(keyStr).append("_");
-        for (int arrIndex = 0; arrIndex < keyvalue.length(); arrIndex++) {
-            processJSONArrayItem(allATDOverrideEnvVars,
-                    currentPath,
-                    jsonArray,
-                    keyvalue,
-                    arrIndex);
         }
-        currentPath.delete(currentPath.lastIndexOf(keyStr), currentPath.length());
-    }
-
-    private void processJSONArrayItem(Map<String, Object> allATDOverrideEnvVars,
-                                      StringBuilder currentPath,
-                                      JSONArray jsonArray,
-                                      JSONArray arrayValues,
-                                      int arrIndex) {
-        Object arrayItem = arrayValues.get(arrIndex);
-        currentPath.append(arrIndex).append("_");
-        if (arrayItem instanceof JSONObject) {
-            JSONObject jsonObject = new JSONObject();
-            jsonArray.put(jsonObject);
-            loadAndOverrideFromEnvVars((JSONObject) arrayItem,
-                    jsonObject,
-                    allATDOverrideEnvVars,
-                    currentPath);
-        } else if (arrayItem instanceof String) {
-            processStringInArrayItem(arrayItem.toString(), arrayValues, currentPath, arrIndex);
-            jsonArray.put(arrayValues.get(arrIndex));
-        }
-        currentPath.delete(currentPath.lastIndexOf(String.valueOf(arrIndex)), currentPath.length());
-    }
-
-    private void processJSONObject(JSONObject objectToUpdate,
-                                   Map<String, Object> allATDOverrideEnvVars,
-                                   StringBuilder currentPath,
-                                   String keyStr,
-                                   JSONObject keyvalue) {
-        JSONObject jsonObject = new JSONObject();
-        objectToUpdate.put(keyStr, jsonObject);
-        currentPath.append(keyStr).append("_");
-        loadAndOverrideFromEnvVars(keyvalue, jsonObject, allATDOverrideEnvVars, currentPath);
-        currentPath.delete(currentPath.lastIndexOf(keyStr), currentPath.length());
+        return result;
     }
 
     private String getCapabilityLocation() {
@@ -0,0 +1,117 @@
+package com.appium.capabilities;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The atd_ overrides of capability values, read from the environment and system properties
+ * once. A value is addressed by its path in the capability file, joined with underscores,
+ * e.g. atd_android_app or atd_hostMachines_0_machineIP.
+ * <p>
+ * The override names are kept sorted, so a subtree of the file that no override points into
+ * is found with one lookup and kept as it is. Overrides take the type of the value they
+ * replace: booleans, numbers, and JSON objects or arrays given as JSON.
+ */
+class CapabilityOverrides {
+    private final NavigableMap<String, String> overrides;
+
+    CapabilityOverrides(Map<String, String> overrides) {
+        this.overrides = new TreeMap<>(overrides);
+    }
+
+    /**
+     * Overrides starting with the prefix, system properties taking precedence over the
+     * environment
+     */
+    static CapabilityOverrides fromEnvironment(String prefix) {
+        Map<String, String> overrides = new TreeMap<>();
+        System.getenv().forEach((key, value) -> {
+            if (key.startsWith(prefix)) {
+                overrides.put(key, value);
+            }
+        });
+        Properties properties = System.getProperties();
+        properties.stringPropertyNames().forEach(key -> {
+            if (key.startsWith(prefix)) {
+                overrides.put(key, properties.getProperty(key));
+            }
+        });
+        return new CapabilityOverrides(overrides);
+    }
+
+    /**
+     * @param prefix Path of the object, ending with an underscore
+     * @return The object with the overrides under the prefix applied, the object itself when
+     *         there are none
+     */
+    JSONObject apply(JSONObject object, String prefix) {
+        if (!hasOverridesUnder(prefix)) {
+            return object;
+        }
+        JSONObject result = new JSONObject();
+        for (String key : object.keySet()) {
+            result.put(key, resolve(object.get(key), prefix + key));
+        }
+        return result;
+    }
+
+    private JSONArray apply(JSONArray array, String prefix) {
+        if (!hasOverridesUnder(prefix)) {
+            return array;
+        }
+        JSONArray result = new JSONArray();
+        for (int index = 0; index < array.length(); index++) {
+            result.put(resolve(array.get(index), prefix + index));
+        }
+        return result;
+    }
+
+    private Object resolve(Object value, String path) {
+        String override = overrides.get(path);
+        if (override != null) {
+            return coerce(override, value);
+        }
+        if (value instanceof JSONObject) {
+            return apply((JSONObject) value, path + "_");
+        }
+        if (value instanceof JSONArray) {
+            return apply((JSONArray) value, path + "_");
+        }
+        return value;
+    }
+
+    private boolean hasOverridesUnder(String prefix) {
+        String candidate = overrides.ceilingKey(prefix);
+        return candidate != null && candidate.startsWith(prefix);
+    }
+
+    /**
+     * Read the override as the type of the value it replaces, keeping it as text when it
+     * can't be
+     */
+    static Object coerce(String override, Object original) {
+        try {
+            if (original instanceof JSONObject) {
+                return new JSONObject(override);
+            }
+            if (original instanceof JSONArray) {
+                return new JSONArray(override);
+            }
+        } catch (JSONException e) {
+            return override;
+        }
+        if (original instanceof Boolean || original instanceof Number) {
+            Object typed = JSONObject.stringToValue(override.trim());
+            if (original instanceof Boolean ? typed instanceof Boolean : typed instanceof Number) {
+                return typed;
+            }
+        }
+        return override;
+    }
+}
@@ -0,0 +1,76 @@
+package com.appium.capabilities;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Resolved capabilities by capability file and platform, so starting a session copies a map
+ * instead of reading, parsing and overriding the file again. An entry is rebuilt when the
+ * file's modification time or size changes.
+ */
+public class CapabilityTemplateCache {
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @param loader Builds the template, told whether it replaces one of a changed file
+     * @return Read-only capabilities of the platform in the file
+     */
+    public Map<String, Object> get(File capabilityFile, String platform,
+                                   Function<Boolean, Map<String, Object>> loader) {
+        String key = capabilityFile.getAbsoluteFile().toPath().normalize() + "#" + platform;
+        long lastModified = capabilityFile.lastModified();
+        long size = capabilityFile.length();
+        return templates.compute(key, (path, cached) -> {
+            if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+                return cached;
+            }
+            return new Template(lastModified, size, loader.apply(cached != null));
+        }).capabilities;
+    }
+
+    public void clear() {
+        templates.clear();
+    }
+
+    /**
+     * Deep, read-only copy of a JSON object as plain maps and lists
+     */
+    static Map<String, Object> toMap(JSONObject json) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        json.keySet().forEach(key -> map.put(key, toValue(json.get(key))));
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static Object toValue(Object value) {
+        if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            List<Object> list = new ArrayList<>();
+            ((JSONArray) value).forEach(item -> list.add(toValue(item)));
+            return Collections.unmodifiableList(list);
+        }
+        return JSONObject.NULL.equals(value) ? null : value;
+    }
+
+    private static final class Template {
+        private final long lastModified;
+        private final long size;
+        private final Map<String, Object> capabilities;
+
+        private Template(long lastModified, long size, Map<String, Object> capabilities) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.capabilities = capabilities;
+        }
+    }
+}
@@ -6,41 +6,51 @@ import org.apache.log4j.Logger;
 import org.json.JSONObject;
 import org.openqa.selenium.remote.DesiredCapabilities;
 
+import java.io.File;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static com.appium.utils.ConfigFileManager.CAPS;
 
 /**
  * Created by saikrisv on 20/05/17.
+ * <p>
+ * The capabilities of a file and platform are resolved once and kept in a
+ * {@link CapabilityTemplateCache}, so building them for a session is a copy.
  */
 public class DesiredCapabilityBuilder {
 
     private static final Logger LOGGER = Logger.getLogger(DesiredCapabilityBuilder.class.getName());
+    private static final CapabilityTemplateCache TEMPLATES = new CapabilityTemplateCache();
 
     public DesiredCapabilities buildDesiredCapability(String capabilityFilePath) {
         String platform = PluginClI.getInstance().getPlatFormName();
-        DesiredCapabilities desiredCapabilities = new DesiredCapabilities();
-        JSONObject platFormCapabilities;
+        return new DesiredCapabilities(TEMPLATES.get(new File(capabilityFilePath), platform,
+                changed -> resolveCapabilities(capabilityFilePath, platform, changed)));
+    }
+
+    /**
+     * Capabilities of the platform with the app path resolved, as cached by file and platform
+     */
+    private Map<String, Object> resolveCapabilities(String capabilityFilePath,
+                                                    String platform, boolean changed) {
         JSONObject fullCapabilities;
-        if (CAPS.get().equalsIgnoreCase(capabilityFilePath)) {
+        if (CAPS.get().equalsIgnoreCase(capabilityFilePath) && !changed) {
             LOGGER.info("Capabilities file is not specified. Using default capabilities file");
             fullCapabilities = Capabilities.getInstance()
                     .getCapabilities();
         } else {
-            LOGGER.info("Capabilities file is specified. Using specified capabilities file: "
-                    + capabilityFilePath);
+            LOGGER.info("Loading capabilities file: " + capabilityFilePath);
             fullCapabilities = Capabilities.getInstance()
                     .createInstance(capabilityFilePath);
         }
-        platFormCapabilities = fullCapabilities
-                .getJSONObject(platform);
-        JSONObject finalPlatformCapabilities = platFormCapabilities;
-        platFormCapabilities.keySet().forEach(key -> desiredCapabilities.setCapability(key,
-                finalPlatformCapabilities.get(key)));
-        desiredCapabilities.setCapability("app",
-                getAppPathInCapabilities(platform, fullCapabilities));
-        return desiredCapabilities;
+        Map<String, Object> capabilities = new LinkedHashMap<>(
+                CapabilityTemplateCache.toMap(fullCapabilities.getJSONObject(platform)));
+        capabilities.put("app", getAppPathInCapabilities(platform, fullCapabilities));
+        return Collections.unmodifiableMap(capabilities);
     }
 
     private String getAppPathInCapabilities(String platform, JSONObject fullCapabilities) {
@@ -14,7 +14,7 @@ public class Device {
     public int wdaLocalPort;
     public Meta meta;
     public int mjpegServerPort;
-    public boolean busy;
+    public volatile boolean busy;
     public boolean realDevice;
     public String deviceType;
     public Object capability;
@@ -23,7 +23,7 @@ public class Device {
     public String host;
     public int totalUtilizationTimeMilliSec;
     public String derivedDataPath;
-    public boolean offline;
+    public volatile boolean offline;
     public long sessionStartTime;
 
     public static class Meta {
@@ -0,0 +1,117 @@
+package com.appium.device;
+
+import com.appium.utils.Api;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps a {@link DevicePool} in step with the device farm hub. The device list is polled in
+ * the background with conditional requests, so an unchanged inventory costs a 304 without a
+ * body, and every change is applied to the pool as a diff: devices coming online mid-run
+ * become available, devices going offline stop being leased and removed devices are drained.
+ */
+public class DeviceInventorySync implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(DeviceInventorySync.class.getName());
+
+    private final Supplier<String> url;
+    private final DevicePool pool;
+    private final UnaryOperator<List<Device>> filter;
+    private final Runnable onChange;
+    private final Api api = new Api();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private ScheduledExecutorService scheduler;
+    private volatile String etag;
+    private volatile String lastModified;
+
+    public DeviceInventorySync(String url, DevicePool pool, UnaryOperator<List<Device>> filter,
+                               Runnable onChange) {
+        this(() -> url, pool, filter, onChange);
+    }
+
+    /**
+     * @param url Resolved again on every poll, so the sync follows a hub that was restarted
+     *            on another port
+     */
+    public DeviceInventorySync(Supplier<String> url, DevicePool pool,
+                               UnaryOperator<List<Device>> filter, Runnable onChange) {
+        this.url = url;
+        this.pool = pool;
+        this.filter = filter;
+        this.onChange = onChange;
+    }
+
+    /**
+     * Poll the hub at a fixed delay on a daemon thread
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "device-inventory-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sync().join();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Device inventory sync failed: " + e.getMessage());
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        LOGGER.info("Syncing device inventory every " + interval);
+    }
+
+    /**
+     * Fetch the device list once and apply it to the pool if it changed
+     *
+     * @return Future completing with true if the pool changed
+     */
+    public CompletableFuture<Boolean> sync() {
+        String endpoint;
+        try {
+            endpoint = url.get();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new RuntimeException(
+                    "Unable to resolve device list endpoint: " + e.getMessage(), e));
+        }
+        return api.getIfModifiedAsync(endpoint, etag, lastModified).thenApply(response -> {
+            if (!response.isPresent()) {
+                return false;
+            }
+            List<Device> devices;
+            try {
+                devices = Arrays.asList(mapper.readValue(response.get().getBody(),
+                        Device[].class));
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to parse device list from " + endpoint, e);
+            }
+            etag = response.get().getEtag();
+            lastModified = response.get().getLastModified();
+            boolean changed = pool.update(filter.apply(devices));
+            if (changed) {
+                onChange.run();
+            }
+            return changed;
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.appium.device;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Exclusive claim on a single {@link Device} handed out by the {@link DevicePool}.
+ * The device stays busy until the lease is released; releasing it twice is a no-op.
+ */
+public class DeviceLease {
+    private static final Logger LOGGER = Logger.getLogger(DeviceLease.class.getName());
+    private final Device device;
+    private final DevicePool pool;
+    private final long acquiredAt;
+    private final List<Runnable> releaseHooks = new CopyOnWriteArrayList<>();
+
+    DeviceLease(Device device, DevicePool pool) {
+        this.device = device;
+        this.pool = pool;
+        this.acquiredAt = System.currentTimeMillis();
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    public String getUdid() {
+        return device.getUdid();
+    }
+
+    public long getAcquiredAt() {
+        return acquiredAt;
+    }
+
+    public boolean isReleased() {
+        return !pool.isHeldBy(this);
+    }
+
+    /**
+     * Hand the device back to the pool it was acquired from
+     *
+     * @return true if this call released the device, false if it was already released
+     */
+    public boolean release() {
+        return pool.release(this);
+    }
+
+    /**
+     * Run the hook once the device is handed back, right away if that already happened
+     */
+    public void onRelease(Runnable hook) {
+        releaseHooks.add(hook);
+        if (isReleased() && releaseHooks.remove(hook)) {
+            hook.run();
+        }
+    }
+
+    void released() {
+        for (Runnable hook : releaseHooks) {
+            if (!releaseHooks.remove(hook)) {
+                continue;
+            }
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Release hook of " + this + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceLease{" + device.getUdid() + "}";
+    }
+}
@@ -0,0 +1,394 @@
+package com.appium.device;
+
+import org.apache.log4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free pool of devices. Every device sits in a slot whose lease is claimed with a
+ * compare-and-set, so two threads can never be handed the same UDID. Threads that find
+ * the pool exhausted park until a lease is released or their timeout expires.
+ * Devices can be requested by capability through a {@link DeviceQuery}, answered from the
+ * {@link DeviceSelector} indexes.
+ * <p>
+ * The set of devices can change while leases are handed out: {@link #update(List)} builds a
+ * new immutable snapshot of slots and indexes and publishes it in one write, so allocation
+ * never waits for an inventory update. Devices that disappear are drained: their current
+ * lease stays valid until released, but they are never leased again.
+ */
+public class DevicePool {
+    private static final Logger LOGGER = Logger.getLogger(DevicePool.class.getName());
+    private static final long PARK_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private final Map<String, Slot> draining = new ConcurrentHashMap<>();
+    private volatile Topology topology;
+
+    public DevicePool(List<Device> devices) {
+        List<Slot> slots = new ArrayList<>();
+        for (Device device : devices) {
+            slots.add(newSlot(device));
+        }
+        topology = new Topology(slots);
+    }
+
+    /**
+     * Apply a fresh device list from the hub. Known devices keep their slot and lease and
+     * only pick up their offline flag, new devices become available immediately and devices
+     * missing from the list are drained.
+     *
+     * @param devices The complete list of devices as currently reported
+     * @return true if a device was added, removed, or went offline or online
+     */
+    public synchronized boolean update(List<Device> devices) {
+        Topology current = topology;
+        Map<String, Device> incoming = new LinkedHashMap<>();
+        devices.forEach(device -> incoming.put(device.getUdid(), device));
+        boolean changed = false;
+
+        List<Slot> slots = new ArrayList<>();
+        for (Slot slot : current.slots) {
+            Device device = incoming.remove(slot.device.getUdid());
+            if (device == null) {
+                slot.removed = true;
+                if (slot.lease.get() != null) {
+                    draining.put(slot.device.getUdid(), slot);
+                }
+                LOGGER.info("Device " + slot.device.getUdid() + " removed from the pool");
+                changed = true;
+                continue;
+            }
+            if (slot.device.offline != device.isOffline()) {
+                slot.device.offline = device.isOffline();
+                LOGGER.info("Device " + slot.device.getUdid() + " is now "
+                        + (device.isOffline() ? "offline" : "online"));
+                changed = true;
+            }
+            slots.add(slot);
+        }
+        for (Device device : incoming.values()) {
+            Slot slot = draining.remove(device.getUdid());
+            if (slot == null) {
+                slot = newSlot(device);
+            } else {
+                slot.device.offline = device.isOffline();
+                slot.removed = false;
+            }
+            slots.add(slot);
+            LOGGER.info("Device " + device.getUdid() + " added to the pool");
+            changed = true;
+        }
+        if (changed) {
+            topology = new Topology(slots);
+            // Parked threads may be waiting for exactly the device that just appeared
+            waiters.forEach(LockSupport::unpark);
+        }
+        return changed;
+    }
+
+    private Slot newSlot(Device device) {
+        Slot slot = new Slot(device);
+        if (device.isBusy()) {
+            slot.lease.set(new DeviceLease(device, this));
+        }
+        return slot;
+    }
+
+    /**
+     * Claim any free device without waiting
+     *
+     * @return Optional containing the lease, empty if every device is busy
+     */
+    public Optional<DeviceLease> tryAcquire() {
+        return tryAcquire((DeviceQuery) null);
+    }
+
+    /**
+     * Claim a free device matching the query without waiting
+     *
+     * @param query The criteria the device has to match, null matches any device
+     * @return Optional containing the lease, empty if every matching device is busy
+     */
+    public Optional<DeviceLease> tryAcquire(DeviceQuery query) {
+        Topology current = topology;
+        return tryAcquire(current, current.selector.match(query));
+    }
+
+    /**
+     * Claim a specific device without waiting
+     *
+     * @param udid The unique device identifier
+     * @return Optional containing the lease, empty if the device is busy or unknown
+     */
+    public Optional<DeviceLease> tryAcquire(String udid) {
+        Slot slot = findSlot(udid);
+        return slot == null ? Optional.empty() : Optional.ofNullable(claim(slot));
+    }
+
+    /**
+     * Claim a free device, waiting up to the given timeout for one to be released
+     *
+     * @param timeout Maximum time to wait
+     * @return Optional containing the lease, empty if no device became free in time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public Optional<DeviceLease> acquire(Duration timeout) throws InterruptedException {
+        return acquire(null, timeout);
+    }
+
+    /**
+     * Claim a free device matching the query, waiting up to the given timeout for one
+     * to be released. Returns immediately if no device in the pool can ever match.
+     *
+     * @param query   The criteria the device has to match, null matches any device
+     * @param timeout Maximum time to wait
+     * @return Optional containing the lease, empty if no device became free in time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public Optional<DeviceLease> acquire(DeviceQuery query, Duration timeout)
+            throws InterruptedException {
+        Topology snapshot = topology;
+        BitSet candidates = snapshot.selector.match(query);
+        if (candidates.isEmpty()) {
+            LOGGER.warn("No device in the pool matches " + query);
+            return Optional.empty();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Thread current = Thread.currentThread();
+        while (true) {
+            if (snapshot != topology) {
+                snapshot = topology;
+                candidates = snapshot.selector.match(query);
+            }
+            Optional<DeviceLease> lease = tryAcquire(snapshot, candidates);
+            if (lease.isPresent()) {
+                return lease;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return Optional.empty();
+            }
+            waiters.add(current);
+            try {
+                // Re-check after registering so a release in between is never missed
+                lease = tryAcquire(snapshot, candidates);
+                if (lease.isPresent()) {
+                    return lease;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, PARK_SLICE_NANOS));
+            } finally {
+                waiters.remove(current);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Interrupted while waiting for a free device");
+            }
+        }
+    }
+
+    /**
+     * Every device matching the query, busy or not
+     *
+     * @param query The criteria the devices have to match
+     * @return List of matching devices in pool order
+     */
+    public List<Device> select(DeviceQuery query) {
+        Topology current = topology;
+        BitSet matches = current.selector.match(query);
+        List<Device> devices = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            devices.add(current.slots[i].device);
+        }
+        return devices;
+    }
+
+    /**
+     * Hand a leased device back to the pool
+     *
+     * @param lease The lease returned by one of the acquire methods
+     * @return true if the device was released, false if the lease was already released
+     */
+    public boolean release(DeviceLease lease) {
+        Slot slot = findSlot(lease.getUdid());
+        if (slot == null || !slot.lease.compareAndSet(lease, null)) {
+            return false;
+        }
+        slot.device.busy = false;
+        lease.released();
+        if (slot.removed) {
+            draining.remove(slot.device.getUdid(), slot);
+            LOGGER.info("Drained removed device " + slot.device.getUdid());
+            return true;
+        }
+        Thread waiter = waiters.peek();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * Release whatever lease is currently held on a device
+     *
+     * @param udid The unique device identifier
+     * @return true if the device was busy and has been released
+     */
+    public boolean release(String udid) {
+        Slot slot = findSlot(udid);
+        if (slot == null) {
+            return false;
+        }
+        DeviceLease lease = slot.lease.get();
+        return lease != null && release(lease);
+    }
+
+    /**
+     * Whether a device of the pool matches the query, busy or not
+     *
+     * @param query The criteria the device has to match, null matches any device
+     * @param udid  The unique device identifier
+     * @return true if the device is in the pool and matches the query
+     */
+    public boolean matches(DeviceQuery query, String udid) {
+        Topology current = topology;
+        Integer position = udid == null ? null : current.positions.get(udid);
+        return position != null && current.selector.match(query).get(position);
+    }
+
+    boolean isHeldBy(DeviceLease lease) {
+        Slot slot = findSlot(lease.getUdid());
+        return slot != null && slot.lease.get() == lease;
+    }
+
+    public boolean contains(String udid) {
+        return udid != null && topology.positions.containsKey(udid);
+    }
+
+    public boolean isBusy(String udid) {
+        Slot slot = findSlot(udid);
+        return slot != null && slot.lease.get() != null;
+    }
+
+    public boolean isOffline(String udid) {
+        Slot slot = findSlot(udid);
+        return slot != null && slot.device.isOffline();
+    }
+
+    public List<Device> getFreeDevices() {
+        List<Device> free = new ArrayList<>();
+        for (Slot slot : topology.slots) {
+            if (slot.lease.get() == null && !slot.device.isOffline()) {
+                free.add(slot.device);
+            }
+        }
+        return free;
+    }
+
+    /**
+     * @return Every device currently in the pool, in pool order
+     */
+    public List<Device> getDevices() {
+        Slot[] slots = topology.slots;
+        List<Device> devices = new ArrayList<>(slots.length);
+        for (Slot slot : slots) {
+            devices.add(slot.device);
+        }
+        return devices;
+    }
+
+    public int size() {
+        return topology.slots.length;
+    }
+
+    private Optional<DeviceLease> tryAcquire(Topology current, BitSet candidates) {
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+        Slot[] slots = current.slots;
+        // Start each scan at a different slot so contending threads spread over the pool
+        int start = Math.floorMod(cursor.getAndIncrement(), slots.length);
+        for (int i = candidates.nextSetBit(start); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            DeviceLease lease = claim(slots[i]);
+            if (lease != null) {
+                return Optional.of(lease);
+            }
+        }
+        for (int i = candidates.nextSetBit(0); i >= 0 && i < start;
+             i = candidates.nextSetBit(i + 1)) {
+            DeviceLease lease = claim(slots[i]);
+            if (lease != null) {
+                return Optional.of(lease);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private DeviceLease claim(Slot slot) {
+        if (slot.lease.get() != null || slot.removed || slot.device.isOffline()) {
+            return null;
+        }
+        DeviceLease lease = new DeviceLease(slot.device, this);
+        if (slot.lease.compareAndSet(null, lease)) {
+            if (slot.removed) {
+                // Lost the race against an inventory update removing the device
+                slot.lease.compareAndSet(lease, null);
+                return null;
+            }
+            slot.device.busy = true;
+            LOGGER.debug("Leased device " + slot.device.getUdid());
+            return lease;
+        }
+        return null;
+    }
+
+    private Slot findSlot(String udid) {
+        if (udid == null) {
+            return null;
+        }
+        Topology current = topology;
+        Integer position = current.positions.get(udid);
+        return position != null ? current.slots[position] : draining.get(udid);
+    }
+
+    private static final class Slot {
+        private final Device device;
+        private final AtomicReference<DeviceLease> lease = new AtomicReference<>();
+        private volatile boolean removed;
+
+        private Slot(Device device) {
+            this.device = device;
+        }
+    }
+
+    /**
+     * Immutable view of the slots and their indexes, replaced as a whole on every update
+     */
+    private static final class Topology {
+        private final Slot[] slots;
+        private final Map<String, Integer> positions = new HashMap<>();
+        private final DeviceSelector selector;
+
+        private Topology(List<Slot> slots) {
+            this.slots = slots.toArray(new Slot[0]);
+            List<Device> devices = new ArrayList<>(slots.size());
+            for (int i = 0; i < this.slots.length; i++) {
+                positions.put(this.slots[i].device.getUdid(), i);
+                devices.add(this.slots[i].device);
+            }
+            selector = new DeviceSelector(devices);
+        }
+    }
+}
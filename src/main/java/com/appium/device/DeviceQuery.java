@@ -0,0 +1,91 @@
+package com.appium.device;
+
+import lombok.Getter;
+
+/**
+ * Criteria used to pick a device from the pool, e.g.
+ * {@code DeviceQuery.any().platform("android").minPlatformVersion("13").realDevice(true)}.
+ * Unset criteria match every device.
+ */
+@Getter
+public class DeviceQuery {
+    private String platform;
+    private String deviceType;
+    private Boolean realDevice;
+    private String minPlatformVersion;
+    private String maxPlatformVersion;
+    private Integer minSdk;
+    private Integer maxSdk;
+
+    public static DeviceQuery any() {
+        return new DeviceQuery();
+    }
+
+    public DeviceQuery platform(String platform) {
+        this.platform = platform;
+        return this;
+    }
+
+    public DeviceQuery deviceType(String deviceType) {
+        this.deviceType = deviceType;
+        return this;
+    }
+
+    public DeviceQuery realDevice(Boolean realDevice) {
+        this.realDevice = realDevice;
+        return this;
+    }
+
+    public DeviceQuery minPlatformVersion(String minPlatformVersion) {
+        this.minPlatformVersion = checkVersion(minPlatformVersion);
+        return this;
+    }
+
+    public DeviceQuery maxPlatformVersion(String maxPlatformVersion) {
+        this.maxPlatformVersion = checkVersion(maxPlatformVersion);
+        return this;
+    }
+
+    public DeviceQuery minSdk(Integer minSdk) {
+        this.minSdk = minSdk;
+        return this;
+    }
+
+    public DeviceQuery maxSdk(Integer maxSdk) {
+        this.maxSdk = maxSdk;
+        return this;
+    }
+
+    /**
+     * A version without a leading number would match every device as a minimum and none as
+     * a maximum, so it is rejected instead
+     */
+    private static String checkVersion(String version) {
+        if (version != null && DeviceSelector.parseVersion(version) < 0) {
+            throw new IllegalArgumentException("Not a platform version: " + version);
+        }
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder query = new StringBuilder("DeviceQuery{");
+        append(query, "platform", platform);
+        append(query, "deviceType", deviceType);
+        append(query, "realDevice", realDevice);
+        append(query, "platformVersion>=", minPlatformVersion);
+        append(query, "platformVersion<=", maxPlatformVersion);
+        append(query, "sdk>=", minSdk);
+        append(query, "sdk<=", maxSdk);
+        return query.append("}").toString();
+    }
+
+    private static void append(StringBuilder query, String name, Object value) {
+        if (value != null) {
+            if (query.charAt(query.length() - 1) != '{') {
+                query.append(", ");
+            }
+            query.append(name).append(name.endsWith("=") ? "" : "=").append(value);
+        }
+    }
+}
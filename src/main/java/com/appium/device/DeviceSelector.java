@@ -0,0 +1,162 @@
+package com.appium.device;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Per-attribute bitset indexes over a fixed list of devices. Bit {@code i} of every index
+ * refers to the device at position {@code i} of the list, so a {@link DeviceQuery} is
+ * answered by AND-ing a handful of precomputed bitsets instead of scanning every device.
+ * Version ranges are served from cumulative "at least"/"at most" bitsets per distinct version.
+ */
+public class DeviceSelector {
+    private final BitSet all = new BitSet();
+    private final Map<String, BitSet> byPlatform = new HashMap<>();
+    private final Map<String, BitSet> byDeviceType = new HashMap<>();
+    private final BitSet realDevices = new BitSet();
+    private final NavigableMap<Long, BitSet> platformVersionAtLeast = new TreeMap<>();
+    private final NavigableMap<Long, BitSet> platformVersionAtMost = new TreeMap<>();
+    private final NavigableMap<Long, BitSet> sdkAtLeast = new TreeMap<>();
+    private final NavigableMap<Long, BitSet> sdkAtMost = new TreeMap<>();
+
+    public DeviceSelector(List<Device> devices) {
+        NavigableMap<Long, BitSet> platformVersions = new TreeMap<>();
+        NavigableMap<Long, BitSet> sdks = new TreeMap<>();
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            all.set(i);
+            index(byPlatform, device.getPlatform(), i);
+            index(byDeviceType, device.getDeviceType(), i);
+            if (device.isRealDevice()) {
+                realDevices.set(i);
+            }
+            indexVersion(platformVersions, device.getPlatformVersion(), i);
+            indexVersion(sdks, device.getSdk(), i);
+        }
+        accumulate(platformVersions, platformVersionAtLeast, platformVersionAtMost);
+        accumulate(sdks, sdkAtLeast, sdkAtMost);
+    }
+
+    /**
+     * Positions of every device matching the query, regardless of whether it is busy
+     *
+     * @param query The criteria to match
+     * @return A new bitset the caller is free to modify
+     */
+    public BitSet match(DeviceQuery query) {
+        BitSet result = (BitSet) all.clone();
+        if (query == null) {
+            return result;
+        }
+        if (query.getPlatform() != null) {
+            and(result, byPlatform.get(key(query.getPlatform())));
+        }
+        if (query.getDeviceType() != null) {
+            and(result, byDeviceType.get(key(query.getDeviceType())));
+        }
+        if (query.getRealDevice() != null) {
+            if (query.getRealDevice()) {
+                result.and(realDevices);
+            } else {
+                result.andNot(realDevices);
+            }
+        }
+        if (query.getMinPlatformVersion() != null) {
+            and(result, atLeast(platformVersionAtLeast, query.getMinPlatformVersion()));
+        }
+        if (query.getMaxPlatformVersion() != null) {
+            and(result, atMost(platformVersionAtMost, query.getMaxPlatformVersion()));
+        }
+        if (query.getMinSdk() != null) {
+            and(result, atLeast(sdkAtLeast, String.valueOf(query.getMinSdk())));
+        }
+        if (query.getMaxSdk() != null) {
+            and(result, atMost(sdkAtMost, String.valueOf(query.getMaxSdk())));
+        }
+        return result;
+    }
+
+    private static BitSet atLeast(NavigableMap<Long, BitSet> index, String version) {
+        Map.Entry<Long, BitSet> entry = index.ceilingEntry(parseVersion(version));
+        return entry == null ? null : entry.getValue();
+    }
+
+    private static BitSet atMost(NavigableMap<Long, BitSet> index, String version) {
+        Map.Entry<Long, BitSet> entry = index.floorEntry(parseVersion(version));
+        return entry == null ? null : entry.getValue();
+    }
+
+    private static void and(BitSet result, BitSet index) {
+        if (index == null) {
+            result.clear();
+        } else {
+            result.and(index);
+        }
+    }
+
+    private static void index(Map<String, BitSet> index, String value, int position) {
+        if (value != null) {
+            index.computeIfAbsent(key(value), k -> new BitSet()).set(position);
+        }
+    }
+
+    private static void indexVersion(NavigableMap<Long, BitSet> index, String version,
+                                     int position) {
+        long parsed = parseVersion(version);
+        if (parsed >= 0) {
+            index.computeIfAbsent(parsed, k -> new BitSet()).set(position);
+        }
+    }
+
+    private static void accumulate(NavigableMap<Long, BitSet> exact,
+                                   NavigableMap<Long, BitSet> atLeast,
+                                   NavigableMap<Long, BitSet> atMost) {
+        BitSet running = new BitSet();
+        for (Map.Entry<Long, BitSet> entry : exact.descendingMap().entrySet()) {
+            running.or(entry.getValue());
+            atLeast.put(entry.getKey(), (BitSet) running.clone());
+        }
+        running = new BitSet();
+        for (Map.Entry<Long, BitSet> entry : exact.entrySet()) {
+            running.or(entry.getValue());
+            atMost.put(entry.getKey(), (BitSet) running.clone());
+        }
+    }
+
+    private static String key(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Encode a dotted version such as "16.4.1" into a sortable number. Only the first three
+     * numeric components are significant; returns -1 when the version has no leading digit.
+     */
+    static long parseVersion(String version) {
+        if (version == null) {
+            return -1;
+        }
+        String[] parts = version.trim().split("\\.");
+        long encoded = 0;
+        for (int i = 0; i < 3; i++) {
+            long part = 0;
+            if (i < parts.length) {
+                String digits = parts[i].replaceAll("^(\\d*).*$", "$1");
+                if (digits.isEmpty()) {
+                    if (i == 0) {
+                        return -1;
+                    }
+                } else {
+                    part = Math.min(Long.parseLong(digits.substring(0,
+                            Math.min(digits.length(), 4))), 9999);
+                }
+            }
+            encoded = encoded * 10000 + part;
+        }
+        return encoded;
+    }
+}
@@ -8,18 +8,21 @@ import lombok.SneakyThrows;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
 import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
 
 public class Devices {
-    private static List<Device> instance;
+    private static volatile List<Device> instance;
+    private static volatile DevicePool pool;
+    private static DeviceInventorySync inventorySync;
     private static final Logger LOGGER = Logger.getLogger(Devices.class.getName());
 
     private Devices() {
@@ -28,33 +31,154 @@ public class Devices {
 
     @SneakyThrows
     public static List<Device> getConnectedDevices() {
-        if (instance == null) {
-            String deviceToExecute = getOverriddenStringValue("DEVICE_TO_EXECUTE", "local");
-
-            if ("devicefarm".equalsIgnoreCase(deviceToExecute)) {
-                // Get hub URL from capabilities
-                JSONObject serverConfig = Capabilities.getInstance()
-                        .getCapabilityObjectFromKey("serverConfig");
-                String hubUrl = serverConfig
-                        .getJSONObject("server")
-                        .getJSONObject("plugin")
-                        .getJSONObject("device-farm")
-                        .getString("hub");
-
-                // Make API call to hub
-                String response = new Api().getResponse(hubUrl + "/device-farm/api/device");
-                instance = Arrays.asList(new ObjectMapper().readValue(response, Device[].class));
-            } else {
-                // Existing local logic
-                AppiumServerManager appiumServerManager = new AppiumServerManager();
-                String remoteWDHubIP = appiumServerManager.getRemoteWDHubIP();
-                URL url = new URL(remoteWDHubIP);
-                String response = new Api().getResponse(url.getProtocol()
-                        + "://" + url.getHost() + ":" + url.getPort() + "/device-farm/api/device");
-                instance = Arrays.asList(new ObjectMapper().readValue(response, Device[].class));
+        List<Device> devices = instance;
+        if (devices != null) {
+            return devices;
+        }
+        // Same lock as resetDeviceCache, so only one pool and one inventory sync are created
+        synchronized (Devices.class) {
+            if (instance == null) {
+                String endpoint = deviceEndpoint();
+                String response = new Api().getResponse(endpoint);
+                devices = ownedByShard(
+                        Arrays.asList(new ObjectMapper().readValue(response, Device[].class)));
+                pool = new DevicePool(devices);
+                instance = devices;
+                startInventorySync();
             }
+            return instance;
+        }
+    }
+
+    @SneakyThrows
+    private static String deviceEndpoint() {
+        String deviceToExecute = getOverriddenStringValue("DEVICE_TO_EXECUTE", "local");
+
+        if ("devicefarm".equalsIgnoreCase(deviceToExecute)) {
+            // Get hub URL from capabilities
+            JSONObject serverConfig = Capabilities.getInstance()
+                    .getCapabilityObjectFromKey("serverConfig");
+            String hubUrl = serverConfig
+                    .getJSONObject("server")
+                    .getJSONObject("plugin")
+                    .getJSONObject("device-farm")
+                    .getString("hub");
+            return hubUrl + "/device-farm/api/device";
+        }
+        // Existing local logic
+        AppiumServerManager appiumServerManager = new AppiumServerManager();
+        String remoteWDHubIP = appiumServerManager.getRemoteWDHubIP();
+        URL url = new URL(remoteWDHubIP);
+        return url.getProtocol() + "://" + url.getHost() + ":" + url.getPort()
+                + "/device-farm/api/device";
+    }
+
+    /**
+     * Keep the pool in step with the hub when DEVICE_SYNC_INTERVAL (seconds) is set
+     */
+    private static synchronized void startInventorySync() {
+        int interval = getOverriddenIntValue("DEVICE_SYNC_INTERVAL", 0);
+        if (interval <= 0) {
+            return;
+        }
+        if (inventorySync != null) {
+            inventorySync.close();
+        }
+        DevicePool syncedPool = pool;
+        inventorySync = new DeviceInventorySync(Devices::deviceEndpoint, syncedPool,
+                Devices::ownedByShard, () -> {
+                    if (pool == syncedPool) {
+                        instance = syncedPool.getDevices();
+                    }
+                });
+        inventorySync.start(Duration.ofSeconds(interval));
+    }
+
+    /**
+     * Keep only the devices of this shard worker when SHARD_COUNT is set, so workers sharing
+     * the same hub never compete for a device. Devices are split by their position in UDID
+     * order, every worker takes every SHARD_COUNT-th device starting at SHARD_INDEX.
+     */
+    static List<Device> ownedByShard(List<Device> devices) {
+        int shardCount = getOverriddenIntValue("SHARD_COUNT", 1);
+        if (shardCount <= 1) {
+            return devices;
+        }
+        int shardIndex = getOverriddenIntValue("SHARD_INDEX", 0);
+        List<Device> sorted = new ArrayList<>(devices);
+        sorted.sort(Comparator.comparing(Device::getUdid));
+        List<Device> owned = new ArrayList<>();
+        for (int i = shardIndex; i < sorted.size(); i += shardCount) {
+            owned.add(sorted.get(i));
         }
-        return instance;
+        LOGGER.info("Shard " + shardIndex + "/" + shardCount + " owns " + owned.size()
+                + " of " + devices.size() + " devices");
+        return owned;
+    }
+
+    /**
+     * Get the pool backing device allocation, loading the devices if required
+     *
+     * @return The device pool
+     */
+    public static DevicePool getDevicePool() {
+        if (pool == null) {
+            getConnectedDevices();
+        }
+        return pool;
+    }
+
+    /**
+     * Atomically claim a free device without waiting
+     *
+     * @return Optional containing the lease, empty if every device is busy
+     */
+    public static Optional<DeviceLease> tryAcquireDevice() {
+        return getDevicePool().tryAcquire();
+    }
+
+    /**
+     * Atomically claim a free device, waiting for one to be released if all are busy
+     *
+     * @param timeout Maximum time to wait for a device
+     * @return Optional containing the lease, empty if no device became free in time
+     */
+    @SneakyThrows
+    public static Optional<DeviceLease> acquireDevice(Duration timeout) {
+        return getDevicePool().acquire(timeout);
+    }
+
+    /**
+     * Atomically claim a free device matching the query, waiting for one to be released
+     * if all matching devices are busy
+     *
+     * @param query   The criteria the device has to match
+     * @param timeout Maximum time to wait for a device
+     * @return Optional containing the lease, empty if no matching device became free in time
+     */
+    @SneakyThrows
+    public static Optional<DeviceLease> acquireDevice(DeviceQuery query, Duration timeout) {
+        return getDevicePool().acquire(query, timeout);
+    }
+
+    /**
+     * Get all devices matching the query, busy or not
+     *
+     * @param query The criteria the devices have to match
+     * @return List of matching devices
+     */
+    public static List<Device> selectDevices(DeviceQuery query) {
+        return getDevicePool().select(query);
+    }
+
+    /**
+     * Hand a leased device back to the pool
+     *
+     * @param lease The lease returned by tryAcquireDevice() or acquireDevice()
+     * @return true if the device was released, false if the lease was already released
+     */
+    public static boolean releaseDevice(DeviceLease lease) {
+        return lease != null && lease.release();
     }
 
     /**
@@ -64,25 +188,22 @@ public class Devices {
      * @param busy The busy status to set (true = busy, false = available)
      * @return true if device was found and updated, false otherwise
      */
-    @SneakyThrows
     public static boolean setDeviceBusy(String udid, boolean busy) {
         if (instance == null) {
             LOGGER.warn("No devices loaded. Call getConnectedDevices() first.");
             return false;
         }
 
-        // Find the device in the local instance
-        Optional<Device> deviceOptional = instance.stream()
-                .filter(device -> udid.equals(device.getUdid()))
-                .findFirst();
-
-        if (!deviceOptional.isPresent()) {
+        if (!pool.contains(udid)) {
             LOGGER.warn("Device with UDID " + udid + " not found in device list.");
             return false;
         }
 
-        Device device = deviceOptional.get();
-        device.busy = busy;
+        if (busy) {
+            pool.tryAcquire(udid);
+        } else {
+            pool.release(udid);
+        }
 
         // Update device farm if using device farm mode
         // String deviceToExecute = getOverriddenStringValue("DEVICE_TO_EXECUTE", "local");
@@ -100,7 +221,7 @@ public class Devices {
      * @param udid The unique device identifier
      * @return true if device was found and updated, false otherwise
      */
-    public synchronized static boolean setDeviceBusy(String udid) {
+    public static boolean setDeviceBusy(String udid) {
         return setDeviceBusy(udid, true);
     }
 
@@ -136,9 +257,7 @@ public class Devices {
      * @return true if device is busy, false if available or not found
      */
     public static boolean isDeviceBusy(String udid) {
-        return getDeviceByUdid(udid)
-                .map(Device::isBusy)
-                .orElse(false);
+        return pool != null && pool.isBusy(udid);
     }
 
     /**
@@ -147,52 +266,38 @@ public class Devices {
      * @param udid The unique device identifier
      * @param busy The busy status to set
      */
-    @SneakyThrows
     private static void updateDeviceFarmBusyStatus(String udid, boolean busy) {
-        try {
-            JSONObject serverConfig = Capabilities.getInstance()
-                    .getCapabilityObjectFromKey("serverConfig");
-            String hubUrl = serverConfig
-                    .getJSONObject("server")
-                    .getJSONObject("plugin")
-                    .getJSONObject("device-farm")
-                    .getString("hub");
-
-            // Construct the API endpoint for updating device status
-            String apiUrl = hubUrl + "/device-farm/api/device/" + udid;
-            
-            URL url = new URL(apiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("PUT");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
-
-            // Create JSON payload
-            String jsonPayload = String.format("{\"busy\": %s}", busy);
-            
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = jsonPayload.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
-
-            int responseCode = conn.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_ACCEPTED) {
+        JSONObject serverConfig = Capabilities.getInstance()
+                .getCapabilityObjectFromKey("serverConfig");
+        String hubUrl = serverConfig
+                .getJSONObject("server")
+                .getJSONObject("plugin")
+                .getJSONObject("device-farm")
+                .getString("hub");
+
+        // Construct the API endpoint for updating device status
+        String apiUrl = hubUrl + "/device-farm/api/device/" + udid;
+        String jsonPayload = String.format("{\"busy\": %s}", busy);
+        new Api().putAsync(apiUrl, jsonPayload).whenComplete((response, error) -> {
+            if (error == null) {
                 LOGGER.info("Successfully updated device " + udid + " busy status on device farm");
             } else {
-                LOGGER.warn("Failed to update device farm. Response code: " + responseCode);
+                LOGGER.error("Error updating device farm busy status: " + error.getMessage(),
+                        error);
             }
-            
-            conn.disconnect();
-        } catch (Exception e) {
-            LOGGER.error("Error updating device farm busy status: " + e.getMessage(), e);
-        }
+        });
     }
 
     /**
      * Reset the device instance to force reload on next getConnectedDevices() call
      */
-    public static void resetDeviceCache() {
+    public static synchronized void resetDeviceCache() {
+        if (inventorySync != null) {
+            inventorySync.close();
+            inventorySync = null;
+        }
         instance = null;
+        pool = null;
         LOGGER.info("Device cache cleared. Will reload on next getConnectedDevices() call.");
     }
 
@@ -214,11 +319,12 @@ public class Devices {
     }
 
     /**
-     * Get the first available (not busy) device
+     * Get the first available (not busy) device. This only peeks at the pool, use
+     * tryAcquireDevice() or acquireDevice() to reserve a device.
      * 
      * @return Optional containing a free Device, empty if no free device found
      */
-    public synchronized static Optional<Device> getFreeDevice() {
+    public static Optional<Device> getFreeDevice() {
         if (instance == null) {
             LOGGER.warn("No devices loaded. Call getConnectedDevices() first.");
             return Optional.empty();
@@ -1,6 +1,7 @@
 package com.appium.executor;
 
 import static com.appium.filelocations.FileLocations.PARALLEL_XML_LOCATION;
+import static com.appium.filelocations.FileLocations.TEST_INDEX;
 import static com.appium.utils.ConfigFileManager.CATEGORY;
 import static com.appium.utils.ConfigFileManager.EXCLUDE_GROUPS;
 import static com.appium.utils.ConfigFileManager.INCLUDE_GROUPS;
@@ -8,16 +9,20 @@ import static com.appium.utils.ConfigFileManager.LISTENERS;
 import static com.appium.utils.ConfigFileManager.RUNNER_LEVEL;
 import static com.appium.utils.ConfigFileManager.SUITE_NAME;
 import static com.appium.utils.FigletHelper.figlet;
+import static com.appium.utils.OverriddenVariable.getOverriddenBooleanValue;
 import static java.lang.System.getProperty;
 import static java.util.Collections.addAll;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
 import com.appium.device.Device;
+import com.appium.shard.ShardBatch;
+import com.appium.shard.ShardResult;
 import com.appium.utils.ConfigFileManager;
 import org.reflections.Reflections;
 import org.reflections.scanners.MethodAnnotationsScanner;
 import org.reflections.util.ClasspathHelper;
 import org.reflections.util.ConfigurationBuilder;
+import org.testng.TestListenerAdapter;
 import org.testng.TestNG;
 import org.testng.annotations.Test;
 import org.testng.collections.Lists;
@@ -31,27 +36,68 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Method;
-import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class ATDExecutor {
-    private final List<Device> deviceList;
-    private final List<String> items = new ArrayList<String>();
+    private final Supplier<List<Device>> deviceList;
+    // Packages of the suite being built
+    private volatile List<String> items = new ArrayList<String>();
     private final List<String> listeners = new ArrayList<>();
     private final List<String> groupsInclude = new ArrayList<>();
     private final List<String> groupsExclude = new ArrayList<>();
 
+    // One non-daemon thread that ends when idle: writes stay in order and finish before exit
+    private static final ExecutorService PARALLEL_XML_WRITER = new ThreadPoolExecutor(0, 1,
+            1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable ->
+            new Thread(runnable, "parallel-xml-writer"));
+    private volatile CompletableFuture<Void> parallelXmlWritten;
+    private String preparedPack;
+    private CompletableFuture<Set<Method>> preparedMethods;
+
     public ATDExecutor(List<Device> deviceList) {
+        this(() -> deviceList);
+    }
+
+    /**
+     * @param deviceList Asked for the devices once the suite is built, so they can still be
+     *                   being looked up while the tests are found
+     */
+    public ATDExecutor(Supplier<List<Device>> deviceList) {
         this.deviceList = deviceList;
     }
 
+    /**
+     * Start finding the test methods of the packages on the executor; the next run of the
+     * same packages picks them up instead of scanning again
+     */
+    public synchronized void prepareTestMethods(String pack, Executor executor) {
+        preparedPack = pack;
+        preparedMethods = CompletableFuture.supplyAsync(() -> {
+            try {
+                return findMethods(pack);
+            } catch (IOException | URISyntaxException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
     public boolean constructXMLAndTriggerParallelRunner(List<String> test, String pack,
                                                         int deviceCount, String executionType)
             throws Exception {
@@ -61,22 +107,24 @@ public class ATDExecutor {
         Set<Method> setOfMethods = getMethods(pack);
         String runnerLevel = RUNNER_LEVEL.get();
 
+        XmlSuite suite;
         if (executionType.equalsIgnoreCase("distribute")) {
             if (runnerLevel != null && runnerLevel.equalsIgnoreCase("class")) {
-                constructXmlSuiteForClassLevelDistributionRunner(test, getTestMethods(setOfMethods),
-                        suiteName, categoryName, deviceCount);
+                suite = constructXmlSuiteForClassLevelDistributionRunner(test,
+                        getTestMethods(setOfMethods), suiteName, categoryName, deviceCount);
             }  else if (test != null && !test.isEmpty()) {
-                constructXmlSuiteWithSpecificMethodForDistributionRunner(test, getTestMethods(setOfMethods),
-                        suiteName, categoryName, deviceCount);
+                suite = constructXmlSuiteWithSpecificMethodForDistributionRunner(test,
+                        getTestMethods(setOfMethods), suiteName, categoryName, deviceCount);
             } else {
-                constructXmlSuiteForMethodLevelDistributionRunner(test,
+                suite = constructXmlSuiteForMethodLevelDistributionRunner(test,
                         getTestMethods(setOfMethods), suiteName, categoryName, deviceCount);
             }
         } else {
-            constructXmlSuiteForParallelRunner(test, getTestMethods(setOfMethods),
+            suite = constructXmlSuiteForParallelRunner(test, getTestMethods(setOfMethods),
                     suiteName, categoryName, deviceCount);
         }
-        result = testNGParallelRunner();
+        result = testNGParallelRunner(suite);
+        awaitParallelXml();
         figlet("Test Completed");
         return result;
     }
@@ -97,11 +145,12 @@ public class ATDExecutor {
         suite.setParallel(ParallelMode.TESTS);
         suite.setVerbose(2);
         suite.setListeners(listeners);
+        List<Device> devices = deviceList.get();
         for (int i = 0; i < deviceCount; i++) {
             XmlTest test = new XmlTest(suite);
             test.setName(categoryName + "-" + i);
             test.setPreserveOrder(false);
-            Device device = deviceList.get(i);
+            Device device = devices.get(i);
             test.addParameter("device", device.udid);
             test.addParameter("hostName", device.host);
             test.setIncludedGroups(groupsInclude);
@@ -109,7 +158,7 @@ public class ATDExecutor {
             List<XmlClass> xmlClasses = writeXmlClass(tests, methods);
             test.setXmlClasses(xmlClasses);
         }
-        writeTestNGFile(suite);
+        publish(suite);
         return suite;
     }
 
@@ -133,7 +182,7 @@ public class ATDExecutor {
         test.setExcludedGroups(groupsExclude);
         List<XmlClass> xmlClasses = writeXmlClass(tests, methods);
         test.setXmlClasses(xmlClasses);
-        writeTestNGFile(suite);
+        publish(suite);
         return suite;
     }
 
@@ -149,6 +198,7 @@ public class ATDExecutor {
         suite.setVerbose(2);
         suite.setParallel(ParallelMode.METHODS);
         listeners.add("com.appium.manager.AppiumParallelMethodTestListener");
+        listeners.add(DurationAwareScheduler.class.getName());
         include(listeners, LISTENERS);
         suite.setListeners(listeners);
         CreateGroups createGroups = new CreateGroups(tests, methods, category, suite).invoke();
@@ -159,7 +209,7 @@ public class ATDExecutor {
             writeXml.add(new XmlClass(xmlClass.getName()));
             test.setClasses(writeXml);
         }
-        writeTestNGFile(suite);
+        publish(suite);
         return suite;
     }
 
@@ -176,6 +226,7 @@ public class ATDExecutor {
         suite.setVerbose(2);
         suite.setParallel(ParallelMode.METHODS);
         listeners.add("com.appium.manager.AppiumParallelMethodTestListener");
+        listeners.add(DurationAwareScheduler.class.getName());
         include(listeners, LISTENERS);
         suite.setListeners(listeners);
         for (Map.Entry<String, List<Method>> mapElement : methods.entrySet()) {
@@ -196,11 +247,88 @@ public class ATDExecutor {
             }
         }
         test.setXmlClasses(classes);
-        writeTestNGFile(suite);
+        publish(suite);
         return suite;
 
     }
 
+    /**
+     * Find the test methods of the given packages, grouped by class name
+     */
+    public Map<String, List<Method>> discoverTestMethods(String pack)
+            throws IOException, URISyntaxException {
+        return getTestMethods(getMethods(pack));
+    }
+
+    /**
+     * Run one shard batch as a method level distribution suite over the local devices
+     *
+     * @param batch           Classes and methods leased by the shard coordinator
+     * @param deviceCount     Number of devices owned by this worker
+     * @param outputDirectory Directory TestNG writes the batch reports to
+     * @return Counts of the batch along with the path of its testng-results.xml
+     */
+    public ShardResult runShardBatch(ShardBatch batch, int deviceCount, File outputDirectory) {
+        List<String> batchListeners = new ArrayList<>();
+        batchListeners.add("com.appium.manager.AppiumParallelMethodTestListener");
+        batchListeners.add(DurationAwareScheduler.class.getName());
+        include(batchListeners, LISTENERS);
+        List<String> includedGroups = new ArrayList<>();
+        List<String> excludedGroups = new ArrayList<>();
+        include(includedGroups, INCLUDE_GROUPS);
+        include(excludedGroups, EXCLUDE_GROUPS);
+        XmlSuite suite = new XmlSuite();
+        suite.setName(SUITE_NAME.get());
+        suite.setThreadCount(deviceCount);
+        suite.setDataProviderThreadCount(deviceCount);
+        suite.setVerbose(2);
+        suite.setParallel(ParallelMode.METHODS);
+        suite.setListeners(batchListeners);
+        XmlTest test = new XmlTest(suite);
+        test.setName(CATEGORY.get() + "-" + batch.getId());
+        test.addParameter("device", "");
+        test.setIncludedGroups(includedGroups);
+        test.setExcludedGroups(excludedGroups);
+        List<XmlClass> classes = new ArrayList<>();
+        batch.getClasses().forEach((className, methodNames) -> {
+            XmlClass xmlClass = new XmlClass(className);
+            List<XmlInclude> includedMethods = new ArrayList<>();
+            methodNames.forEach(methodName -> includedMethods.add(new XmlInclude(methodName)));
+            xmlClass.setIncludedMethods(includedMethods);
+            classes.add(xmlClass);
+        });
+        test.setXmlClasses(classes);
+
+        TestListenerAdapter counts = new TestListenerAdapter();
+        TestNG testNG = new TestNG();
+        testNG.setXmlSuites(Collections.singletonList(suite));
+        testNG.setOutputDirectory(outputDirectory.getAbsolutePath());
+        testNG.addListener(counts);
+        if (getOverriddenBooleanValue("WORK_STEALING", false)) {
+            testNG.setExecutorFactory(new WorkStealingExecutorFactory());
+        }
+        testNG.run();
+        return new ShardResult(batch.getId(), counts.getPassedTests().size(),
+                counts.getFailedTests().size()
+                        + counts.getFailedButWithinSuccessPercentageTests().size(),
+                counts.getSkippedTests().size(),
+                new File(outputDirectory, "testng-results.xml").getAbsolutePath());
+    }
+
+    /**
+     * Run the suite object directly, without TestNG having to parse parallel.xml again
+     */
+    public boolean testNGParallelRunner(XmlSuite suite) {
+        TestNG testNG = new TestNG();
+        testNG.setXmlSuites(Collections.singletonList(suite));
+        if (suite.getParallel() == ParallelMode.METHODS
+                && getOverriddenBooleanValue("WORK_STEALING", false)) {
+            testNG.setExecutorFactory(new WorkStealingExecutorFactory());
+        }
+        testNG.run();
+        return testNG.hasFailure();
+    }
+
     public boolean testNGParallelRunner() {
         TestNG testNG = new TestNG();
         List<String> suites = Lists.newArrayList();
@@ -210,12 +338,37 @@ public class ATDExecutor {
         return testNG.hasFailure();
     }
 
-    private Set<Method> getMethods(String pack) throws MalformedURLException {
+    private Set<Method> getMethods(String pack) throws IOException, URISyntaxException {
+        items = packages(pack);
+        CompletableFuture<Set<Method>> prepared;
+        synchronized (this) {
+            prepared = pack.equals(preparedPack) ? preparedMethods : null;
+            preparedPack = null;
+            preparedMethods = null;
+        }
+        if (prepared == null) {
+            return findMethods(pack);
+        }
+        try {
+            return prepared.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof URISyntaxException) {
+                throw (URISyntaxException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Set<Method> findMethods(String pack) throws IOException, URISyntaxException {
         URL newUrl;
         List<URL> newUrls = new ArrayList<>();
-        addAll(items, pack.split("\\s*,\\s*"));
+        // May run on a bootstrap thread while the suite of a previous run is built
+        List<String> packages = packages(pack);
         int a = 0;
-        Collection<URL> urls = ClasspathHelper.forPackage(items.get(a));
+        Collection<URL> urls = ClasspathHelper.forPackage(packages.get(a));
         Iterator<URL> iter = urls.iterator();
 
         URL url = null;
@@ -226,7 +379,15 @@ public class ATDExecutor {
                 break;
             }
         }
-        for (String item : items) {
+        if (url != null && "file".equals(url.getProtocol())) {
+            File classesRoot = new File(url.toURI());
+            if (classesRoot.isDirectory()) {
+                return TestIndex.load(new File(getProperty("user.dir") + TEST_INDEX))
+                        .getTestMethods(classesRoot, packages,
+                                Thread.currentThread().getContextClassLoader());
+            }
+        }
+        for (String item : packages) {
             newUrl = new URL(url.toString() + item.replaceAll("\\.", "/"));
             newUrls.add(newUrl);
             a++;
@@ -236,6 +397,12 @@ public class ATDExecutor {
         return reflections.getMethodsAnnotatedWith(Test.class);
     }
 
+    private static List<String> packages(String pack) {
+        List<String> packages = new ArrayList<>();
+        addAll(packages, pack.split("\\s*,\\s*"));
+        return packages;
+    }
+
     private List<XmlClass> writeXmlClass(List<String> testCases, Map<String,
             List<Method>> methods) {
         List<XmlClass> xmlClasses = new ArrayList<>();
@@ -260,10 +427,29 @@ public class ATDExecutor {
         return xmlClasses;
     }
 
-    private void writeTestNGFile(XmlSuite suite) {
+    private void publish(XmlSuite suite) {
+        if (getOverriddenBooleanValue("WRITE_PARALLEL_XML", true)) {
+            // parallel.xml is only kept for debugging, so write it off the startup path
+            String xml = suite.toXml();
+            parallelXmlWritten = CompletableFuture.runAsync(() -> writeTestNGFile(xml),
+                    PARALLEL_XML_WRITER);
+        }
+    }
+
+    /**
+     * Wait for the last parallel.xml write, so it isn't cut short when the JVM exits
+     */
+    private void awaitParallelXml() {
+        CompletableFuture<Void> written = parallelXmlWritten;
+        if (written != null) {
+            written.join();
+        }
+    }
+
+    private void writeTestNGFile(String xml) {
         try (FileWriter writer = new FileWriter(new File(
             getProperty("user.dir") + PARALLEL_XML_LOCATION))) {
-            writer.write(suite.toXml());
+            writer.write(xml);
             writer.flush();
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,128 @@
+package com.appium.executor;
+
+import org.apache.log4j.Logger;
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.PriorityQueue;
+
+import static com.appium.filelocations.FileLocations.TEST_DURATION_HISTORY;
+import static java.lang.System.getProperty;
+
+/**
+ * Orders test methods longest-processing-time-first using the durations recorded on previous
+ * runs, so that long tests start early instead of stretching the tail of a distributed run.
+ * Methods without history are estimated from their class average, then the overall average.
+ * Durations of this run are recorded and saved when the suite finishes.
+ */
+public class DurationAwareScheduler implements IMethodInterceptor, ITestListener,
+        ISuiteListener {
+    private static final Logger LOGGER = Logger.getLogger(DurationAwareScheduler.class.getName());
+
+    private final TestDurationHistory history;
+
+    public DurationAwareScheduler() {
+        this(TestDurationHistory.load(new File(getProperty("user.dir") + TEST_DURATION_HISTORY)));
+    }
+
+    DurationAwareScheduler(TestDurationHistory history) {
+        this.history = history;
+    }
+
+    @Override
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        if (history.isEmpty()) {
+            LOGGER.info("No test duration history yet, keeping the default test order");
+            return methods;
+        }
+        double fallback = history.average().orElse(0);
+        Map<IMethodInstance, Double> estimates = new IdentityHashMap<>();
+        int withoutHistory = 0;
+        for (IMethodInstance method : methods) {
+            OptionalDouble estimate = estimate(method.getMethod());
+            if (!estimate.isPresent()) {
+                withoutHistory++;
+            }
+            estimates.put(method, estimate.orElse(fallback));
+        }
+        List<IMethodInstance> ordered = new ArrayList<>(methods);
+        ordered.sort(Comparator.comparing(estimates::get, Comparator.reverseOrder()));
+
+        int deviceCount = Math.max(1, context.getSuite().getXmlSuite().getThreadCount());
+        List<Double> durations = new ArrayList<>();
+        ordered.forEach(method -> durations.add(estimates.get(method)));
+        double total = durations.stream().mapToDouble(Double::doubleValue).sum();
+        LOGGER.info(String.format("Scheduled %d test methods longest first on %d devices "
+                        + "(%d without history): predicted makespan %s, total test time %s",
+                ordered.size(), deviceCount, withoutHistory,
+                format(predictMakespan(durations, deviceCount)), format(total)));
+        return ordered;
+    }
+
+    private OptionalDouble estimate(ITestNGMethod method) {
+        return history.estimate(method.getRealClass().getName(), method.getMethodName());
+    }
+
+    /**
+     * Makespan of running the durations in the given order, each on whichever device frees
+     * up first
+     */
+    static double predictMakespan(List<Double> durations, int deviceCount) {
+        PriorityQueue<Double> deviceLoads = new PriorityQueue<>();
+        for (int i = 0; i < deviceCount; i++) {
+            deviceLoads.add(0d);
+        }
+        double makespan = 0;
+        for (Double duration : durations) {
+            double load = deviceLoads.poll() + duration;
+            makespan = Math.max(makespan, load);
+            deviceLoads.add(load);
+        }
+        return makespan;
+    }
+
+    private static String format(double millis) {
+        Duration duration = Duration.ofMillis(Math.round(millis));
+        return String.format("%dm%02ds", duration.toMinutes(), duration.getSeconds() % 60);
+    }
+
+    @Override
+    public void onTestSuccess(ITestResult result) {
+        record(result);
+    }
+
+    @Override
+    public void onTestFailure(ITestResult result) {
+        record(result);
+    }
+
+    @Override
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result) {
+        record(result);
+    }
+
+    private void record(ITestResult result) {
+        history.record(result.getMethod().getRealClass().getName(),
+                result.getMethod().getMethodName(),
+                result.getEndMillis() - result.getStartMillis());
+    }
+
+    @Override
+    public void onFinish(ISuite suite) {
+        history.save();
+    }
+}
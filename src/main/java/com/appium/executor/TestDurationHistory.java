@@ -0,0 +1,105 @@
+package com.appium.executor;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Test method durations from previous runs, keyed by {@code class#method}. New runs are
+ * folded in as an exponentially weighted moving average so one slow run does not dominate.
+ */
+public class TestDurationHistory {
+    private static final Logger LOGGER = Logger.getLogger(TestDurationHistory.class.getName());
+    private static final double LATEST_RUN_WEIGHT = 0.3;
+
+    private final File file;
+    private final Map<String, Long> durations = new ConcurrentHashMap<>();
+
+    public TestDurationHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the history from a file, starting empty if the file is missing or unreadable
+     *
+     * @param file JSON file written by {@link #save()}
+     * @return The loaded history
+     */
+    public static TestDurationHistory load(File file) {
+        TestDurationHistory history = new TestDurationHistory(file);
+        if (file.exists()) {
+            try {
+                Map<String, Long> stored = new ObjectMapper().readValue(file,
+                        new TypeReference<Map<String, Long>>() { });
+                history.durations.putAll(stored);
+            } catch (IOException e) {
+                LOGGER.warn("Ignoring unreadable test duration history " + file + ": "
+                        + e.getMessage());
+            }
+        }
+        return history;
+    }
+
+    public void record(String className, String methodName, long durationMillis) {
+        durations.merge(key(className, methodName), durationMillis, (previous, latest) ->
+                Math.round(previous * (1 - LATEST_RUN_WEIGHT) + latest * LATEST_RUN_WEIGHT));
+    }
+
+    /**
+     * Expected duration of a test method: its own history if it has run before, otherwise
+     * the average of the other methods of its class.
+     *
+     * @return The expected duration in milliseconds, empty if neither is known
+     */
+    public OptionalDouble estimate(String className, String methodName) {
+        Long duration = durations.get(key(className, methodName));
+        if (duration != null) {
+            return OptionalDouble.of(duration);
+        }
+        String classPrefix = className + "#";
+        return durations.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(classPrefix))
+                .mapToLong(Map.Entry::getValue)
+                .average();
+    }
+
+    /**
+     * Average duration over every recorded test method
+     */
+    public OptionalDouble average() {
+        return durations.values().stream().mapToLong(Long::longValue).average();
+    }
+
+    public boolean isEmpty() {
+        return durations.isEmpty();
+    }
+
+    public synchronized void save() {
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            new ObjectMapper().writerWithDefaultPrettyPrinter()
+                    .writeValue(temp, new TreeMap<>(durations));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save test duration history to " + file + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private static String key(String className, String methodName) {
+        return className + "#" + methodName;
+    }
+}
@@ -0,0 +1,208 @@
+package com.appium.executor;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent index of the {@code @Test} methods found under a test-classes directory. Each
+ * class file is only inspected again when its size or modification time changes, so an
+ * unchanged test tree is resolved from the index without scanning the classpath.
+ */
+public class TestIndex {
+    private static final Logger LOGGER = Logger.getLogger(TestIndex.class.getName());
+    private static final Map<String, Class<?>> PRIMITIVES = Stream.of(boolean.class,
+                    byte.class, char.class, short.class, int.class, long.class, float.class,
+                    double.class)
+            .collect(Collectors.toMap(Class::getName, type -> type));
+
+    private final File file;
+    // Keyed by class file path relative to the test-classes directory
+    private final Map<String, ClassEntry> entries = new TreeMap<>();
+
+    public TestIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the index from a file, starting empty if the file is missing or unreadable
+     *
+     * @param file JSON file written by a previous run
+     * @return The loaded index
+     */
+    public static TestIndex load(File file) {
+        TestIndex index = new TestIndex(file);
+        if (file.exists()) {
+            try {
+                index.entries.putAll(new ObjectMapper().readValue(file,
+                        new TypeReference<Map<String, ClassEntry>>() { }));
+            } catch (IOException e) {
+                LOGGER.warn("Rebuilding unreadable test index " + file + ": " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Every method annotated with {@code @Test} in the given packages, refreshing the index
+     * entries of class files that changed since the last run and saving it if needed
+     *
+     * @param classesRoot The test-classes directory
+     * @param packages    Packages to look in, including their sub packages
+     * @param classLoader Loader able to load the test classes
+     * @return The test methods
+     */
+    public Set<Method> getTestMethods(File classesRoot, List<String> packages,
+                                      ClassLoader classLoader) throws IOException {
+        Map<String, ClassEntry> current = new TreeMap<>();
+        int rescanned = 0;
+        boolean removed = false;
+        for (String pack : packages) {
+            String prefix = pack.replace('.', '/');
+            File packageDirectory = new File(classesRoot, prefix);
+            if (!packageDirectory.isDirectory()) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(packageDirectory.toPath())) {
+                for (Path path : (Iterable<Path>) paths
+                        .filter(p -> p.toString().endsWith(".class"))::iterator) {
+                    String relativePath = classesRoot.toPath().relativize(path).toString()
+                            .replace(File.separatorChar, '/');
+                    File classFile = path.toFile();
+                    ClassEntry entry = entries.get(relativePath);
+                    if (entry == null || entry.lastModified != classFile.lastModified()
+                            || entry.size != classFile.length() || !entry.isResolvable()) {
+                        entry = scan(relativePath, classFile, classLoader);
+                        rescanned++;
+                    }
+                    // A class that failed to load is left out, so the next run tries again
+                    if (entry != null) {
+                        current.put(relativePath, entry);
+                    }
+                }
+            }
+            removed |= entries.keySet().removeIf(key -> key.startsWith(prefix + "/")
+                    && !current.containsKey(key));
+        }
+        entries.putAll(current);
+        LOGGER.info(String.format("Test index: %d class files, %d rescanned",
+                current.size(), rescanned));
+        if (rescanned > 0 || removed) {
+            save();
+        }
+        return resolve(current.values(), classLoader);
+    }
+
+    /**
+     * Look the indexed methods up by signature, without reading the annotations of every
+     * method of the class again
+     */
+    private Set<Method> resolve(Iterable<ClassEntry> classEntries, ClassLoader classLoader) {
+        Set<Method> methods = new HashSet<>();
+        for (ClassEntry entry : classEntries) {
+            if (entry.methods.isEmpty()) {
+                continue;
+            }
+            try {
+                Class<?> testClass = Class.forName(entry.className, false, classLoader);
+                for (MethodEntry method : entry.methods) {
+                    Class<?>[] parameterTypes = new Class<?>[method.parameterTypes.size()];
+                    for (int i = 0; i < parameterTypes.length; i++) {
+                        parameterTypes[i] = typeFor(method.parameterTypes.get(i), classLoader);
+                    }
+                    methods.add(testClass.getDeclaredMethod(method.name, parameterTypes));
+                }
+            } catch (ReflectiveOperationException | LinkageError e) {
+                LOGGER.warn("Unable to load indexed test class " + entry.className + ": " + e);
+            }
+        }
+        return methods;
+    }
+
+    private static Class<?> typeFor(String name, ClassLoader classLoader)
+            throws ClassNotFoundException {
+        Class<?> primitive = PRIMITIVES.get(name);
+        return primitive != null ? primitive : Class.forName(name, false, classLoader);
+    }
+
+    /**
+     * @return The entry, null if the class can't be loaded
+     */
+    private ClassEntry scan(String relativePath, File classFile, ClassLoader classLoader) {
+        ClassEntry entry = new ClassEntry();
+        entry.className = relativePath.substring(0, relativePath.length() - ".class".length())
+                .replace('/', '.');
+        entry.lastModified = classFile.lastModified();
+        entry.size = classFile.length();
+        try {
+            Class<?> testClass = Class.forName(entry.className, false, classLoader);
+            for (Method method : testClass.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(Test.class)) {
+                    MethodEntry methodEntry = new MethodEntry();
+                    methodEntry.name = method.getName();
+                    methodEntry.parameterTypes = Arrays.stream(method.getParameterTypes())
+                            .map(Class::getName)
+                            .collect(Collectors.toList());
+                    entry.methods.add(methodEntry);
+                }
+            }
+        } catch (ClassNotFoundException | LinkageError e) {
+            LOGGER.debug("Skipping class " + entry.className + " in test index: " + e);
+            return null;
+        }
+        return entry;
+    }
+
+    public void save() {
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            new ObjectMapper().writeValue(temp, entries);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save test index to " + file + ": " + e.getMessage());
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ClassEntry {
+        public String className;
+        public long lastModified;
+        public long size;
+        public List<MethodEntry> methods = new ArrayList<>();
+
+        /**
+         * Entries written before parameter types were indexed are scanned again
+         */
+        boolean isResolvable() {
+            return methods.stream().allMatch(method -> method.parameterTypes != null);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class MethodEntry {
+        public String name;
+        public List<String> parameterTypes;
+    }
+}
@@ -0,0 +1,57 @@
+package com.appium.executor;
+
+import com.appium.manager.AppiumDriverManager;
+import org.testng.IDynamicGraph;
+import org.testng.ISuite;
+import org.testng.ITestNGMethod;
+import org.testng.internal.thread.DefaultThreadPoolExecutorFactory;
+import org.testng.thread.IExecutorFactory;
+import org.testng.thread.ITestNGThreadPoolExecutor;
+import org.testng.thread.IThreadWorkerFactory;
+
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor factory handing the test methods of each {@code <test>} to a
+ * {@link WorkStealingTestExecutor} whose workers each keep one leased device for their whole
+ * lifetime. Suites keep running on TestNG's default executor.
+ */
+public class WorkStealingExecutorFactory implements IExecutorFactory {
+    private final IExecutorFactory defaultFactory = new DefaultThreadPoolExecutorFactory();
+
+    @Override
+    public ITestNGThreadPoolExecutor newSuiteExecutor(String name, IDynamicGraph<ISuite> graph,
+                                                      IThreadWorkerFactory<ISuite> factory,
+                                                      int corePoolSize, int maximumPoolSize,
+                                                      long keepAliveTime, TimeUnit unit,
+                                                      BlockingQueue<Runnable> workQueue,
+                                                      Comparator<ISuite> comparator) {
+        return defaultFactory.newSuiteExecutor(name, graph, factory, corePoolSize,
+                maximumPoolSize, keepAliveTime, unit, workQueue, comparator);
+    }
+
+    @Override
+    public ITestNGThreadPoolExecutor newTestMethodExecutor(String name,
+                                                           IDynamicGraph<ITestNGMethod> graph,
+                                                           IThreadWorkerFactory<ITestNGMethod>
+                                                                   factory,
+                                                           int corePoolSize, int maximumPoolSize,
+                                                           long keepAliveTime, TimeUnit unit,
+                                                           BlockingQueue<Runnable> workQueue,
+                                                           Comparator<ITestNGMethod> comparator) {
+        return new WorkStealingTestExecutor<>(name, graph, factory, maximumPoolSize,
+                comparator, new WorkStealingTestExecutor.WorkerLifecycle() {
+                    @Override
+                    public void started(int worker) {
+                        AppiumDriverManager.bindDevice();
+                    }
+
+                    @Override
+                    public void stopped(int worker) {
+                        AppiumDriverManager.unbindDevice();
+                    }
+                });
+    }
+}
@@ -0,0 +1,233 @@
+package com.appium.executor;
+
+import org.apache.log4j.Logger;
+import org.testng.IDynamicGraph;
+import org.testng.thread.ITestNGThreadPoolExecutor;
+import org.testng.thread.IThreadWorkerFactory;
+import org.testng.thread.IWorker;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the test method graph of one {@code <test>} on a fixed set of worker threads, one per
+ * device, each with its own deque of test methods. A worker takes methods from the head of its
+ * own deque and, once that is empty, steals from the tail of the fullest other deque, so a
+ * slow device simply ends up running fewer methods. Methods unlocked by a finished method are
+ * queued on the worker that finished it, keeping dependent methods on the same device.
+ * The {@link WorkerLifecycle} ties every worker to its device for the worker's lifetime.
+ */
+public class WorkStealingTestExecutor<T> extends AbstractExecutorService
+        implements ITestNGThreadPoolExecutor {
+    private static final Logger LOGGER =
+            Logger.getLogger(WorkStealingTestExecutor.class.getName());
+    private static final long IDLE_WAIT_MILLIS = 100;
+
+    /**
+     * Hooks run on the worker thread before its first and after its last test method
+     */
+    public interface WorkerLifecycle {
+        void started(int worker);
+
+        void stopped(int worker);
+    }
+
+    private final String name;
+    private final IDynamicGraph<T> graph;
+    private final IThreadWorkerFactory<T> factory;
+    private final Comparator<T> comparator;
+    private final WorkerLifecycle lifecycle;
+    private final List<Deque<Runnable>> deques = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger nextDeque = new AtomicInteger();
+    private final AtomicLong steals = new AtomicLong();
+    private final Object idle = new Object();
+    private final CountDownLatch terminated;
+    private volatile boolean shutdown;
+
+    public WorkStealingTestExecutor(String name, IDynamicGraph<T> graph,
+                                    IThreadWorkerFactory<T> factory, int threadCount,
+                                    Comparator<T> comparator, WorkerLifecycle lifecycle) {
+        this.name = name;
+        this.graph = graph;
+        this.factory = factory;
+        this.comparator = comparator;
+        this.lifecycle = lifecycle;
+        int workers = Math.max(1, threadCount);
+        for (int i = 0; i < workers; i++) {
+            deques.add(new ConcurrentLinkedDeque<>());
+        }
+        terminated = new CountDownLatch(workers);
+    }
+
+    @Override
+    public void run() {
+        synchronized (graph) {
+            schedule(graph.getFreeNodes(), -1);
+        }
+        for (int i = 0; i < deques.size(); i++) {
+            int owner = i;
+            Thread thread = new Thread(() -> work(owner), name + "-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Create workers for the free nodes and queue them, spread round-robin over every deque
+     * when no owner is given
+     */
+    private void schedule(List<T> freeNodes, int owner) {
+        if (freeNodes.isEmpty()) {
+            return;
+        }
+        if (comparator != null) {
+            freeNodes.sort(comparator);
+        }
+        for (IWorker<T> worker : factory.createWorkers(freeNodes)) {
+            graph.setStatus(worker.getTasks(), IDynamicGraph.Status.RUNNING);
+            int target = owner >= 0 ? owner
+                    : Math.floorMod(nextDeque.getAndIncrement(), deques.size());
+            deques.get(target).addLast(worker);
+        }
+        synchronized (idle) {
+            idle.notifyAll();
+        }
+    }
+
+    private void work(int owner) {
+        try {
+            lifecycle.started(owner);
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to start test worker " + owner, e);
+        }
+        try {
+            while (!shutdown) {
+                Runnable task = deques.get(owner).pollFirst();
+                if (task == null) {
+                    task = steal(owner);
+                }
+                if (task == null) {
+                    synchronized (idle) {
+                        if (!shutdown) {
+                            idle.wait(IDLE_WAIT_MILLIS);
+                        }
+                    }
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Test worker failed", e);
+                } finally {
+                    afterExecute(task, owner);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                lifecycle.stopped(owner);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to stop test worker " + owner, e);
+            } finally {
+                terminated.countDown();
+            }
+        }
+    }
+
+    private Runnable steal(int thief) {
+        Deque<Runnable> victim = null;
+        int victimSize = 0;
+        for (int i = 0; i < deques.size(); i++) {
+            int size = deques.get(i).size();
+            if (i != thief && size > victimSize) {
+                victim = deques.get(i);
+                victimSize = size;
+            }
+        }
+        Runnable task = victim == null ? null : victim.pollLast();
+        if (task != null) {
+            steals.incrementAndGet();
+        }
+        return task;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void afterExecute(Runnable task, int owner) {
+        if (!(task instanceof IWorker)) {
+            return;
+        }
+        synchronized (graph) {
+            graph.setStatus(((IWorker<T>) task).getTasks(), IDynamicGraph.Status.FINISHED);
+            if (graph.getNodeCount() == graph.getNodeCountWithStatus(
+                    IDynamicGraph.Status.FINISHED)) {
+                LOGGER.info(name + ": all test methods finished, " + steals.get()
+                        + " stolen between devices");
+                shutdown();
+            } else {
+                schedule(graph.getFreeNodes(), owner);
+            }
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new IllegalStateException(name + " has been shut down");
+        }
+        deques.get(Math.floorMod(nextDeque.getAndIncrement(), deques.size())).addLast(command);
+        synchronized (idle) {
+            idle.notifyAll();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        synchronized (idle) {
+            idle.notifyAll();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        List<Runnable> pending = new ArrayList<>();
+        for (Deque<Runnable> deque : deques) {
+            Runnable task;
+            while ((task = deque.pollFirst()) != null) {
+                pending.add(task);
+            }
+        }
+        threads.forEach(Thread::interrupt);
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    public long getSteals() {
+        return steals.get();
+    }
+}
@@ -12,8 +12,11 @@ public interface FileLocations {
             : File.separator + "target" + File.separator;
 
     String PARALLEL_XML_LOCATION = OUTPUT_DIRECTORY + "parallel.xml";
+    String TEST_DURATION_HISTORY = OUTPUT_DIRECTORY + "test-durations.json";
+    String TEST_INDEX = OUTPUT_DIRECTORY + "test-index.json";
 
     String SERVER_CONFIG = OUTPUT_DIRECTORY + "server.json";
+    String PLAIN_SERVER_CONFIG = OUTPUT_DIRECTORY + "server-plain.json";
     String REPORTS_DIRECTORY = OUTPUT_DIRECTORY + "reports" + File.separator;
 
     String SCREENSHOTS_DIRECTORY = OUTPUT_DIRECTORY + "screenshot" + File.separator;
@@ -0,0 +1,62 @@
+package com.appium.manager;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the start-up steps of {@link ATDRunner} on their own threads so that steps which
+ * don't depend on each other overlap, and logs how long each one took. The threads are
+ * created by the thread that starts the runner, so they share its context class loader.
+ */
+class ATDBootstrap {
+    private static final Logger LOGGER = Logger.getLogger(ATDBootstrap.class.getName());
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "atd-bootstrap-" + threadCount.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    <T> CompletableFuture<T> run(String step, Callable<T> action) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                return action.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                LOGGER.info(String.format("Bootstrap step '%s' took %d ms", step,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }
+        }, executor);
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Wait for a step, rethrowing what made it fail
+     */
+    static <T> T await(CompletableFuture<T> step) throws Exception {
+        try {
+            return step.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
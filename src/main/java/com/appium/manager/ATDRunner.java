@@ -4,7 +4,15 @@ import com.appium.capabilities.Capabilities;
 import com.appium.device.Device;
 import com.appium.device.Devices;
 import com.appium.executor.ATDExecutor;
+import com.appium.executor.TestDurationHistory;
 import com.appium.filelocations.FileLocations;
+import com.appium.plugin.PluginClI;
+import com.appium.shard.ShardBatch;
+import com.appium.shard.ShardCoordinator;
+import com.appium.shard.ShardResult;
+import com.appium.shard.ShardWorker;
+import com.appium.shard.TestNGResultsMerger;
+import com.appium.utils.Api;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.log4j.Logger;
@@ -13,13 +21,21 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import static com.appium.filelocations.FileLocations.PLAIN_SERVER_CONFIG;
 import static com.appium.filelocations.FileLocations.SERVER_CONFIG;
+import static com.appium.filelocations.FileLocations.TEST_DURATION_HISTORY;
 import static com.appium.utils.ConfigFileManager.FRAMEWORK;
 import static com.appium.utils.ConfigFileManager.RUNNER;
 import static com.appium.utils.FigletHelper.figlet;
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
 import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
 import static java.lang.System.getProperty;
 
@@ -31,25 +47,84 @@ public class ATDRunner {
 
     private final ATDExecutor ATDExecutor;
     private final Capabilities capabilities;
+    private final AppiumServerManager appiumServerManager;
+    private final boolean cloudExecution;
+    private final ATDBootstrap bootstrap = new ATDBootstrap();
+    private final CompletableFuture<List<Device>> devices;
     private static final Logger LOGGER = Logger.getLogger(ATDRunner.class.getName());
 
 
+    /**
+     * Parses the capabilities and starts bringing up the server and devices in the background;
+     * {@link #runner(String, List)} finds the tests meanwhile and waits for them before running.
+     * Callers that need the server right away use {@link #awaitReady()}.
+     */
     public ATDRunner() throws Exception {
         setLog4jCompatibility();
         capabilities = Capabilities.getInstance();
-        writeServiceConfig();
         ObjectMapper mapper = new ObjectMapper();
         JsonNode rootNode = mapper.readTree(capabilities.getCapabilities().toString());
-        AppiumServerManager appiumServerManager = new AppiumServerManager();
-      if (isCloudExecution(rootNode)) {
+        appiumServerManager = new AppiumServerManager();
+        cloudExecution = isCloudExecution(rootNode);
+        ATDExecutor = new ATDExecutor(devices());
+        bootstrap.run("capability schema", this::validateCapabilitySchema);
+        CompletableFuture<Void> serviceConfig = bootstrap.run("output directory", () -> {
+            createOutputDirectoryIfNotExist();
+            writeServiceConfig();
+            return null;
+        });
+        if (isShardCoordinator()) {
+            // Worker JVMs start their own servers and own the devices
+            devices = serviceConfig.thenApply(done -> new ArrayList<>());
+            return;
+        }
+        CompletableFuture<Void> server = serviceConfig.thenCompose(done ->
+                bootstrap.run("appium server", () -> {
+                    startAppiumServer();
+                    return null;
+                }));
+        // Fetched alongside the devices instead of by the first test
+        server.thenCompose(done -> bootstrap.run("plugin cli args", PluginClI::getInstance))
+                .exceptionally(e -> {
+                    LOGGER.debug("Plugin cli args will be fetched on first use", e);
+                    return null;
+                });
+        devices = server.thenCompose(done ->
+                bootstrap.run("devices", Devices::getConnectedDevices));
+    }
+
+    private Supplier<List<Device>> devices() {
+        return () -> devices.join();
+    }
+
+    /**
+     * Wait until the server is up and the devices are known
+     *
+     * @return The connected devices
+     */
+    public List<Device> awaitReady() throws Exception {
+        return ATDBootstrap.await(devices);
+    }
+
+    private void startAppiumServer() throws Exception {
+      if (cloudExecution) {
         System.out.println("☁️ Cloud execution detected (pCloudy). Skipping local Appium server startup.");
       } else {
         System.out.println("🖥️ Local execution detected. Starting Appium server...");
         appiumServerManager.startAppiumServer("127.0.0.1");
-}
-        List<Device> devices = Devices.getConnectedDevices();
-        ATDExecutor = new ATDExecutor(devices);
-        createOutputDirectoryIfNotExist();
+      }
+    }
+
+    /**
+     * Only reported: the capability files in use were not checked against the schema before
+     */
+    private Void validateCapabilitySchema() {
+        try {
+            capabilities.validateCapabilitySchema(capabilities.getCapabilities());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Capabilities don't match the schema: " + e.getMessage());
+        }
+        return null;
     }
 
     private void setLog4jCompatibility() {
@@ -68,6 +143,14 @@ public class ATDRunner {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        // Extra server instances run without the device farm plugin
+        try (FileWriter writer = new FileWriter(new File(
+                getProperty("user.dir") + PLAIN_SERVER_CONFIG))) {
+            writer.write(AppiumServerManager.withoutDeviceFarm(serverConfig).toString());
+            writer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private void createOutputDirectoryIfNotExist() {
@@ -79,11 +162,91 @@ public class ATDRunner {
 
     public boolean runner(String pack, List<String> tests) throws Exception {
         figlet(RUNNER.get());
-        return parallelExecution(pack, tests);
+        return run(pack, tests);
     }
 
     public boolean runner(String pack) throws Exception {
-        return parallelExecution(pack, new ArrayList<>());
+        return run(pack, new ArrayList<>());
+    }
+
+    private boolean run(String pack, List<String> tests) throws Exception {
+        if (isShardCoordinator()) {
+            awaitReady();
+            return shardedExecution(pack, tests);
+        }
+        ATDExecutor.prepareTestMethods(pack, bootstrap.executor());
+        awaitReady();
+        return parallelExecution(pack, tests);
+    }
+
+    private boolean isShardCoordinator() {
+        return "coordinator".equalsIgnoreCase(getOverriddenStringValue("SHARD_ROLE", ""));
+    }
+
+    /**
+     * Lease the test classes of the package to worker JVMs and merge their results.
+     * SHARD_LOCAL_WORKERS worker JVMs are started on this machine, further workers can
+     * connect to SHARD_PORT themselves.
+     */
+    private boolean shardedExecution(String pack, List<String> tests) throws Exception {
+        TestDurationHistory history = TestDurationHistory.load(
+                new File(getProperty(USER_DIR) + TEST_DURATION_HISTORY));
+        List<ShardBatch> batches = ShardBatch.partition(
+                ATDExecutor.discoverTestMethods(pack), tests, history);
+        int localWorkers = getOverriddenIntValue("SHARD_LOCAL_WORKERS", 0);
+        Duration timeout = Duration.ofMinutes(getOverriddenIntValue("SHARD_TIMEOUT", 240));
+        List<Process> workers = new ArrayList<>();
+        List<ShardResult> results;
+        try (ShardCoordinator coordinator = ShardCoordinator.fromEnvironment(batches)) {
+            coordinator.start();
+            for (int i = 0; i < localWorkers; i++) {
+                workers.add(ShardWorker.launch(coordinator.getHost(), coordinator.getPort(),
+                        pack, i, localWorkers));
+            }
+            if (!coordinator.awaitCompletion(timeout)) {
+                LOGGER.error("Shard workers did not finish every batch within " + timeout);
+            }
+            for (Process worker : workers) {
+                if (!worker.waitFor(1, TimeUnit.MINUTES)) {
+                    worker.destroy();
+                }
+            }
+            results = coordinator.getResults();
+        }
+
+        List<File> resultFiles = results.stream()
+                .filter(result -> result.getResultsFile() != null)
+                .map(result -> new File(result.getResultsFile()))
+                .collect(Collectors.toList());
+        new TestNGResultsMerger().merge(resultFiles, new File(getProperty(USER_DIR)
+                + FileLocations.OUTPUT_DIRECTORY + "testng-results.xml"));
+        results.forEach(result -> LOGGER.info(result.toString()));
+        figlet("Test Completed");
+        return results.size() < batches.size()
+                || results.stream().anyMatch(ShardResult::hasFailure);
+    }
+
+    /**
+     * Run one batch leased by the shard coordinator on the devices of this worker
+     */
+    public ShardResult runShardBatch(String pack, ShardBatch batch) throws Exception {
+        awaitReady();
+        // The suite listeners stop the Appium server once a batch finishes
+        if (!cloudExecution && !appiumServerManager.isAppiumServerRunning()) {
+            appiumServerManager.startAppiumServer("127.0.0.1");
+        }
+        int deviceCount = Devices.getConnectedDevices().size();
+        if (deviceCount == 0) {
+            throw new IllegalStateException("No devices available for " + batch);
+        }
+        createAppiumLogsFolder();
+        createSnapshotDirectoryFor();
+        if (getOverriddenStringValue("Platform").equalsIgnoreCase("android")) {
+            generateDirectoryForAdbLogs();
+        }
+        File outputDirectory = new File(getProperty(USER_DIR) + FileLocations.OUTPUT_DIRECTORY
+                + "shard-results" + File.separator + "batch-" + batch.getId());
+        return ATDExecutor.runShardBatch(batch, deviceCount, outputDirectory);
     }
 
     private boolean parallelExecution(String pack, List<String> tests) throws Exception {
@@ -118,6 +281,7 @@ public class ATDRunner {
             result = ATDExecutor.constructXMLAndTriggerParallelRunner(tests, pack, deviceCount,
                     executionType);
         }
+        Api.logMetrics();
         return result;
     }
 
@@ -3,8 +3,11 @@ package com.appium.manager;
 import com.appium.capabilities.DesiredCapabilityBuilder;
 import com.appium.capabilities.DriverSession;
 import com.appium.device.Device;
+import com.appium.device.DeviceLease;
+import com.appium.device.DeviceQuery;
 import com.appium.device.Devices;
 import com.appium.entities.MobilePlatform;
+import com.appium.filelocations.FileLocations;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import io.appium.java_client.AppiumDriver;
@@ -20,17 +23,31 @@ import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.remote.DesiredCapabilities;
 
 import java.io.File;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static com.appium.manager.AppiumDeviceManager.getMobilePlatform;
 import static com.appium.utils.ConfigFileManager.CAPS;
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
 
 public class AppiumDriverManager {
     private static ThreadLocal<AppiumDriver> appiumDriver = new ThreadLocal<>();
+    private static ThreadLocal<DeviceLease> deviceLease = new ThreadLocal<>();
+    private static ThreadLocal<PooledSession> pooledSession = new ThreadLocal<>();
+    private static ThreadLocal<DeviceLease> boundLease = new ThreadLocal<>();
+    private static final AppiumSessionPool SESSION_POOL = AppiumSessionPool.fromEnvironment();
+    private static final SessionPrefetcher PREFETCHER = SessionPrefetcher.fromEnvironment();
+    private static final Duration SESSION_POOL_POLL_INTERVAL = Duration.ofMillis(500);
     private static final Logger LOGGER = Logger.getLogger(AppiumDriverManager.class.getName());
+    private static final int DEFAULT_DEVICE_ALLOCATION_TIMEOUT_SECONDS = 300;
+    private static final DeviceSessionPorts PLAIN_INSTANCE_PORTS =
+            new DeviceSessionPorts(System.getProperty("user.dir") + FileLocations.DERIVED_DATA);
 
     public static AppiumDriver getDriver() {
         return appiumDriver.get();
@@ -46,7 +63,8 @@ public class AppiumDriverManager {
         appiumDriver.set(driver);
     }
 
-    private AppiumDriver initialiseDriver(DesiredCapabilities desiredCapabilities) {
+    private AppiumDriver initialiseDriver(DesiredCapabilities desiredCapabilities,
+                                          DeviceQuery deviceQuery) {
         String allCapabilities = desiredCapabilities.getCapabilityNames().stream()
                 .map(key -> String.format("%n\t%s:: %s", key,
                         desiredCapabilities.getCapability(key)))
@@ -54,40 +72,145 @@ public class AppiumDriverManager {
 
         LOGGER.info(String.format("Initialise Driver with Capabilities: %s",
                 allCapabilities));
-        AppiumServerManager appiumServerManager = new AppiumServerManager();
-        String remoteWDHubIP = appiumServerManager.getRemoteWDHubIP();
-        return createAppiumDriver(desiredCapabilities, remoteWDHubIP);
+        return createAppiumDriver(desiredCapabilities, deviceQuery);
     }
 
-    @SneakyThrows
     private AppiumDriver createAppiumDriver(DesiredCapabilities desiredCapabilities,
-                                            String remoteWDHubIP) {
+                                            DeviceQuery deviceQuery) {
+        if (deviceQuery == null) {
+            deviceQuery = getDefaultDeviceQuery(getMobilePlatform());
+        }
+        DeviceLease bound = boundLease.get();
+        if (bound != null && Devices.getDevicePool().matches(deviceQuery, bound.getUdid())) {
+            // Pooled and prefetched sessions may be on other devices, the thread keeps its own
+            return claimSession(createSession(desiredCapabilities, bound));
+        }
+        PooledSession session = AppiumSessionPool.isEnabled() || PREFETCHER.isEnabled()
+                ? borrowOrCreateSession(desiredCapabilities, deviceQuery)
+                : createSession(desiredCapabilities, acquireDevice(deviceQuery,
+                        getDeviceAllocationTimeout()));
+        AppiumDriver driver = claimSession(session);
+        if (PREFETCHER.isEnabled()) {
+            // Start building the session for the next test method while this one runs
+            PREFETCHER.prefetch(desiredCapabilities, deviceQuery,
+                    lease -> createSession(desiredCapabilities, lease));
+        }
+        return driver;
+    }
 
-        AppiumDriver currentDriverSession;
+    /**
+     * Reuse a warm session from the pool or a prefetched one when they match, otherwise lease
+     * a free device and create a new session on it. When every matching device is held by an
+     * idle or prefetched session with different capabilities, one of those is quit to make
+     * room.
+     */
+    private PooledSession borrowOrCreateSession(DesiredCapabilities desiredCapabilities,
+                                                DeviceQuery deviceQuery) {
+        Duration allocationTimeout = getDeviceAllocationTimeout();
+        long deadline = System.nanoTime() + allocationTimeout.toNanos();
+        while (true) {
+            Optional<PooledSession> pooled = SESSION_POOL.borrow(desiredCapabilities,
+                    deviceQuery);
+            if (pooled.isPresent()) {
+                LOGGER.info("Reusing pooled session " + pooled.get());
+                return pooled.get();
+            }
+            Optional<PooledSession> prefetched = PREFETCHER.take(desiredCapabilities,
+                    deviceQuery);
+            if (prefetched.isPresent()) {
+                return prefetched.get();
+            }
+            Optional<DeviceLease> lease = Devices.getDevicePool().tryAcquire(deviceQuery);
+            if (!lease.isPresent() && !SESSION_POOL.evictIdle(deviceQuery)
+                    && !PREFETCHER.discardOne(deviceQuery, this::discardSession)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Devices.selectDevices(deviceQuery).isEmpty()) {
+                    throw noDeviceAvailable(deviceQuery, allocationTimeout);
+                }
+                lease = Devices.acquireDevice(deviceQuery, Duration.ofNanos(
+                        Math.min(remaining, SESSION_POOL_POLL_INTERVAL.toNanos())));
+            }
+            if (lease.isPresent()) {
+                return createSession(desiredCapabilities, lease.get());
+            }
+        }
+    }
+
+    private DeviceLease acquireDevice(DeviceQuery deviceQuery, Duration allocationTimeout) {
+        // Lease a matching device from the pool, waiting for one to be released if all are busy
+        return Devices.acquireDevice(deviceQuery, allocationTimeout)
+                .orElseThrow(() -> noDeviceAvailable(deviceQuery, allocationTimeout));
+    }
+
+    private RuntimeException noDeviceAvailable(DeviceQuery deviceQuery,
+                                               Duration allocationTimeout) {
+        return new RuntimeException("No free device matching " + deviceQuery
+                + " available to create driver session within "
+                + allocationTimeout.getSeconds() + " seconds");
+    }
+
+    /**
+     * Create a driver session on an already leased device. Does not touch any thread local
+     * state, the lease is released if the session cannot be created.
+     */
+    @SneakyThrows
+    private PooledSession createSession(DesiredCapabilities desiredCapabilities,
+                                        DeviceLease lease) {
         MobilePlatform mobilePlatform = getMobilePlatform();
-        URL url = new URL(remoteWDHubIP + "/wd/hub");
-        
-        // Get a free device from device farm
-        Optional<Device> freeDevice = Devices.getFreeDevice();
-        
-        if (!freeDevice.isPresent()) {
-            throw new RuntimeException("No free device available to create driver session");
-        }
-        
-        Device device = freeDevice.get();
+        Device device = lease.getDevice();
         String deviceUdid = device.getUdid();
-        
-        LOGGER.info("Found free device: " + deviceUdid + " (" + device.getName() + ")");
-        
-        // Mark device as busy
-        Devices.setDeviceBusy(deviceUdid);
+        LOGGER.info("Leased free device: " + deviceUdid + " (" + device.getName() + ")");
 
+        AppiumDriver currentDriverSession;
+        try {
+            AppiumServerManager serverManager = new AppiumServerManager();
+            URL url = new URL(serverManager.getRemoteWDHubIP(deviceUdid) + "/wd/hub");
+            // Plain instances leave per device ports and the busy state to us
+            boolean plainInstance = serverManager.isPlainInstance(deviceUdid);
+            if (plainInstance) {
+                serverManager.blockOnHubUntilReleased(lease);
+            }
+            currentDriverSession = newDriverSession(mobilePlatform, url,
+                    desiredCapabilities, device, plainInstance);
+        } catch (RuntimeException | MalformedURLException e) {
+            if (lease != boundLease.get()) {
+                lease.release();
+            }
+            throw e;
+        }
+
+        Capabilities currentDriverSessionCapabilities = currentDriverSession.getCapabilities();
+        LOGGER.info("Session Created for "
+                + mobilePlatform.name()
+                + "\n\tSession Id: " + currentDriverSession.getSessionId()
+                + "\n\tUDID: " + currentDriverSessionCapabilities.getCapability("udid"));
+        String json = new Gson().toJson(currentDriverSessionCapabilities.asMap());
+        DriverSession driverSessions = (new ObjectMapper().readValue(json, DriverSession.class));
+        return new PooledSession(currentDriverSession, lease, driverSessions,
+                desiredCapabilities);
+    }
+
+    private AppiumDriver claimSession(PooledSession session) {
+        pooledSession.set(session);
+        deviceLease.set(session.getLease());
+        AppiumDeviceManager.setDevice(session.getDriverSession());
+        return session.getDriver();
+    }
+
+    private AppiumDriver newDriverSession(MobilePlatform mobilePlatform, URL url,
+                                          DesiredCapabilities desiredCapabilities,
+                                          Device device, boolean plainInstance) {
+        String deviceUdid = device.getUdid();
+        AppiumDriver currentDriverSession;
         switch (mobilePlatform) {
             case IOS:
                 // Convert DesiredCapabilities to XCUITestOptions
                 XCUITestOptions iosOptions = new XCUITestOptions();
                 mergeCapabilities(desiredCapabilities, iosOptions);
                 iosOptions.setUdid(deviceUdid); // Set the device UDID
+                if (plainInstance) {
+                    PLAIN_INSTANCE_PORTS.apply(iosOptions, mobilePlatform, device);
+                }
                 currentDriverSession = new IOSDriver(url, iosOptions);
                 break;
             case ANDROID:
@@ -95,6 +218,9 @@ public class AppiumDriverManager {
                 UiAutomator2Options androidOptions = new UiAutomator2Options();
                 mergeCapabilities(desiredCapabilities, androidOptions);
                 androidOptions.setUdid(deviceUdid); // Set the device UDID
+                if (plainInstance) {
+                    PLAIN_INSTANCE_PORTS.apply(androidOptions, mobilePlatform, device);
+                }
                 currentDriverSession = new AndroidDriver(url, androidOptions);
                 break;
             case WINDOWS:
@@ -107,18 +233,95 @@ public class AppiumDriverManager {
             default:
                 throw new IllegalStateException("Unexpected value: " + mobilePlatform);
         }
-        
-        Capabilities currentDriverSessionCapabilities = currentDriverSession.getCapabilities();
-        LOGGER.info("Session Created for "
-                + AppiumDeviceManager.getMobilePlatform().name()
-                + "\n\tSession Id: " + currentDriverSession.getSessionId()
-                + "\n\tUDID: " + currentDriverSessionCapabilities.getCapability("udid"));
-        String json = new Gson().toJson(currentDriverSessionCapabilities.asMap());
-        DriverSession driverSessions = (new ObjectMapper().readValue(json, DriverSession.class));
-        AppiumDeviceManager.setDevice(driverSessions);
         return currentDriverSession;
     }
 
+    /**
+     * Device criteria taken from the run configuration: the platform under test plus the
+     * optional MIN_PLATFORM_VERSION, MAX_PLATFORM_VERSION and REAL_DEVICE overrides.
+     */
+    private DeviceQuery getDefaultDeviceQuery(MobilePlatform mobilePlatform) {
+        DeviceQuery deviceQuery = DeviceQuery.any()
+                .minPlatformVersion(getOverriddenStringValue("MIN_PLATFORM_VERSION"))
+                .maxPlatformVersion(getOverriddenStringValue("MAX_PLATFORM_VERSION"));
+        if (mobilePlatform != MobilePlatform.WINDOWS) {
+            deviceQuery.platform(mobilePlatform.platformName);
+        }
+        String realDevice = getOverriddenStringValue("REAL_DEVICE");
+        if (realDevice != null) {
+            deviceQuery.realDevice(Boolean.parseBoolean(realDevice));
+        }
+        return deviceQuery;
+    }
+
+    private Duration getDeviceAllocationTimeout() {
+        return Duration.ofSeconds(getOverriddenIntValue("DEVICE_ALLOCATION_TIMEOUT",
+                DEFAULT_DEVICE_ALLOCATION_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Lease a device matching the run configuration for the calling thread until
+     * {@link #unbindDevice()}. Sessions the thread creates in between run on that device and
+     * quitting them keeps it leased, so a test worker stays on one device for its lifetime.
+     *
+     * @return false if no device became free within DEVICE_ALLOCATION_TIMEOUT, the thread then
+     *         leases a device per session as usual
+     */
+    public static boolean bindDevice() {
+        AppiumDriverManager manager = new AppiumDriverManager();
+        Duration allocationTimeout = manager.getDeviceAllocationTimeout();
+        Optional<DeviceLease> lease = Devices.acquireDevice(
+                manager.getDefaultDeviceQuery(getMobilePlatform()), allocationTimeout);
+        if (!lease.isPresent()) {
+            LOGGER.warn(Thread.currentThread().getName() + " got no device within "
+                    + allocationTimeout.getSeconds() + " seconds, leasing one per session");
+            return false;
+        }
+        LOGGER.info(Thread.currentThread().getName() + " bound to device "
+                + lease.get().getUdid());
+        boundLease.set(lease.get());
+        return true;
+    }
+
+    /**
+     * Hand the device bound to the calling thread back to the pool
+     */
+    public static void unbindDevice() {
+        DeviceLease lease = boundLease.get();
+        boundLease.remove();
+        if (lease != null && Devices.releaseDevice(lease)) {
+            LOGGER.info("Device " + lease.getUdid() + " unbound from "
+                    + Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     * Hand the device leased by the current thread back to the pool. A session still held by
+     * the thread is quit first, otherwise the next test on the thread would reuse it while
+     * another thread leases the device.
+     */
+    public void releaseDevice() {
+        AppiumDriver driver = appiumDriver.get();
+        appiumDriver.remove();
+        if (driver != null && driver.getSessionId() != null) {
+            try {
+                driver.quit();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to quit session " + driver.getSessionId() + ": "
+                        + e.getMessage());
+            }
+        }
+        pooledSession.remove();
+        DeviceLease lease = deviceLease.get();
+        if (lease != null) {
+            deviceLease.remove();
+            // A device bound to the thread stays leased until the thread is unbound
+            if (lease != boundLease.get() && Devices.releaseDevice(lease)) {
+                LOGGER.info("Device " + lease.getUdid() + " marked as available");
+            }
+        }
+    }
+
     /**
      * Helper method to merge DesiredCapabilities into modern Options classes
      */
@@ -141,13 +344,25 @@ public class AppiumDriverManager {
                 buildDesiredCapabilities(capabilityFilePath));
     }
 
+    public AppiumDriver startAppiumDriverInstance(String testMethodName,
+                                                  DeviceQuery deviceQuery) {
+        return startAppiumDriverInstance(testMethodName, buildDesiredCapabilities(CAPS.get()),
+                deviceQuery);
+    }
+
     public AppiumDriver startAppiumDriverInstance(String testMethodName,
                                                   DesiredCapabilities desiredCapabilities) {
+        return startAppiumDriverInstance(testMethodName, desiredCapabilities, null);
+    }
+
+    public AppiumDriver startAppiumDriverInstance(String testMethodName,
+                                                  DesiredCapabilities desiredCapabilities,
+                                                  DeviceQuery deviceQuery) {
         LOGGER.info(String.format("startAppiumDriverInstance for %s using capability file: %s",
                 testMethodName, CAPS.get()));
         LOGGER.info("startAppiumDriverInstance");
         AppiumDriver currentDriverSession =
-                initialiseDriver(desiredCapabilities);
+                initialiseDriver(desiredCapabilities, deviceQuery);
         AppiumDriverManager.setDriver(currentDriverSession);
         return currentDriverSession;
     }
@@ -160,7 +375,7 @@ public class AppiumDriverManager {
         DesiredCapabilities desiredCapabilities = buildDesiredCapabilities(CAPS.get());
         desiredCapabilities.setCapability("appium:udids", deviceUDID);
         AppiumDriver currentDriverSession =
-                initialiseDriver(desiredCapabilities);
+                initialiseDriver(desiredCapabilities, null);
         AppiumDriverManager.setDriver(currentDriverSession);
     }
 
@@ -174,22 +389,59 @@ public class AppiumDriverManager {
     }
 
     public void stopAppiumDriver() {
+        PooledSession session = pooledSession.get();
+        pooledSession.remove();
         if (AppiumDriverManager.getDriver() != null
                 && AppiumDriverManager.getDriver().getSessionId() != null) {
             String udid = (String) AppiumDriverManager.getDriver()
                     .getCapabilities().getCapability("udid");
-            
+
+            if (session != null && AppiumSessionPool.isEnabled()
+                    && session.getLease() != boundLease.get()) {
+                // Keep the session and its device lease alive for the next test method
+                appiumDriver.remove();
+                deviceLease.remove();
+                AppiumDeviceManager.setDevice(null);
+                SESSION_POOL.offer(session);
+                return;
+            }
+
             LOGGER.info("Session Deleting ---- "
                     + AppiumDriverManager.getDriver().getSessionId() + "---"
                     + udid);
-            
-            AppiumDriverManager.getDriver().quit();
-            
-            // Mark device as available after quitting driver
-            if (udid != null && !udid.isEmpty()) {
-                Devices.setDeviceAvailable(udid);
-                LOGGER.info("Device " + udid + " marked as available");
+
+            try {
+                AppiumDriverManager.getDriver().quit();
+            } finally {
+                // Mark device as available after quitting driver
+                appiumDriver.remove();
+                releaseDevice();
             }
+        } else {
+            releaseDevice();
         }
     }
+
+    /**
+     * Quit every session parked in the session pool, to be called once the run has finished
+     */
+    public void drainSessionPool() {
+        PREFETCHER.drain(this::discardSession);
+        if (SESSION_POOL.size() > 0) {
+            LOGGER.info("Draining " + SESSION_POOL.size() + " pooled driver sessions");
+        }
+        SESSION_POOL.drain();
+    }
+
+    /**
+     * Quit the sessions parked in the session pool on the devices, which keep them busy
+     * although no test is using them
+     */
+    static void evictIdleSessions(Collection<String> udids) {
+        SESSION_POOL.evictIdle(udids);
+    }
+
+    private void discardSession(PooledSession session) {
+        SESSION_POOL.evict(session, "prefetched session not needed");
+    }
 }
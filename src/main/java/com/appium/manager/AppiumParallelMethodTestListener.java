@@ -1,12 +1,13 @@
 package com.appium.manager;
 
 import com.annotation.values.SkipIf;
-import com.appium.device.Devices;
 import com.appium.plugin.PluginClI;
 import com.appium.utils.FileFilterParser;
 import com.appium.utils.Helpers;
+import com.appium.utils.ReportPortalEmitter;
 import com.context.SessionContext;
 import com.context.TestExecutionContext;
+import com.context.TestStateKey;
 import io.appium.java_client.AppiumDriver;
 import lombok.SneakyThrows;
 import org.apache.log4j.Logger;
@@ -86,8 +87,9 @@ public final class AppiumParallelMethodTestListener extends Helpers
             }
             TestExecutionContext testExecutionContext =
                     new TestExecutionContext(testMethodName);
-            testExecutionContext.addTestState("appiumDriver", AppiumDriverManager.getDriver());
-            testExecutionContext.addTestState("deviceId",
+            testExecutionContext.addTestState(TestStateKey.APPIUM_DRIVER,
+                    AppiumDriverManager.getDriver());
+            testExecutionContext.addTestState(TestStateKey.DEVICE_ID,
                     AppiumDeviceManager.getAppiumDevice().getUdid());
 
             queueBeforeInvocationListeners(iInvokedMethod, iTestResult, listeners);
@@ -128,32 +130,29 @@ public final class AppiumParallelMethodTestListener extends Helpers
                         && AppiumDeviceManager.getAppiumDevice() != null) {
                     deviceUdid = AppiumDeviceManager.getAppiumDevice().getUdid();
                     HashMap<String, String> logs = testLogger.endLogging(iTestResult, deviceUdid);
-                    new FileFilterParser()
-                            .getScreenShotPaths(deviceUdid, iTestResult);
+                    new FileFilterParser().getScreenShotPaths(deviceUdid,
+                            iTestResult.getInstance().getClass().getSimpleName(), iTestResult);
                     testResults.set(logs);
                 }
                 if (iInvokedMethod.isTestMethod()) {
+                    // Quitting the driver also hands the leased device back to the pool
                     appiumDriverManager.stopAppiumDriver();
-                    
-                    // Mark device as available after stopping driver
-                    if (deviceUdid != null && !deviceUdid.isEmpty()) {
-                        Devices.setDeviceAvailable(deviceUdid);
-                        LOGGER.info("Device " + deviceUdid + " marked as available after test completion");
-                    }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
                 // Even if there's an error, try to free the device
-                if (deviceUdid != null && !deviceUdid.isEmpty()) {
-                    try {
-                        Devices.setDeviceAvailable(deviceUdid);
-                        LOGGER.info("Device " + deviceUdid + " marked as available in error handler");
-                    } catch (Exception ex) {
-                        LOGGER.error("Failed to mark device as available: " + ex.getMessage());
-                    }
+                try {
+                    appiumDriverManager.releaseDevice();
+                } catch (Exception ex) {
+                    LOGGER.error("Failed to mark device " + deviceUdid + " as available: "
+                            + ex.getMessage());
                 }
             }
-            SessionContext.remove(Thread.currentThread().getId());
+            // Logs queued above were read while the driver was being stopped, they have to
+            // reach ReportPortal before it finishes the test item
+            ReportPortalEmitter.getInstance()
+                    .awaitCurrentThread(ReportPortalEmitter.DEFAULT_FLUSH_TIMEOUT);
+            SessionContext.remove();
             queueAfterInvocationListener(iInvokedMethod, iTestResult, listeners);
         }
     }
@@ -164,6 +163,8 @@ public final class AppiumParallelMethodTestListener extends Helpers
     @Override
     public void onFinish(ISuite iSuite) {
         try {
+            ReportPortalEmitter.getInstance().flush(ReportPortalEmitter.DEFAULT_FLUSH_TIMEOUT);
+            appiumDriverManager.drainSessionPool();
             appiumServerManager.destroyAppiumNode();
         } catch (Exception e) {
             e.printStackTrace();
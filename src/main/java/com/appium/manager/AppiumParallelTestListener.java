@@ -3,8 +3,10 @@ package com.appium.manager;
 
 import com.annotation.values.SkipIf;
 import com.appium.utils.Helpers;
+import com.appium.utils.ReportPortalEmitter;
 import com.context.SessionContext;
 import com.context.TestExecutionContext;
+import com.context.TestStateKey;
 
 import org.testng.IClassListener;
 import org.testng.IInvokedMethod;
@@ -72,7 +74,7 @@ public final class AppiumParallelTestListener extends Helpers
      */
     @Override
     public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
-        SessionContext.remove(Thread.currentThread().getId());
+        SessionContext.remove();
         queueAfterInvocationListener(method, testResult, iTestNGListeners);
     }
 
@@ -90,6 +92,8 @@ public final class AppiumParallelTestListener extends Helpers
     @Override
     public void onFinish(ISuite iSuite) {
         try {
+            ReportPortalEmitter.getInstance().flush(ReportPortalEmitter.DEFAULT_FLUSH_TIMEOUT);
+            appiumDriverManager.drainSessionPool();
             appiumServerManager.destroyAppiumNode();
         } catch (Exception e) {
             e.printStackTrace();
@@ -127,8 +131,9 @@ public final class AppiumParallelTestListener extends Helpers
             testLogger.startDeviceLogAndVideoCapture(iTestResult);
             TestExecutionContext testExecutionContext =
                     new TestExecutionContext(iTestResult.getTestName());
-            testExecutionContext.addTestState("appiumDriver", AppiumDriverManager.getDriver());
-            testExecutionContext.addTestState("deviceId",
+            testExecutionContext.addTestState(TestStateKey.APPIUM_DRIVER,
+                    AppiumDriverManager.getDriver());
+            testExecutionContext.addTestState(TestStateKey.DEVICE_ID,
                     AppiumDeviceManager.getAppiumDevice().getUdid());
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,274 @@
+package com.appium.manager;
+
+import com.appium.device.Devices;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+
+/**
+ * Polls /status of every instance of an {@link AppiumServerPool} in the background, keeping
+ * an exponentially weighted average of the response time. An instance is restarted when
+ * <ul>
+ * <li>it stopped running,</li>
+ * <li>APPIUM_HEALTH_FAILURES probes in a row failed or timed out (APPIUM_HEALTH_TIMEOUT
+ * seconds), or the average response time passed APPIUM_HEALTH_MAX_LATENCY milliseconds:
+ * the server hangs, so it is restarted right away,</li>
+ * <li>its Node process holds more than APPIUM_HEALTH_MAX_RSS megabytes (Linux only): it is
+ * drained first, quitting its idle pooled sessions, and restarted once its running sessions
+ * are done, or after APPIUM_HEALTH_DRAIN_TIMEOUT seconds.</li>
+ * </ul>
+ * New sessions are routed to other instances while one drains or restarts. Enabled by
+ * APPIUM_HEALTH_INTERVAL (seconds).
+ */
+public class AppiumServerHealthMonitor implements Closeable {
+    private static final Logger LOGGER =
+            Logger.getLogger(AppiumServerHealthMonitor.class.getName());
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    interface StatusProbe {
+        /**
+         * @return Milliseconds the server took to answer /status
+         */
+        long probe(URL serverUrl) throws IOException;
+    }
+
+    private final AppiumServerPool pool;
+    private final StatusProbe probe;
+    private final Predicate<String> deviceBusy;
+    private final Consumer<List<String>> idleSessionEvictor;
+    private final int maxFailures;
+    private final long maxLatencyMillis;
+    private final long maxResidentMemory;
+    private final Duration drainTimeout;
+    private final InstanceHealth[] health;
+    private ScheduledExecutorService scheduler;
+
+    AppiumServerHealthMonitor(AppiumServerPool pool, StatusProbe probe,
+                              Predicate<String> deviceBusy,
+                              Consumer<List<String>> idleSessionEvictor, int maxFailures,
+                              long maxLatencyMillis, long maxResidentMemory,
+                              Duration drainTimeout) {
+        this.pool = pool;
+        this.probe = probe;
+        this.deviceBusy = deviceBusy;
+        this.idleSessionEvictor = idleSessionEvictor;
+        this.maxFailures = maxFailures;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.maxResidentMemory = maxResidentMemory;
+        this.drainTimeout = drainTimeout;
+        this.health = new InstanceHealth[pool.size()];
+        Arrays.setAll(health, instance -> new InstanceHealth());
+    }
+
+    /**
+     * @return Monitor started on the pool, empty when APPIUM_HEALTH_INTERVAL isn't set
+     */
+    static Optional<AppiumServerHealthMonitor> startFromEnvironment(AppiumServerPool pool) {
+        int interval = getOverriddenIntValue("APPIUM_HEALTH_INTERVAL", 0);
+        if (interval <= 0) {
+            return Optional.empty();
+        }
+        int timeout = getOverriddenIntValue("APPIUM_HEALTH_TIMEOUT", 10);
+        AppiumServerHealthMonitor monitor = new AppiumServerHealthMonitor(pool,
+                serverUrl -> probeStatus(serverUrl, Duration.ofSeconds(timeout)),
+                Devices::isDeviceBusy, AppiumDriverManager::evictIdleSessions,
+                getOverriddenIntValue("APPIUM_HEALTH_FAILURES", 3),
+                getOverriddenIntValue("APPIUM_HEALTH_MAX_LATENCY", 5000),
+                getOverriddenIntValue("APPIUM_HEALTH_MAX_RSS", 0) * 1024L * 1024L,
+                Duration.ofSeconds(getOverriddenIntValue("APPIUM_HEALTH_DRAIN_TIMEOUT", 300)));
+        monitor.start(Duration.ofSeconds(interval));
+        return Optional.of(monitor);
+    }
+
+    /**
+     * Check the pool at a fixed delay on a daemon thread
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "appium-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                check();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Appium server health check failed: " + e.getMessage());
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        LOGGER.info("Checking Appium server health every " + interval);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Probe every instance once and act on what is found
+     */
+    void check() {
+        for (int instance = 0; instance < health.length; instance++) {
+            AppiumServerPool.Server server = pool.getServer(instance);
+            if (server == null) {
+                continue;
+            }
+            InstanceHealth state = health[instance];
+            if (state.draining) {
+                finishDrain(instance, state);
+            } else if (!server.isRunning()) {
+                restart(instance, "is not running");
+            } else if (isHung(server, state)) {
+                pool.drain(instance);
+                restart(instance, String.format("is not answering (%d failed probes, "
+                        + "%.0f ms average response time)", state.failures, state.latency));
+            } else if (maxResidentMemory > 0
+                    && server.getResidentMemory() > maxResidentMemory) {
+                LOGGER.warn(String.format("Appium server instance %d uses %d MB, draining it",
+                        instance, server.getResidentMemory() / (1024 * 1024)));
+                pool.drain(instance);
+                state.draining = true;
+                state.drainingSince = System.nanoTime();
+                // Pooled sessions keep their devices busy although no test is using them
+                idleSessionEvictor.accept(pool.getDevices(instance));
+                finishDrain(instance, state);
+            }
+        }
+    }
+
+    /**
+     * @return Average /status response time of the instance in milliseconds
+     */
+    double getLatency(int instance) {
+        return health[instance].latency;
+    }
+
+    private boolean isHung(AppiumServerPool.Server server, InstanceHealth state) {
+        try {
+            long millis = probe.probe(server.getUrl());
+            state.failures = 0;
+            state.latency = state.probed
+                    ? LATENCY_WEIGHT * millis + (1 - LATENCY_WEIGHT) * state.latency
+                    : millis;
+            state.probed = true;
+        } catch (IOException e) {
+            state.failures++;
+            LOGGER.debug("Appium server at " + server.getUrl() + " failed /status: "
+                    + e.getMessage());
+        }
+        return state.failures >= maxFailures || state.latency > maxLatencyMillis;
+    }
+
+    private void finishDrain(int instance, InstanceHealth state) {
+        List<String> busy = pool.getDevices(instance);
+        busy.removeIf(deviceBusy.negate());
+        boolean timedOut = System.nanoTime() - state.drainingSince >= drainTimeout.toNanos();
+        if (busy.isEmpty()) {
+            restart(instance, "is drained");
+        } else if (timedOut) {
+            restart(instance, "did not drain within " + drainTimeout + ", still serving "
+                    + busy);
+        }
+    }
+
+    private void restart(int instance, String reason) {
+        LOGGER.warn("Appium server instance " + instance + " " + reason + ", restarting it");
+        health[instance] = new InstanceHealth();
+        if (!pool.restart(instance)) {
+            LOGGER.error("Appium server instance " + instance + " did not come back, "
+                    + "its devices use the other instances");
+        }
+    }
+
+    /**
+     * GET /status of the server
+     */
+    static long probeStatus(URL serverUrl, Duration timeout) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                serverUrl.toString().replaceAll("/+$", "") + "/status").openConnection();
+        connection.setConnectTimeout((int) timeout.toMillis());
+        connection.setReadTimeout((int) timeout.toMillis());
+        try {
+            int status = connection.getResponseCode();
+            connection.getInputStream().close();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("/status answered " + status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Resident memory of the server process started by this JVM that listens on the port,
+     * read from /proc
+     *
+     * @return Bytes, -1 when the process or /proc isn't there
+     */
+    static long residentMemory(int port) {
+        return ProcessHandle.current().descendants()
+                .filter(process -> listensOn(process, port))
+                .mapToLong(process -> residentMemory(
+                        Paths.get("/proc", String.valueOf(process.pid()), "status")))
+                .filter(bytes -> bytes >= 0)
+                .findFirst()
+                .orElse(-1);
+    }
+
+    private static boolean listensOn(ProcessHandle process, int port) {
+        List<String> arguments = Arrays.asList(
+                process.info().arguments().orElse(new String[0]));
+        int index = arguments.indexOf("--port");
+        return index >= 0 && index + 1 < arguments.size()
+                && arguments.get(index + 1).equals(String.valueOf(port));
+    }
+
+    static long residentMemory(Path procStatus) {
+        try {
+            for (String line : Files.readAllLines(procStatus, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    // VmRSS:    123456 kB
+                    String[] fields = line.trim().split("\\s+");
+                    return Long.parseLong(fields[1]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Unable to read " + procStatus + ": " + e.getMessage());
+        }
+        return -1;
+    }
+
+    private static final class InstanceHealth {
+        private int failures;
+        private double latency;
+        private boolean probed;
+        private boolean draining;
+        private long drainingSince;
+    }
+}
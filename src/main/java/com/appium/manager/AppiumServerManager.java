@@ -2,11 +2,14 @@ package com.appium.manager;
 
 import com.appium.filelocations.FileLocations;
 import com.appium.capabilities.Capabilities;
+import com.appium.device.DeviceLease;
+import com.appium.utils.Api;
 import io.appium.java_client.service.local.AppiumDriverLocalService;
 import io.appium.java_client.service.local.AppiumServiceBuilder;
 import io.appium.java_client.service.local.flags.GeneralServerFlag;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
@@ -17,28 +20,29 @@ import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
 import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
 
 public class AppiumServerManager {
 
-    private static AppiumDriverLocalService appiumDriverLocalService;
+    private static volatile AppiumServerPool serverPool;
+    private static AppiumServerHealthMonitor healthMonitor;
 
-    private static AppiumDriverLocalService getAppiumDriverLocalService() {
-        return appiumDriverLocalService;
+    private static AppiumServerPool getServerPool() {
+        return serverPool;
     }
 
     private static final Logger LOGGER = Logger.getLogger(AppiumServerManager.class.getName());
+    private static final String DEVICE_FARM_PLUGIN = "device-farm";
 
-    private static void setAppiumDriverLocalService(
-            AppiumDriverLocalService appiumDriverLocalService) {
-        AppiumServerManager.appiumDriverLocalService = appiumDriverLocalService;
+    private static void setServerPool(AppiumServerPool serverPool) {
+        AppiumServerManager.serverPool = serverPool;
     }
 
     private URL getAppiumUrl() {
-        String deviceToExecute = getOverriddenStringValue("DEVICE_TO_EXECUTE", "local");
-
-        if ("devicefarm".equalsIgnoreCase(deviceToExecute)) {
+        if (isDeviceFarm()) {
             try {
                 // Get hub URL from capabilities when using device farm
                 JSONObject serverConfig = Capabilities.getInstance()
@@ -57,46 +61,163 @@ public class AppiumServerManager {
         }
 
         // Default: return local Appium server URL
-        return getAppiumDriverLocalService().getUrl();
+        return getServerPool().getUrl();
     }
 
-    public void destroyAppiumNode() {
-        String deviceToExecute = getOverriddenStringValue("DEVICE_TO_EXECUTE", "local");
+    private boolean isDeviceFarm() {
+        return "devicefarm".equalsIgnoreCase(
+                getOverriddenStringValue("DEVICE_TO_EXECUTE", "local"));
+    }
 
+    public void destroyAppiumNode() {
         // Only destroy local Appium server, not remote device farm hub
-        if (!"devicefarm".equalsIgnoreCase(deviceToExecute)) {
+        if (!isDeviceFarm()) {
             LOGGER.info("Shutting down Appium Server");
-            getAppiumDriverLocalService().stop();
-            if (getAppiumDriverLocalService().isRunning()) {
-                LOGGER.info("AppiumServer didn't shut... Trying to quit again....");
-                getAppiumDriverLocalService().stop();
-            }
+            stopHealthMonitor();
+            getServerPool().stop();
         } else {
             LOGGER.info("Using Device Farm - skipping local Appium server shutdown");
         }
     }
 
+    public boolean isAppiumServerRunning() {
+        return getServerPool() != null && getServerPool().isRunning();
+    }
+
     public String getRemoteWDHubIP() {
         return getAppiumUrl().toString();
     }
 
+    /**
+     * Url of the server sessions on the device are created on. With
+     * APPIUM_SERVER_INSTANCES above 1 every device has its own instance of the local servers.
+     */
+    public String getRemoteWDHubIP(String udid) {
+        if (isDeviceFarm() || getServerPool() == null) {
+            return getRemoteWDHubIP();
+        }
+        return getServerPool().getUrl(udid).toString();
+    }
+
+    /**
+     * Whether sessions on the device are routed to a server instance without the device farm
+     * plugin, which then neither assigns the session its ports nor sees the device as busy
+     */
+    public boolean isPlainInstance(String udid) {
+        return !isDeviceFarm() && getServerPool() != null
+                && getServerPool().getInstance(udid) > 0;
+    }
+
+    /**
+     * Mark the device busy on the device farm plugin of the first instance until the lease is
+     * released, as the plugin doesn't see sessions created on plain instances
+     */
+    public void blockOnHubUntilReleased(DeviceLease lease) {
+        String api = deviceFarmApi();
+        String device = new JSONObject().put("udid", lease.getUdid()).toString();
+        Api client = new Api();
+        CompletableFuture<String> blocked = client.postAsync(api + "/block", device)
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        LOGGER.warn("Unable to mark " + lease.getUdid()
+                                + " busy on the device farm plugin: " + error.getMessage());
+                    }
+                });
+        // Unblock only after the block went through, the two requests may race otherwise
+        lease.onRelease(() -> blocked.handle((response, error) -> error == null)
+                .thenCompose(wasBlocked -> wasBlocked
+                        ? client.postAsync(api + "/unblock", device)
+                        : CompletableFuture.completedFuture(null))
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        LOGGER.warn("Unable to mark " + lease.getUdid()
+                                + " free on the device farm plugin: " + error.getMessage());
+                    }
+                }));
+    }
+
+    private String deviceFarmApi() {
+        URL url = getServerPool().getUrl();
+        return url.getProtocol() + "://" + url.getHost() + ":" + url.getPort()
+                + "/device-farm/api";
+    }
+
+    /**
+     * Start APPIUM_SERVER_INSTANCES (default 1) servers on free ports. Only the first one runs
+     * the device farm plugin, the others are plain servers that log to appium_logs_N.txt.
+     */
     public void startAppiumServer(String host) throws Exception {
         LOGGER.info(LOGGER.getName() + "Starting Appium Server on Localhost");
         new File(
                 System.getProperty("user.dir")
                         + FileLocations.APPIUM_LOGS_DIRECTORY
                         + "appium_logs.txt").getParentFile().mkdirs();
+        AppiumServerPool pool = new AppiumServerPool(
+                getOverriddenIntValue("APPIUM_SERVER_INSTANCES", 1),
+                instance -> startAppiumService(host, instance));
+        pool.start();
+        setServerPool(pool);
+        stopHealthMonitor();
+        synchronized (AppiumServerManager.class) {
+            healthMonitor = AppiumServerHealthMonitor.startFromEnvironment(pool).orElse(null);
+        }
+    }
+
+    /**
+     * @return Copy of the server config without the device farm plugin, other plugins kept
+     */
+    static JSONObject withoutDeviceFarm(JSONObject serverConfig) {
+        JSONObject config = new JSONObject(serverConfig.toString());
+        JSONObject server = config.optJSONObject("server");
+        if (server == null) {
+            return config;
+        }
+        JSONArray plugins = server.optJSONArray("use-plugins");
+        if (plugins != null) {
+            JSONArray others = new JSONArray();
+            for (int i = 0; i < plugins.length(); i++) {
+                if (!DEVICE_FARM_PLUGIN.equals(plugins.optString(i))) {
+                    others.put(plugins.get(i));
+                }
+            }
+            if (others.isEmpty()) {
+                server.remove("use-plugins");
+            } else {
+                server.put("use-plugins", others);
+            }
+        }
+        JSONObject pluginConfigs = server.optJSONObject("plugin");
+        if (pluginConfigs != null) {
+            pluginConfigs.remove(DEVICE_FARM_PLUGIN);
+            if (pluginConfigs.isEmpty()) {
+                server.remove("plugin");
+            }
+        }
+        return config;
+    }
+
+    private static synchronized void stopHealthMonitor() {
+        if (healthMonitor != null) {
+            healthMonitor.close();
+            healthMonitor = null;
+        }
+    }
+
+    private AppiumServerPool.Server startAppiumService(String host, int instance)
+            throws Exception {
         AppiumDriverLocalService appiumDriverLocalService;
         AppiumServiceBuilder builder =
                 getAppiumServerBuilder(host)
                         .withLogFile(new File(
                                 System.getProperty("user.dir")
                                         + FileLocations.APPIUM_LOGS_DIRECTORY
-                                        + "appium_logs.txt"))
+                                        + (instance == 0 ? "appium_logs.txt"
+                                        : "appium_logs_" + instance + ".txt")))
                         .withIPAddress(host)
                         .withTimeout(Duration.ofSeconds(60))
                         .withArgument(() -> "--config", System.getProperty("user.dir")
-                                + FileLocations.SERVER_CONFIG)
+                                + (instance == 0 ? FileLocations.SERVER_CONFIG
+                                : FileLocations.PLAIN_SERVER_CONFIG))
                         .withArgument(GeneralServerFlag.RELAXED_SECURITY)
                         .usingAnyFreePort();
         if (Capabilities.getInstance().getCapabilities().has("basePath")) {
@@ -110,7 +231,32 @@ public class AppiumServerManager {
         appiumDriverLocalService.start();
         LOGGER.info(LOGGER.getName() + "Appium Server Started at......"
                 + appiumDriverLocalService.getUrl());
-        setAppiumDriverLocalService(appiumDriverLocalService);
+        return new AppiumServerPool.Server() {
+            @Override
+            public URL getUrl() {
+                return appiumDriverLocalService.getUrl();
+            }
+
+            @Override
+            public boolean isRunning() {
+                return appiumDriverLocalService.isRunning();
+            }
+
+            @Override
+            public long getResidentMemory() {
+                return AppiumServerHealthMonitor.residentMemory(
+                        appiumDriverLocalService.getUrl().getPort());
+            }
+
+            @Override
+            public void stop() {
+                appiumDriverLocalService.stop();
+                if (appiumDriverLocalService.isRunning()) {
+                    LOGGER.info("AppiumServer didn't shut... Trying to quit again....");
+                    appiumDriverLocalService.stop();
+                }
+            }
+        };
     }
 
     /*private void getWindowsDevice(String platform, List<Device> devices) {
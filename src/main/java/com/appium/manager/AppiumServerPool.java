@@ -0,0 +1,307 @@
+package com.appium.manager;
+
+import org.apache.log4j.Logger;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Several Appium servers on this machine, so sessions on many devices don't all share one
+ * Node process. Every device is served by one instance, picked by rendezvous hashing of its
+ * UDID, which keeps the assignment stable across runs and moves only the devices of an
+ * instance that can't be started. An instance found dead is restarted the next time one of
+ * its devices needs it; {@link AppiumServerHealthMonitor} drains and restarts instances that
+ * are still running but unhealthy.
+ */
+class AppiumServerPool {
+    private static final Logger LOGGER = Logger.getLogger(AppiumServerPool.class.getName());
+
+    interface Server {
+        URL getUrl();
+
+        boolean isRunning();
+
+        void stop();
+
+        /**
+         * @return Resident memory of the server process in bytes, -1 when unknown
+         */
+        default long getResidentMemory() {
+            return -1;
+        }
+    }
+
+    interface ServerFactory {
+        /**
+         * Start the server of the instance, blocking until it accepts requests
+         */
+        Server start(int instance) throws Exception;
+    }
+
+    private static final Duration RESTART_BACKOFF = Duration.ofMinutes(1);
+
+    private final ServerFactory factory;
+    private final Slot[] slots;
+    private final Map<String, Integer> assignments = new ConcurrentHashMap<>();
+
+    AppiumServerPool(int instances, ServerFactory factory) {
+        if (instances < 1) {
+            throw new IllegalArgumentException("At least one Appium server instance is needed");
+        }
+        this.factory = factory;
+        this.slots = IntStream.range(0, instances).mapToObj(Slot::new).toArray(Slot[]::new);
+    }
+
+    /**
+     * Start every instance at once; fails only when none of them comes up
+     */
+    void start() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(slots.length);
+        try {
+            List<CompletableFuture<Void>> starts = new ArrayList<>();
+            for (Slot slot : slots) {
+                starts.add(CompletableFuture.runAsync(slot::restart, executor));
+            }
+            Exception failure = null;
+            for (int instance = 0; instance < slots.length; instance++) {
+                try {
+                    starts.get(instance).join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() instanceof CompletionException
+                            ? e.getCause().getCause() : e.getCause();
+                    LOGGER.error("Unable to start Appium server instance " + instance, cause);
+                    slots[instance].failed();
+                    if (failure == null) {
+                        failure = cause instanceof Exception ? (Exception) cause : e;
+                    }
+                }
+            }
+            if (!isRunning()) {
+                throw failure != null ? failure : new IllegalStateException(
+                        "No Appium server instance is running after the start");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return Url of the instance serving the device, restarting it when it died. Draining
+     *         instances are passed over unless every instance is draining, then the request
+     *         waits for a restart in progress.
+     */
+    URL getUrl(String udid) {
+        List<Integer> ranked = rank(udid, slots.length);
+        for (int instance : ranked) {
+            Server server = slots[instance].isDraining() ? null : slots[instance].running();
+            if (server != null) {
+                assignments.put(udid, instance);
+                return server.getUrl();
+            }
+        }
+        for (int instance : ranked) {
+            Server server = slots[instance].running();
+            if (server != null) {
+                assignments.put(udid, instance);
+                return server.getUrl();
+            }
+        }
+        throw new IllegalStateException("No Appium server instance running for " + udid);
+    }
+
+    /**
+     * @return Url of the first instance, the only one running the device farm plugin, for
+     *         requests not tied to a device
+     */
+    URL getUrl() {
+        Server server = slots[0].running();
+        if (server == null) {
+            throw new IllegalStateException("Appium server instance 0 is not running");
+        }
+        return server.getUrl();
+    }
+
+    boolean isRunning() {
+        for (Slot slot : slots) {
+            if (slot.isRunning()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return slots.length;
+    }
+
+    /**
+     * @return Current server of the instance, null when it isn't started
+     */
+    Server getServer(int instance) {
+        return slots[instance].server();
+    }
+
+    /**
+     * Stop handing the instance to new sessions until it is restarted
+     */
+    void drain(int instance) {
+        slots[instance].setDraining(true);
+    }
+
+    boolean isDraining(int instance) {
+        return slots[instance].isDraining();
+    }
+
+    /**
+     * Replace the server of the instance and take new sessions on it again
+     *
+     * @return false if the new server didn't start
+     */
+    boolean restart(int instance) {
+        try {
+            return slots[instance].tryRestart();
+        } finally {
+            slots[instance].setDraining(false);
+        }
+    }
+
+    /**
+     * @return Instance the last session of the device was routed to, -1 if none was
+     */
+    int getInstance(String udid) {
+        return assignments.getOrDefault(udid, -1);
+    }
+
+    /**
+     * @return Devices whose last session was routed to the instance
+     */
+    List<String> getDevices(int instance) {
+        return assignments.entrySet().stream()
+                .filter(assignment -> assignment.getValue() == instance)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    void stop() {
+        for (Slot slot : slots) {
+            slot.stop();
+        }
+    }
+
+    /**
+     * Instances in the order a device prefers them: highest hash of UDID and instance first
+     */
+    static List<Integer> rank(String udid, int instances) {
+        return IntStream.range(0, instances).boxed()
+                .sorted(Comparator.comparingLong((Integer instance) -> weight(udid, instance))
+                        .reversed().thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+    }
+
+    private static long weight(String udid, int instance) {
+        // 64-bit FNV-1a with a final mix, so nearby instance numbers spread out
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : (udid + "#" + instance).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private final class Slot {
+        private final int instance;
+        private Server server;
+        private long retryAfter;
+        private volatile boolean draining;
+
+        private Slot(int instance) {
+            this.instance = instance;
+            this.retryAfter = System.nanoTime();
+        }
+
+        private synchronized Server running() {
+            if (server != null && server.isRunning()) {
+                return server;
+            }
+            if (System.nanoTime() - retryAfter < 0) {
+                return null;
+            }
+            return tryRestart() ? server : null;
+        }
+
+        private synchronized boolean isRunning() {
+            return server != null && server.isRunning();
+        }
+
+        private synchronized Server server() {
+            return server;
+        }
+
+        private boolean isDraining() {
+            return draining;
+        }
+
+        private void setDraining(boolean draining) {
+            this.draining = draining;
+        }
+
+        private synchronized boolean tryRestart() {
+            try {
+                restart();
+                return true;
+            } catch (CompletionException e) {
+                LOGGER.error("Unable to start Appium server instance " + instance,
+                        e.getCause());
+                failed();
+                return false;
+            }
+        }
+
+        /**
+         * Leave the instance to the others for a while instead of holding up every session
+         * of its devices with another start
+         */
+        private synchronized void failed() {
+            retryAfter = System.nanoTime() + RESTART_BACKOFF.toNanos();
+        }
+
+        private synchronized void restart() {
+            if (server != null) {
+                LOGGER.warn("Restarting Appium server instance " + instance + " at "
+                        + server.getUrl());
+                server.stop();
+                server = null;
+            }
+            try {
+                server = factory.start(instance);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            LOGGER.info("Appium server instance " + instance + " started at "
+                    + server.getUrl());
+        }
+
+        private synchronized void stop() {
+            if (server != null) {
+                server.stop();
+                server = null;
+            }
+        }
+    }
+}
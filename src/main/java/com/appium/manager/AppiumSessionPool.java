@@ -0,0 +1,239 @@
+package com.appium.manager;
+
+import com.appium.device.DevicePool;
+import com.appium.device.DeviceQuery;
+import com.appium.device.Devices;
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.InteractsWithApps;
+import io.appium.java_client.android.AndroidDriver;
+import io.appium.java_client.remote.SupportsContextSwitching;
+import org.apache.log4j.Logger;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.Supplier;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenBooleanValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
+
+/**
+ * Warm driver sessions kept alive between test methods. Instead of quitting the driver after
+ * every method, the session is reset and parked here together with its device lease, and the
+ * next method asking for the same capabilities on a matching device takes it over.
+ * Enabled with SESSION_POOL=true, the app reset between methods is picked with
+ * SESSION_RESET_STRATEGY (NONE, RESTART_APP or CLEAR_DATA, defaults to RESTART_APP).
+ */
+public class AppiumSessionPool {
+    private static final Logger LOGGER = Logger.getLogger(AppiumSessionPool.class.getName());
+
+    public enum ResetStrategy {
+        /** Leave the app as the previous test left it */
+        NONE,
+        /** Terminate and re-activate the app under test */
+        RESTART_APP,
+        /** Terminate the app and wipe its data before re-activating it (Android only) */
+        CLEAR_DATA;
+
+        static ResetStrategy fromEnvironment() {
+            String strategy = getOverriddenStringValue("SESSION_RESET_STRATEGY",
+                    RESTART_APP.name());
+            try {
+                return valueOf(strategy.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Unknown SESSION_RESET_STRATEGY " + strategy
+                        + ", falling back to " + RESTART_APP);
+                return RESTART_APP;
+            }
+        }
+    }
+
+    // Most recently returned sessions sit at the head so the warmest one is reused first
+    private final ConcurrentLinkedDeque<PooledSession> idleSessions =
+            new ConcurrentLinkedDeque<>();
+    private final ResetStrategy resetStrategy;
+    private final Supplier<DevicePool> devicePool;
+
+    public AppiumSessionPool(ResetStrategy resetStrategy) {
+        this(resetStrategy, Devices::getDevicePool);
+    }
+
+    AppiumSessionPool(ResetStrategy resetStrategy, Supplier<DevicePool> devicePool) {
+        this.resetStrategy = resetStrategy;
+        this.devicePool = devicePool;
+    }
+
+    public static boolean isEnabled() {
+        return getOverriddenBooleanValue("SESSION_POOL", false);
+    }
+
+    static AppiumSessionPool fromEnvironment() {
+        return new AppiumSessionPool(ResetStrategy.fromEnvironment());
+    }
+
+    /**
+     * Take over an idle session created with the same capabilities on a device matching the
+     * query. Sessions failing the health check on the way are evicted.
+     *
+     * @param capabilities The capabilities the caller would create a new session with
+     * @param query        The criteria the session's device has to match
+     * @return Optional containing the session, empty if no healthy idle session matches
+     */
+    public Optional<PooledSession> borrow(DesiredCapabilities capabilities, DeviceQuery query) {
+        Iterator<PooledSession> iterator = idleSessions.iterator();
+        while (iterator.hasNext()) {
+            PooledSession session = iterator.next();
+            if (!session.wasRequestedWith(capabilities)
+                    || !devicePool.get().matches(query, session.getUdid())) {
+                continue;
+            }
+            // Only the thread that manages to unlink the session gets to use it
+            if (!idleSessions.remove(session)) {
+                continue;
+            }
+            if (isHealthy(session)) {
+                session.markReused();
+                return Optional.of(session);
+            }
+            evict(session, "failed health check");
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Reset the app and park the session until the next test method asks for it.
+     * Sessions which are broken or cannot be reset are quit instead.
+     *
+     * @param session The session the current test method has finished with
+     */
+    public void offer(PooledSession session) {
+        if (!isHealthy(session)) {
+            evict(session, "failed health check");
+            return;
+        }
+        try {
+            reset(session);
+        } catch (WebDriverException e) {
+            LOGGER.warn("Unable to reset app state of " + session + ": " + e.getMessage());
+            evict(session, "failed app reset");
+            return;
+        }
+        idleSessions.offerFirst(session);
+        LOGGER.info("Returned " + session + " to session pool");
+    }
+
+    /**
+     * Quit one idle session running on a device matching the query, so that a caller who
+     * needs that device with different capabilities is not starved by the pool.
+     *
+     * @param query The criteria the device has to match
+     * @return true if a session was quit and its device released
+     */
+    public boolean evictIdle(DeviceQuery query) {
+        for (PooledSession session : idleSessions) {
+            if (devicePool.get().matches(query, session.getUdid())
+                    && idleSessions.remove(session)) {
+                evict(session, "device needed with different capabilities");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Quit the idle sessions running on any of the devices
+     *
+     * @return Number of sessions quit
+     */
+    public int evictIdle(Collection<String> udids) {
+        int evicted = 0;
+        for (PooledSession session : idleSessions) {
+            if (udids.contains(session.getUdid()) && idleSessions.remove(session)) {
+                evict(session, "its Appium server is draining");
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Quit every idle session and hand their devices back to the device pool
+     */
+    public void drain() {
+        PooledSession session;
+        while ((session = idleSessions.pollFirst()) != null) {
+            evict(session, "draining session pool");
+        }
+    }
+
+    public int size() {
+        return idleSessions.size();
+    }
+
+    private boolean isHealthy(PooledSession session) {
+        AppiumDriver driver = session.getDriver();
+        if (driver.getSessionId() == null) {
+            return false;
+        }
+        try {
+            if (driver instanceof SupportsContextSwitching) {
+                ((SupportsContextSwitching) driver).getContext();
+            } else {
+                driver.getWindowHandle();
+            }
+            return true;
+        } catch (WebDriverException e) {
+            LOGGER.warn("Health check failed for " + session + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void reset(PooledSession session) {
+        AppiumDriver driver = session.getDriver();
+        String appId = getAppId(session);
+        if (resetStrategy == ResetStrategy.NONE || appId == null
+                || !(driver instanceof InteractsWithApps)) {
+            return;
+        }
+        InteractsWithApps apps = (InteractsWithApps) driver;
+        apps.terminateApp(appId);
+        if (resetStrategy == ResetStrategy.CLEAR_DATA) {
+            if (driver instanceof AndroidDriver) {
+                driver.executeScript("mobile: clearApp",
+                        Collections.singletonMap("appId", appId));
+            } else {
+                LOGGER.debug("CLEAR_DATA is only supported on Android, restarting "
+                        + appId + " instead");
+            }
+        }
+        apps.activateApp(appId);
+    }
+
+    private String getAppId(PooledSession session) {
+        if (session.getDriverSession() != null
+                && session.getDriverSession().getAppPackage() != null) {
+            return session.getDriverSession().getAppPackage();
+        }
+        Object bundleId = session.getDriver().getCapabilities().getCapability("appium:bundleId");
+        if (bundleId == null) {
+            bundleId = session.getDriver().getCapabilities().getCapability("bundleId");
+        }
+        return bundleId == null ? null : bundleId.toString();
+    }
+
+    void evict(PooledSession session, String reason) {
+        LOGGER.info("Evicting " + session + ": " + reason);
+        try {
+            session.getDriver().quit();
+        } catch (WebDriverException e) {
+            LOGGER.warn("Error quitting " + session + ": " + e.getMessage());
+        } finally {
+            session.getLease().release();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.appium.manager;
+
+import io.appium.java_client.AppiumDriver;
+import org.apache.log4j.Logger;
+import org.openqa.selenium.logging.LogEntry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenBooleanValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+
+/**
+ * Streams a device log to disk while the test runs. The log is polled every
+ * DEVICE_LOG_POLL_INTERVAL milliseconds and each batch of entries is appended to a buffered,
+ * optionally gzipped (DEVICE_LOG_GZIP), file, so memory use depends on the poll interval
+ * rather than on how much the app logs during the test.
+ */
+public class DeviceLogRecorder {
+    private static final Logger LOGGER = Logger.getLogger(DeviceLogRecorder.class.getName());
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ScheduledExecutorService POLLER =
+            Executors.newScheduledThreadPool(getOverriddenIntValue("DEVICE_LOG_POLL_THREADS", 4),
+                    runnable -> {
+                        Thread thread = new Thread(runnable,
+                                "device-log-" + THREAD_COUNT.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    private final Supplier<List<LogEntry>> source;
+    private final File file;
+    private final Writer writer;
+    private ScheduledFuture<?> polling;
+    private boolean stopped;
+
+    DeviceLogRecorder(Supplier<List<LogEntry>> source, File file, boolean gzip)
+            throws IOException {
+        this.source = source;
+        this.file = file;
+        OutputStream output = new FileOutputStream(file);
+        if (gzip) {
+            output = new GZIPOutputStream(output, BUFFER_SIZE);
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+    }
+
+    /**
+     * Start streaming the logcat of the driver's device to the given file, with a .gz
+     * suffix added when the log is compressed
+     */
+    public static DeviceLogRecorder startLogcat(AppiumDriver driver, String fileName)
+            throws IOException {
+        boolean gzip = getOverriddenBooleanValue("DEVICE_LOG_GZIP", false);
+        DeviceLogRecorder recorder = new DeviceLogRecorder(
+                () -> driver.manage().logs().get("logcat").getAll(),
+                new File(gzip ? fileName + ".gz" : fileName), gzip);
+        recorder.start(Duration.ofMillis(getOverriddenIntValue("DEVICE_LOG_POLL_INTERVAL",
+                2000)));
+        return recorder;
+    }
+
+    synchronized void start(Duration interval) {
+        poll();
+        polling = POLLER.scheduleWithFixedDelay(this::poll, interval.toMillis(),
+                interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fetch the entries logged since the last poll and append them to the file
+     */
+    synchronized void poll() {
+        if (stopped) {
+            return;
+        }
+        try {
+            for (LogEntry entry : source.get()) {
+                writer.write(entry.toString());
+                writer.write(System.lineSeparator());
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to read device log for " + file.getName() + ": "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop polling, write the remaining entries and close the file
+     *
+     * @return The file the log was written to
+     */
+    public synchronized File stop() {
+        if (stopped) {
+            return file;
+        }
+        if (polling != null) {
+            polling.cancel(false);
+        }
+        poll();
+        stopped = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.error("Unable to close device log " + file, e);
+        }
+        return file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
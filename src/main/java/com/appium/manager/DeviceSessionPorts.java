@@ -0,0 +1,91 @@
+package com.appium.manager;
+
+import com.appium.device.Device;
+import com.appium.entities.MobilePlatform;
+import org.openqa.selenium.MutableCapabilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per device ports and derived data the device farm plugin fills in for the sessions it
+ * creates. Sessions routed to a plain server instance don't go through the plugin, so without
+ * these two devices on the same instance would fight over the default UiAutomator2,
+ * WebDriverAgent and MJPEG ports and share one derived data directory. A device keeps its
+ * values for the whole run, values the hub already assigned to the device are reused and
+ * capabilities set by the user are left alone.
+ */
+class DeviceSessionPorts {
+    private static final String PREFIX = "appium:";
+
+    private final String derivedDataDirectory;
+    private final Map<String, Map<String, Object>> assigned = new ConcurrentHashMap<>();
+    private final Set<Integer> usedPorts = ConcurrentHashMap.newKeySet();
+
+    DeviceSessionPorts(String derivedDataDirectory) {
+        this.derivedDataDirectory = derivedDataDirectory;
+    }
+
+    /**
+     * Add the capabilities of the device the options don't set already
+     */
+    void apply(MutableCapabilities options, MobilePlatform platform, Device device) {
+        forDevice(platform, device).forEach((name, value) -> {
+            if (options.getCapability(name) == null
+                    && options.getCapability(name.substring(PREFIX.length())) == null) {
+                options.setCapability(name, value);
+            }
+        });
+    }
+
+    Map<String, Object> forDevice(MobilePlatform platform, Device device) {
+        return assigned.computeIfAbsent(platform + "/" + device.getUdid(), key -> {
+            Map<String, Object> capabilities = new LinkedHashMap<>();
+            switch (platform) {
+                case ANDROID:
+                    capabilities.put(PREFIX + "systemPort", freePort());
+                    capabilities.put(PREFIX + "chromedriverPort", freePort());
+                    capabilities.put(PREFIX + "mjpegServerPort",
+                            orFreePort(device.getMjpegServerPort()));
+                    break;
+                case IOS:
+                    capabilities.put(PREFIX + "wdaLocalPort",
+                            orFreePort(device.getWdaLocalPort()));
+                    capabilities.put(PREFIX + "mjpegServerPort",
+                            orFreePort(device.getMjpegServerPort()));
+                    capabilities.put(PREFIX + "derivedDataPath",
+                            device.getDerivedDataPath() != null
+                                    ? device.getDerivedDataPath()
+                                    : new File(derivedDataDirectory, device.getUdid()).getPath());
+                    break;
+                default:
+                    break;
+            }
+            return capabilities;
+        });
+    }
+
+    private int orFreePort(int assignedByHub) {
+        return assignedByHub > 0 && usedPorts.add(assignedByHub) ? assignedByHub : freePort();
+    }
+
+    private int freePort() {
+        while (true) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to find a free port", e);
+            }
+            // The OS may hand out a port again once it is closed, never give it out twice
+            if (usedPorts.add(port)) {
+                return port;
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.appium.manager;
+
+import com.appium.capabilities.DriverSession;
+import com.appium.device.DeviceLease;
+import io.appium.java_client.AppiumDriver;
+import lombok.Getter;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.Map;
+
+/**
+ * A driver session together with the device lease it runs on. Owned by exactly one test
+ * thread at a time, or parked in the {@link AppiumSessionPool} between test methods.
+ */
+@Getter
+public class PooledSession {
+    private final AppiumDriver driver;
+    private final DeviceLease lease;
+    private final DriverSession driverSession;
+    private final Map<String, Object> requestedCapabilities;
+    private int reuseCount;
+
+    PooledSession(AppiumDriver driver, DeviceLease lease, DriverSession driverSession,
+                  DesiredCapabilities requestedCapabilities) {
+        this.driver = driver;
+        this.lease = lease;
+        this.driverSession = driverSession;
+        this.requestedCapabilities = requestedCapabilities.asMap();
+    }
+
+    public String getUdid() {
+        return lease.getUdid();
+    }
+
+    boolean wasRequestedWith(DesiredCapabilities capabilities) {
+        return requestedCapabilities.equals(capabilities.asMap());
+    }
+
+    void markReused() {
+        reuseCount++;
+    }
+
+    @Override
+    public String toString() {
+        return "PooledSession{sessionId=" + driver.getSessionId() + ", udid=" + getUdid()
+                + ", reuseCount=" + reuseCount + "}";
+    }
+}
@@ -2,30 +2,49 @@ package com.appium.manager;
 
 import com.appium.entities.MobilePlatform;
 import com.appium.filelocations.FileLocations;
+import com.appium.utils.ArtifactRegistry;
 import com.appium.utils.Helpers;
 import com.appium.utils.ImageUtils;
-import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
-import org.im4java.core.IM4JavaException;
 import org.openqa.selenium.OutputType;
 import org.testng.ITestResult;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.appium.manager.AppiumDeviceManager.getMobilePlatform;
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
 
 /**
  * Created by saikrisv on 26/04/17.
+ * <p>
+ * Screenshots are taken as bytes and written, framed and thumbnailed on a writer pool
+ * (SCREENSHOT_WRITER_THREADS), so the test thread only waits for the device.
  */
 public class ScreenShotManager extends Helpers {
     private static final Logger LOGGER = Logger.getLogger(ScreenShotManager.class.getName());
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService WRITERS = Executors.newFixedThreadPool(
+            getOverriddenIntValue("SCREENSHOT_WRITER_THREADS", 2), runnable -> {
+                Thread thread = new Thread(runnable,
+                        "screenshot-writer-" + THREAD_COUNT.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
     private String screenShotNameWithTimeStamp;
     private ImageUtils imageUtils;
     private String capturedScreen;
@@ -70,26 +89,50 @@ public class ScreenShotManager extends Helpers {
         imageUtils = new ImageUtils();
     }
 
+    /**
+     * Take a screenshot and wait until it, its framed version and its thumbnail are written
+     *
+     * @return Timestamp prefix of the file names, null when there is no session to capture
+     */
     public String captureScreenShot(int status, String className, String screenShotName,
                                     String methodName, String deviceModel) {
-        String getDeviceModel = null;
-        if (AppiumDriverManager.getDriver().getSessionId() != null) {
-            LOGGER.info("Current Running Thread Status"
-                    + AppiumDriverManager.getDriver().getSessionId());
-            File scrFile = AppiumDriverManager.getDriver()
-                    .getScreenshotAs(OutputType.FILE);
-            screenShotNameWithTimeStamp = currentDateAndTime();
-            if (getMobilePlatform().equals(MobilePlatform.ANDROID)) {
-                getDeviceModel = screenShotNameWithTimeStamp;
-                screenShotAndFrame(status, scrFile, methodName, className, getDeviceModel,
-                        "android", deviceModel, screenShotName);
-            } else if (getMobilePlatform().equals(MobilePlatform.IOS)) {
-                getDeviceModel = screenShotNameWithTimeStamp;
-                screenShotAndFrame(status, scrFile, methodName, className, getDeviceModel,
-                        "iOS", deviceModel, screenShotName);
-            }
+        ScreenshotCapture capture = captureScreenShotAsync(status, className, screenShotName,
+                methodName, deviceModel);
+        if (capture == null) {
+            return null;
+        }
+        try {
+            capture.getWritten().join();
+        } catch (CompletionException e) {
+            // Already logged by the writer
+        }
+        return capture.getName();
+    }
+
+    /**
+     * Take a screenshot and hand it to the writer pool, which writes it, frames it and writes
+     * its thumbnail (SCREENSHOT_THUMBNAIL_WIDTH, off when 0).
+     *
+     * @return The paths of the screenshot, or null when there is no session to capture
+     */
+    public ScreenshotCapture captureScreenShotAsync(int status, String className,
+                                                    String screenShotName, String methodName,
+                                                    String deviceModel) {
+        if (AppiumDriverManager.getDriver().getSessionId() == null) {
+            return null;
+        }
+        LOGGER.info("Current Running Thread Status"
+                + AppiumDriverManager.getDriver().getSessionId());
+        byte[] screen = AppiumDriverManager.getDriver().getScreenshotAs(OutputType.BYTES);
+        screenShotNameWithTimeStamp = currentDateAndTime();
+        if (getMobilePlatform().equals(MobilePlatform.ANDROID)) {
+            return screenShotAndFrame(status, screen, methodName, className, "android",
+                    deviceModel, screenShotName);
+        } else if (getMobilePlatform().equals(MobilePlatform.IOS)) {
+            return screenShotAndFrame(status, screen, methodName, className, "iOS",
+                    deviceModel, screenShotName);
         }
-        return getDeviceModel;
+        return null;
     }
 
     private String currentDateAndTime() {
@@ -99,87 +142,84 @@ public class ScreenShotManager extends Helpers {
         return dateTimeFormatter.format(rightNow).replaceAll("[- .:,]", "_");
     }
 
-    private void screenShotAndFrame(int status,
-                                    File scrFile, String methodName,
-                                    String className, String model,
-                                    String platform, String deviceModel,
-                                    String screenShotName) {
+    private ScreenshotCapture screenShotAndFrame(int status, byte[] screen,
+                                                 String methodName, String className,
+                                                 String platform, String deviceModel,
+                                                 String screenShotName) {
         String udid = AppiumDeviceManager.getAppiumDevice().getUdid();
-        setFailedScreen(
-                "screenshot/" + platform + "/" + udid
-                        + "/" + className + "/"
-                        + methodName + "/"
-                        + screenShotNameWithTimeStamp + "-"
-                        + screenShotName + "_failed" + ".jpeg");
-        setCapturedScreen(
-                "screenshot/" + platform + "/" + udid
-                        + "/" + className
-                        + "/" + methodName + "/"
-                        + screenShotNameWithTimeStamp + "-"
-                        + screenShotName + "_results.jpeg");
-
-        setFramedCapturedScreen("screenshot/" + platform + "/" + udid
-                + "/" + className
-                + "/" + methodName + "/"
-                + screenShotNameWithTimeStamp + "-"
+        String directory = "screenshot/" + platform + "/" + udid
+                + "/" + className + "/" + methodName + "/";
+        setFailedScreen(directory + screenShotNameWithTimeStamp + "-"
+                + screenShotName + "_failed" + ".jpeg");
+        setCapturedScreen(directory + screenShotNameWithTimeStamp + "-"
                 + screenShotName + "_results.jpeg");
-        setFramedFailedScreen(
-                "screenshot/" + platform + "/" + udid
-                        + "/" + className + "/" + methodName + "/"
-                        + screenShotNameWithTimeStamp + "-"
-                        + screenShotName + "_failed.jpeg");
-
-        try {
-            File framePath =
-                    new File(System.getProperty("user.dir")
-                            + "/src/test/resources/frames/");
-            if (status == ITestResult.FAILURE) {
-                FileUtils.copyFile(scrFile, new File(System.getProperty("user.dir")
-                        + FileLocations.OUTPUT_DIRECTORY + getFailedScreen().trim()));
-            } else {
-                String capturedScreenshotPath = System.getProperty("user.dir")
-                        + FileLocations.OUTPUT_DIRECTORY + getCapturedScreen().trim();
-                FileUtils.copyFile(scrFile, new File(capturedScreenshotPath));
-            }
-
-            File[] files1 = framePath.listFiles();
-            if (framePath.exists()) {
-                for (int i = 0; i < files1.length; i++) {
-                    if (files1[i].isFile()) {
-                        Path p = Paths.get(files1[i].toString());
-                        String fileName = p.getFileName().toString().toLowerCase();
-                        if (deviceModel.toLowerCase()
-                                .contains(fileName.split(".png")[0].toLowerCase())) {
-                            try {
-                                if (status == ITestResult.FAILURE) {
-                                    String screenToFrame = System.getProperty("user.dir")
-                                            + FileLocations.OUTPUT_DIRECTORY + getFailedScreen();
-                                    imageUtils.wrapDeviceFrames(files1[i].toString(), screenToFrame,
-                                            System.getProperty("user.dir")
-                                                    + FileLocations.OUTPUT_DIRECTORY
-                                                    + getFramedFailedScreen());
-                                } else {
-                                    String screenToFrame = System.getProperty("user.dir")
-                                            + FileLocations.OUTPUT_DIRECTORY + getCapturedScreen();
-                                    imageUtils.wrapDeviceFrames(files1[i].toString(), screenToFrame,
-                                            System.getProperty("user.dir")
-                                                    + FileLocations.OUTPUT_DIRECTORY
-                                                    + getFramedCapturedScreen());
-                                }
-
-                                break;
-                            } catch (InterruptedException | IM4JavaException e) {
-                                e.printStackTrace();
-                            }
+        setFramedCapturedScreen(directory + screenShotNameWithTimeStamp + "-"
+                + screenShotName + "_results.jpeg");
+        setFramedFailedScreen(directory + screenShotNameWithTimeStamp + "-"
+                + screenShotName + "_failed.jpeg");
+
+        String screenshot;
+        String framedScreen;
+        if (status == ITestResult.FAILURE) {
+            screenshot = getFailedScreen();
+            framedScreen = getFramedFailedScreen();
+        } else {
+            screenshot = getCapturedScreen();
+            framedScreen = getFramedCapturedScreen();
+        }
+        int thumbnailWidth = getOverriddenIntValue("SCREENSHOT_THUMBNAIL_WIDTH", 0);
+        String thumbnail = thumbnailWidth > 0
+                ? directory + screenShotNameWithTimeStamp + "-" + screenShotName + "_thumb.jpeg"
+                : null;
+        File framePath = new File(System.getProperty("user.dir") + "/src/test/resources/frames/");
+        Optional<File> frame = imageUtils.findDeviceFrame(framePath, deviceModel);
+
+        CompletableFuture<Void> written = CompletableFuture
+                .runAsync(() -> write(screen, outputFile(screenshot)), WRITERS)
+                .thenCompose(ignored -> frame
+                        .map(deviceFrame -> imageUtils.wrapDeviceFramesAsync(
+                                deviceFrame.toString(), outputFile(screenshot).toString(),
+                                outputFile(framedScreen).toString()))
+                        .orElseGet(() -> CompletableFuture.completedFuture(null)))
+                .thenRunAsync(() -> {
+                    if (thumbnail != null) {
+                        try {
+                            imageUtils.writeThumbnail(outputFile(framedScreen).toString(),
+                                    outputFile(thumbnail).toString(), thumbnailWidth);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
                         }
                     }
-                }
-            }
+                }, WRITERS);
+        written.exceptionally(e -> {
+            LOGGER.error("Unable to write screenshot " + screenshot, e);
+            return null;
+        });
+        ArtifactRegistry.getInstance().register(ArtifactRegistry.Type.SCREENSHOT, udid,
+                className, methodName, screenShotName, screenshot, written);
+        return new ScreenshotCapture(screenShotNameWithTimeStamp, screenshot,
+                frame.isPresent() ? framedScreen : screenshot, thumbnail, written);
+    }
 
+    private static File outputFile(String path) {
+        return new File(System.getProperty("user.dir") + FileLocations.OUTPUT_DIRECTORY
+                + path.trim());
+    }
+
+    private static void write(byte[] content, File target) {
+        try {
+            File directory = target.getAbsoluteFile().getParentFile();
+            directory.mkdirs();
+            Path temp = Files.createTempFile(directory.toPath(), target.getName(), ".tmp");
+            try {
+                Files.write(temp, content);
+                Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
-
 }
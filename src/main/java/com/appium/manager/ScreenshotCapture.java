@@ -0,0 +1,52 @@
+package com.appium.manager;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A screenshot handed to the writer pool. The paths, relative to the output directory, are
+ * known as soon as the screenshot is taken; {@link #getWritten()} completes once the
+ * screenshot, its framed version and its thumbnail are on disk.
+ */
+public class ScreenshotCapture {
+    private final String name;
+    private final String screenshot;
+    private final String framedScreenshot;
+    private final String thumbnail;
+    private final CompletableFuture<Void> written;
+
+    ScreenshotCapture(String name, String screenshot, String framedScreenshot,
+                      String thumbnail, CompletableFuture<Void> written) {
+        this.name = name;
+        this.screenshot = screenshot;
+        this.framedScreenshot = framedScreenshot;
+        this.thumbnail = thumbnail;
+        this.written = written;
+    }
+
+    /**
+     * @return Timestamp prefix of the screenshot file names
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getScreenshot() {
+        return screenshot;
+    }
+
+    /**
+     * @return Path of the framed screenshot, the screenshot itself when the device has no frame
+     */
+    public String getFramedScreenshot() {
+        return framedScreenshot;
+    }
+
+    public Optional<String> getThumbnail() {
+        return Optional.ofNullable(thumbnail);
+    }
+
+    public CompletableFuture<Void> getWritten() {
+        return written;
+    }
+}
@@ -0,0 +1,202 @@
+package com.appium.manager;
+
+import com.appium.device.DeviceLease;
+import com.appium.device.DevicePool;
+import com.appium.device.DeviceQuery;
+import com.appium.device.Devices;
+import org.apache.log4j.Logger;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+
+/**
+ * Creates driver sessions ahead of time on devices nobody is using yet, so that the next
+ * test method starting finds a session already being built instead of paying the full
+ * session creation cost on its own thread. SESSION_PREFETCH sets how many sessions may be
+ * warming up at once, 0 (the default) disables prefetching.
+ */
+class SessionPrefetcher {
+    private static final Logger LOGGER = Logger.getLogger(SessionPrefetcher.class.getName());
+
+    private final int capacity;
+    private final Supplier<DevicePool> devicePool;
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final ConcurrentLinkedQueue<PendingSession> pending = new ConcurrentLinkedQueue<>();
+    private volatile ExecutorService executor;
+
+    SessionPrefetcher(int capacity) {
+        this(capacity, Devices::getDevicePool);
+    }
+
+    SessionPrefetcher(int capacity, Supplier<DevicePool> devicePool) {
+        this.capacity = capacity;
+        this.devicePool = devicePool;
+    }
+
+    static SessionPrefetcher fromEnvironment() {
+        return new SessionPrefetcher(Math.max(0, getOverriddenIntValue("SESSION_PREFETCH", 0)));
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Lease free devices matching the query and start creating sessions on them in the
+     * background, until the prefetch capacity is used up or no matching device is free.
+     *
+     * @param capabilities  The capabilities to create the sessions with
+     * @param query         The criteria the devices have to match
+     * @param createSession Creates a session on a leased device, releasing it on failure
+     */
+    void prefetch(DesiredCapabilities capabilities, DeviceQuery query,
+                  Function<DeviceLease, PooledSession> createSession) {
+        while (reserve()) {
+            Optional<DeviceLease> lease = devicePool.get().tryAcquire(query);
+            if (!lease.isPresent()) {
+                reserved.decrementAndGet();
+                return;
+            }
+            LOGGER.info("Prefetching driver session on device " + lease.get().getUdid());
+            CompletableFuture<PooledSession> future = CompletableFuture.supplyAsync(
+                    () -> createSession.apply(lease.get()), getExecutor());
+            PendingSession session = new PendingSession(capabilities.asMap(),
+                    lease.get().getUdid(), future);
+            pending.add(session);
+            // A failed prefetch has released its device, it must not hold a slot either
+            future.whenComplete((created, error) -> {
+                if (error != null && remove(session)) {
+                    LOGGER.warn("Prefetching session on device " + session.udid
+                            + " failed: " + error);
+                }
+            });
+        }
+    }
+
+    /**
+     * Take over a prefetched session created with the same capabilities on a device matching
+     * the query, waiting for it to finish being created if needed.
+     *
+     * @param capabilities The capabilities the caller would create a new session with
+     * @param query        The criteria the session's device has to match
+     * @return Optional containing the session, empty if none matches or its creation failed
+     */
+    Optional<PooledSession> take(DesiredCapabilities capabilities, DeviceQuery query) {
+        for (PendingSession session : pending) {
+            if (session.capabilities.equals(capabilities.asMap())
+                    && devicePool.get().matches(query, session.udid)
+                    && remove(session)) {
+                try {
+                    PooledSession prefetched = session.future.join();
+                    LOGGER.info("Using prefetched session " + prefetched);
+                    return Optional.of(prefetched);
+                } catch (CompletionException e) {
+                    LOGGER.warn("Prefetching session on device " + session.udid
+                            + " failed: " + e.getCause());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Discard one prefetched session running on a device matching the query, so that a
+     * caller who needs that device with different capabilities is not starved.
+     *
+     * @param query   The criteria the device has to match
+     * @param discard Quits the session and releases its device
+     * @return true if a prefetched session was discarded
+     */
+    boolean discardOne(DeviceQuery query, Consumer<PooledSession> discard) {
+        for (PendingSession session : pending) {
+            if (devicePool.get().matches(query, session.udid) && remove(session)) {
+                discard(session, discard);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wait for every prefetch still in progress and discard the sessions it created
+     *
+     * @param discard Quits the session and releases its device
+     */
+    void drain(Consumer<PooledSession> discard) {
+        PendingSession session;
+        while ((session = pending.poll()) != null) {
+            reserved.decrementAndGet();
+            discard(session, discard);
+        }
+    }
+
+    private void discard(PendingSession session, Consumer<PooledSession> discard) {
+        try {
+            session.future.thenAccept(discard).join();
+        } catch (CompletionException e) {
+            LOGGER.debug("Prefetching session on device " + session.udid
+                    + " failed: " + e.getCause());
+        }
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = reserved.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!reserved.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private boolean remove(PendingSession session) {
+        if (pending.remove(session)) {
+            reserved.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger threadCount = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(capacity, runnable -> {
+                        Thread thread = new Thread(runnable,
+                                "session-prefetch-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static final class PendingSession {
+        private final Map<String, Object> capabilities;
+        private final String udid;
+        private final CompletableFuture<PooledSession> future;
+
+        private PendingSession(Map<String, Object> capabilities, String udid,
+                               CompletableFuture<PooledSession> future) {
+            this.capabilities = capabilities;
+            this.udid = udid;
+            this.future = future;
+        }
+    }
+}
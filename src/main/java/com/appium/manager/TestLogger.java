@@ -3,20 +3,18 @@ package com.appium.manager;
 import com.annotation.values.Author;
 import com.appium.entities.MobilePlatform;
 import com.appium.filelocations.FileLocations;
+import com.appium.utils.ArtifactRegistry;
 import com.appium.utils.Helpers;
-import com.epam.reportportal.service.ReportPortal;
+import com.appium.utils.ReportPortalEmitter;
 import com.video.recorder.AppiumScreenRecordFactory;
 import com.video.recorder.IScreenRecord;
 import org.apache.log4j.Logger;
-import org.openqa.selenium.logging.LogEntry;
 import org.testng.ITestResult;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Optional;
 
 import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
@@ -25,8 +23,7 @@ import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
  * Created by saikrisv on 24/01/17.
  */
 public class TestLogger extends Helpers {
-    private ThreadLocal<List<LogEntry>> logEntries = new ThreadLocal<>();
-    private ThreadLocal<PrintWriter> log_file_writer = new ThreadLocal<>();
+    private ThreadLocal<DeviceLogRecorder> deviceLogRecorder = new ThreadLocal<>();
     private ScreenShotManager screenShotManager;
     private String videoPath;
     private static final Logger LOGGER = Logger.getLogger(TestLogger.class.getName());
@@ -56,19 +53,15 @@ public class TestLogger extends Helpers {
     }
 
     private void startDeviceLogCapture(String logDirectory, String testMethodName) {
-        File logFile;
         if (isNativeAndroid()) {
             String udid = AppiumDriverManager.getDriver().getCapabilities()
                             .getCapability("appium:udid").toString();
 
             String logFileName = logDirectory + udid + "__" + testMethodName + ".txt";
-            List<LogEntry> logcat = AppiumDriverManager.getDriver().manage()
-                    .logs().get("logcat").getAll();
-            logEntries.set(logcat);
-            logFile = new File(logFileName);
             try {
-                log_file_writer.set(new PrintWriter(logFile));
-            } catch (FileNotFoundException e) {
+                deviceLogRecorder.set(DeviceLogRecorder.startLogcat(
+                        AppiumDriverManager.getDriver(), logFileName));
+            } catch (IOException e) {
                 LOGGER.error("Unable to start device log capture", e);
             }
         }
@@ -111,7 +104,7 @@ public class TestLogger extends Helpers {
         /*
          * Failure Block
          */
-        handleTestFailure(result, className, deviceModel);
+        ScreenshotCapture failureScreen = handleTestFailure(result, className, deviceModel);
         String baseHostUrl = "http://" + getHostMachineIpAddress() + ":"
                 + getRemoteAppiumManagerPort("127.0.0.1");
         if ("true".equalsIgnoreCase(getOverriddenStringValue("VIDEO_LOGS"))) {
@@ -124,52 +117,48 @@ public class TestLogger extends Helpers {
             String videoPath = System.getProperty("user.dir")
                     + FileLocations.OUTPUT_DIRECTORY + getVideoPath();
             if (new File(videoPath).exists()) {
-                ReportPortal.emitLog("Video Logs", "Trace", new Date(), new File(videoPath));
+                ReportPortalEmitter.getInstance().emitLog("Video Logs", "Trace", new Date(),
+                        new File(videoPath));
                 logs.put("videoLogs", baseHostUrl + "/" + getVideoPath());
-            }
-        }
-        String failedScreen = screenShotManager.getFailedScreen();
-        String framedFailureScreen = screenShotManager.getFramedFailedScreen();
-
-        if (result.getStatus() == ITestResult.FAILURE) {
-            String screenShotFailure = null;
-            try {
-                screenShotFailure = baseHostUrl;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            String screenFailure = System.getProperty("user.dir")
-                    + FileLocations.OUTPUT_DIRECTORY + failedScreen;
-            if (new File(screenFailure).exists()) {
-                screenShotFailure = screenShotFailure
-                        + "/" + failedScreen;
-                logs.put("screenShotFailure", screenShotFailure);
             } else {
-                String framedScreenFailure = System.getProperty("user.dir")
-                        + FileLocations.OUTPUT_DIRECTORY + framedFailureScreen;
-                if (new File(framedScreenFailure).exists()) {
-                    screenShotFailure = screenShotFailure
-                            + "/" + framedScreenFailure;
-                    logs.put("screenShotFailure", screenShotFailure);
-                }
+                logVideoParts(videoPath, baseHostUrl, logs);
             }
         }
+        // The paths are known before the writer pool has finished with the files
+        if (failureScreen != null) {
+            logs.put("screenShotFailure", baseHostUrl + "/" + failureScreen.getScreenshot());
+        }
         return logs;
     }
 
+    /**
+     * Rolling recordings that couldn't be joined are kept as numbered parts next to the
+     * video, the first one is linked as the video and the others as videoLogs_partN
+     */
+    private void logVideoParts(String videoPath, String baseHostUrl,
+                               HashMap<String, String> logs) {
+        String basePath = videoPath.replaceFirst("\\.mp4$", "");
+        String baseUrl = baseHostUrl + "/" + getVideoPath().replaceFirst("\\.mp4$", "");
+        for (int part = 1; new File(basePath + "_part" + part + ".mp4").exists(); part++) {
+            ReportPortalEmitter.getInstance().emitLog("Video Logs - part " + part, "Trace",
+                    new Date(), new File(basePath + "_part" + part + ".mp4"));
+            logs.put(part == 1 ? "videoLogs" : "videoLogs_part" + part,
+                    baseUrl + "_part" + part + ".mp4");
+        }
+    }
+
     private void stopDeviceLogCapture(ITestResult result, HashMap<String, String> logs) {
-        if (isNativeAndroid()) {
-            String adbPath = System.getProperty("user.dir") + FileLocations.ADB_LOGS_DIRECTORY
-                    + AppiumDriverManager.getDriver().getCapabilities()
-                        .getCapability("appium:udid").toString()
-                    + "__" + result.getMethod().getMethodName() + ".txt";
-            logs.put("adbLogs", adbPath);
-            logEntries.get().forEach(logEntry -> {
-                log_file_writer.get().println(logEntry);
-            });
-            log_file_writer.get().close();
-            File adbLogFile = new File(adbPath);
-            ReportPortal.emitLog(String.format("ADB Logs - %s", adbLogFile.getName()),
+        DeviceLogRecorder recorder = deviceLogRecorder.get();
+        if (isNativeAndroid() && recorder != null) {
+            deviceLogRecorder.remove();
+            File adbLogFile = recorder.stop();
+            logs.put("adbLogs", adbLogFile.getPath());
+            ArtifactRegistry.getInstance().register(ArtifactRegistry.Type.DEVICE_LOG,
+                    AppiumDeviceManager.getAppiumDevice().getUdid(),
+                    result.getInstance().getClass().getSimpleName(),
+                    result.getMethod().getMethodName(), adbLogFile);
+            ReportPortalEmitter.getInstance().emitLog(
+                    String.format("ADB Logs - %s", adbLogFile.getName()),
                     "DEBUG", new Date(), adbLogFile);
         }
     }
@@ -183,58 +172,40 @@ public class TestLogger extends Helpers {
     private void stopVideoRecording(ITestResult result, String className) {
         if ("true".equalsIgnoreCase(getOverriddenStringValue("VIDEO_LOGS"))) {
             IScreenRecord videoRecording = AppiumScreenRecordFactory.recordScreen();
-            videoRecording.stopVideoRecording(className, result.getMethod()
-                    .getMethodName(), result.getMethod().getMethodName());
+            if (isVideoKept(result)) {
+                videoRecording.stopVideoRecording(className, result.getMethod()
+                        .getMethodName(), result.getMethod().getMethodName());
+            } else {
+                videoRecording.discardVideoRecording();
+            }
         }
-        deleteSuccessVideos(result, className);
     }
 
-    private void deleteSuccessVideos(ITestResult result, String className) {
-        if (result.isSuccess()
-                && (null != getOverriddenStringValue("KEEP_ALL_VIDEOS"))
-                && !(getOverriddenStringValue("KEEP_ALL_VIDEOS")
-                .equalsIgnoreCase("true"))) {
-            File videoFile = new File(System.getProperty("user.dir")
-                    + FileLocations.ANDROID_SCREENSHOTS_DIRECTORY
-                    + AppiumDeviceManager.getAppiumDevice().getUdid() + "/"
-                    + className + "/" + result.getMethod().getMethodName()
-                    + "/" + result.getMethod().getMethodName() + ".mp4");
-            if (videoFile.exists()) {
-                videoFile.delete();
-            }
-        }
+    /**
+     * Videos of passed tests are not transferred when KEEP_ALL_VIDEOS is set to anything
+     * but true. Failed, skipped and retried tests always keep theirs.
+     */
+    private boolean isVideoKept(ITestResult result) {
+        String keepAllVideos = getOverriddenStringValue("KEEP_ALL_VIDEOS");
+        return !result.isSuccess() || keepAllVideos == null
+                || keepAllVideos.equalsIgnoreCase("true");
     }
 
-    private void handleTestFailure(ITestResult result, String className,
-                                   String deviceModel) {
-        if (result.getStatus() == ITestResult.FAILURE) {
-            String screenShotNameWithTimeStamp = screenShotManager
-                    .captureScreenShot(result.getStatus(),
-                            result.getInstance().getClass().getSimpleName(),
-                            result.getMethod().getMethodName(),
-                            result.getMethod().getMethodName(), deviceModel);
-
-            if (AppiumDeviceManager.getMobilePlatform().equals(MobilePlatform.ANDROID)) {
-                String imagePath = System.getProperty("user.dir")
-                        + FileLocations.ANDROID_SCREENSHOTS_DIRECTORY
-                        + AppiumDeviceManager.getAppiumDevice().getUdid()
-                        + "/" + className + "/" + result.getMethod()
-                        .getMethodName() + "/" + screenShotNameWithTimeStamp
-                        + "-" + result.getMethod().getMethodName() + "_failed.jpeg";
-                ReportPortal.emitLog("Screenshots",
-                        "ERROR", new Date(), new File(imagePath));
-            }
-            if (AppiumDeviceManager.getMobilePlatform().equals(MobilePlatform.IOS)) {
-                String imagePath = System.getProperty("user.dir")
-                        + FileLocations.IOS_SCREENSHOTS_DIRECTORY
-                        + AppiumDeviceManager.getAppiumDevice().getUdid()
-                        + "/" + className + "/" + result.getMethod()
-                        .getMethodName() + "/" + screenShotNameWithTimeStamp
-                        + "-" + result.getMethod().getMethodName() + "_failed.jpeg";
-                ReportPortal.emitLog("Screenshots",
-                        "ERROR", new Date(), new File(imagePath));
-            }
+    private ScreenshotCapture handleTestFailure(ITestResult result, String className,
+                                                String deviceModel) {
+        if (result.getStatus() != ITestResult.FAILURE) {
+            return null;
+        }
+        ScreenshotCapture capture = screenShotManager
+                .captureScreenShotAsync(result.getStatus(), className,
+                        result.getMethod().getMethodName(),
+                        result.getMethod().getMethodName(), deviceModel);
+        if (capture != null) {
+            ReportPortalEmitter.getInstance().emitLog("Screenshots", "ERROR", new Date(),
+                    new File(System.getProperty("user.dir") + FileLocations.OUTPUT_DIRECTORY
+                            + capture.getFramedScreenshot()), capture.getWritten());
         }
+        return capture;
     }
 
 }
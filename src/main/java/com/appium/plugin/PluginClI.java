@@ -77,14 +77,23 @@ public class PluginClI {
                        .getCloud().get("cloudName").textValue();
     }
 
-    private static PluginClI instance;
+    private static volatile PluginClI instance;
 
+    /**
+     * Fetched from the server on first use; threads asking at the same time share one request
+     */
     @SneakyThrows
     public static PluginClI getInstance() {
-        if (instance == null) {
-            PluginCliRequest plugin = new PluginCliRequest();
-            instance = plugin.getCliArgs();
+        PluginClI result = instance;
+        if (result == null) {
+            synchronized (PluginClI.class) {
+                result = instance;
+                if (result == null) {
+                    result = new PluginCliRequest().getCliArgs();
+                    instance = result;
+                }
+            }
         }
-        return instance;
+        return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.appium.shard;
+
+import com.appium.executor.TestDurationHistory;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A set of test methods, grouped by class, that the coordinator leases to one worker at a
+ * time. Classes are never split over batches so class level configuration methods run once.
+ */
+public class ShardBatch {
+    private final int id;
+    private final Map<String, List<String>> classes;
+
+    public ShardBatch(int id, Map<String, List<String>> classes) {
+        this.id = id;
+        this.classes = classes;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Map<String, List<String>> getClasses() {
+        return classes;
+    }
+
+    public int getMethodCount() {
+        return classes.values().stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * Split the test methods into one batch per class, longest class first according to the
+     * recorded durations, so the slowest classes are leased out while every worker is idle
+     *
+     * @param methods Test methods by class name
+     * @param tests   Method names to restrict the batches to, every method if empty
+     * @param history Recorded test durations
+     * @return Batches in lease order
+     */
+    public static List<ShardBatch> partition(Map<String, List<Method>> methods,
+                                             List<String> tests,
+                                             TestDurationHistory history) {
+        Map<String, List<String>> selected = new LinkedHashMap<>();
+        methods.keySet().stream().sorted().forEach(className -> {
+            List<String> names = methods.get(className).stream()
+                    .map(Method::getName)
+                    .filter(name -> tests == null || tests.isEmpty()
+                            || tests.stream().anyMatch(name::equalsIgnoreCase))
+                    .distinct()
+                    .sorted()
+                    .collect(Collectors.toList());
+            if (!names.isEmpty()) {
+                selected.put(className, names);
+            }
+        });
+        double fallback = history.average().orElse(1);
+        Map<String, Double> estimates = new LinkedHashMap<>();
+        selected.forEach((className, names) -> estimates.put(className, names.stream()
+                .mapToDouble(name -> history.estimate(className, name).orElse(fallback))
+                .sum()));
+
+        List<String> order = new ArrayList<>(selected.keySet());
+        order.sort(Comparator.comparingDouble((String className) -> estimates.get(className))
+                .reversed());
+        List<ShardBatch> batches = new ArrayList<>();
+        for (String className : order) {
+            batches.add(new ShardBatch(batches.size(),
+                    Collections.singletonMap(className, selected.get(className))));
+        }
+        return batches;
+    }
+
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        JSONObject classesJson = new JSONObject();
+        classes.forEach((className, names) -> classesJson.put(className, new JSONArray(names)));
+        json.put("type", "batch");
+        json.put("id", id);
+        json.put("classes", classesJson);
+        return json;
+    }
+
+    static ShardBatch fromJson(JSONObject json) {
+        Map<String, List<String>> classes = new LinkedHashMap<>();
+        JSONObject classesJson = json.getJSONObject("classes");
+        for (String className : classesJson.keySet()) {
+            List<String> names = new ArrayList<>();
+            classesJson.getJSONArray(className).forEach(name -> names.add(name.toString()));
+            classes.put(className, names);
+        }
+        return new ShardBatch(json.getInt("id"), classes);
+    }
+
+    @Override
+    public String toString() {
+        return "batch " + id + " " + classes.keySet();
+    }
+}
@@ -0,0 +1,196 @@
+package com.appium.shard;
+
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+
+/**
+ * Leases test batches to worker JVMs over a line based JSON protocol on a loopback socket.
+ * <p>
+ * A worker connects and sends {@code {"type":"hello","worker":...}}. The coordinator answers
+ * with a batch, the worker runs it and replies with its result, which doubles as the request
+ * for the next batch. Once every batch has a result the coordinator answers
+ * {@code {"type":"done"}}. A batch leased to a worker that disconnects before reporting is put
+ * back at the head of the queue for the next idle worker.
+ */
+public class ShardCoordinator implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ShardCoordinator.class.getName());
+    private static final long POLL_MILLIS = 500;
+
+    private final ServerSocket serverSocket;
+    private final BlockingDeque<ShardBatch> pending;
+    private final Map<Integer, ShardResult> results = new ConcurrentHashMap<>();
+    private final CountDownLatch completed;
+    private final List<Socket> connections = new ArrayList<>();
+    private volatile boolean closed;
+
+    public ShardCoordinator(List<ShardBatch> batches, int port) throws IOException {
+        this.pending = new LinkedBlockingDeque<>(batches);
+        this.completed = new CountDownLatch(batches.size());
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Create a coordinator listening on SHARD_PORT, or on any free port if it is not set
+     */
+    public static ShardCoordinator fromEnvironment(List<ShardBatch> batches) throws IOException {
+        return new ShardCoordinator(batches, getOverriddenIntValue("SHARD_PORT", 0));
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Start accepting workers in the background
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::accept, "shard-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("Shard coordinator listening on " + getHost() + ":" + getPort()
+                + " with " + pending.size() + " batches");
+    }
+
+    /**
+     * Wait until every batch has a result
+     *
+     * @return true if all batches completed, false if the timeout elapsed first
+     */
+    public boolean awaitCompletion(Duration timeout) throws InterruptedException {
+        return completed.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Results received so far, in batch order
+     */
+    public List<ShardResult> getResults() {
+        return results.values().stream()
+                .sorted(Comparator.comparingInt(ShardResult::getBatchId))
+                .collect(Collectors.toList());
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                synchronized (connections) {
+                    connections.add(socket);
+                }
+                Thread connection = new Thread(() -> serve(socket),
+                        "shard-worker-" + socket.getPort());
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.error("Failed to accept shard worker", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        String worker = String.valueOf(socket.getPort());
+        ShardBatch leased = null;
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     connection.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(connection.getOutputStream(), true)) {
+            String line = reader.readLine();
+            if (line == null) {
+                return;
+            }
+            worker = new JSONObject(line).optString("worker", worker);
+            LOGGER.info("Shard worker " + worker + " connected");
+            while (!closed) {
+                leased = nextBatch();
+                if (leased == null) {
+                    writer.println(new JSONObject().put("type", "done"));
+                    return;
+                }
+                writer.println(leased.toJson());
+                line = reader.readLine();
+                if (line == null) {
+                    throw new SocketException("Worker disconnected");
+                }
+                complete(worker, ShardResult.fromJson(new JSONObject(line)));
+                leased = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Shard worker " + worker + " lost: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (leased != null && !results.containsKey(leased.getId())) {
+                LOGGER.info("Requeueing " + leased + " from worker " + worker);
+                pending.offerFirst(leased);
+            }
+            synchronized (connections) {
+                connections.remove(socket);
+            }
+        }
+    }
+
+    /**
+     * Take the next batch, waiting while batches are still leased to other workers since
+     * those come back to the queue if their worker dies
+     *
+     * @return The next batch, null once every batch has a result
+     */
+    private ShardBatch nextBatch() throws InterruptedException {
+        while (!closed && completed.getCount() > 0) {
+            ShardBatch batch = pending.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch != null) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private void complete(String worker, ShardResult result) {
+        if (results.putIfAbsent(result.getBatchId(), result) == null) {
+            completed.countDown();
+            LOGGER.info("Shard worker " + worker + " finished " + result + ", "
+                    + completed.getCount() + " batches remaining");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+            connections.clear();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.appium.shard;
+
+import org.json.JSONObject;
+
+/**
+ * Outcome of one batch as reported back by a worker.
+ */
+public class ShardResult {
+    private final int batchId;
+    private final int passed;
+    private final int failed;
+    private final int skipped;
+    private final String resultsFile;
+
+    public ShardResult(int batchId, int passed, int failed, int skipped, String resultsFile) {
+        this.batchId = batchId;
+        this.passed = passed;
+        this.failed = failed;
+        this.skipped = skipped;
+        this.resultsFile = resultsFile;
+    }
+
+    /**
+     * Result for a batch the worker could not run at all
+     */
+    public static ShardResult aborted(ShardBatch batch) {
+        return new ShardResult(batch.getId(), 0, batch.getMethodCount(), 0, null);
+    }
+
+    public int getBatchId() {
+        return batchId;
+    }
+
+    public int getPassed() {
+        return passed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return Path of the testng-results.xml written for the batch, null if there is none
+     */
+    public String getResultsFile() {
+        return resultsFile;
+    }
+
+    public boolean hasFailure() {
+        return failed > 0;
+    }
+
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("type", "result");
+        json.put("id", batchId);
+        json.put("passed", passed);
+        json.put("failed", failed);
+        json.put("skipped", skipped);
+        if (resultsFile != null) {
+            json.put("resultsFile", resultsFile);
+        }
+        return json;
+    }
+
+    static ShardResult fromJson(JSONObject json) {
+        return new ShardResult(json.getInt("id"), json.optInt("passed"),
+                json.optInt("failed"), json.optInt("skipped"),
+                json.optString("resultsFile", null));
+    }
+
+    @Override
+    public String toString() {
+        return "batch " + batchId + ": " + passed + " passed, " + failed + " failed, "
+                + skipped + " skipped";
+    }
+}
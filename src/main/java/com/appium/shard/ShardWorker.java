@@ -0,0 +1,136 @@
+package com.appium.shard;
+
+import com.appium.manager.ATDRunner;
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
+
+/**
+ * Connects to a {@link ShardCoordinator} and runs the batches it leases until it is told
+ * there is no work left.
+ */
+public class ShardWorker {
+    private static final Logger LOGGER = Logger.getLogger(ShardWorker.class.getName());
+
+    /**
+     * Runs one batch of test methods
+     */
+    public interface BatchRunner {
+        ShardResult run(ShardBatch batch) throws Exception;
+    }
+
+    private final String host;
+    private final int port;
+    private final String workerId;
+    private final BatchRunner batchRunner;
+
+    public ShardWorker(String host, int port, String workerId, BatchRunner batchRunner) {
+        this.host = host;
+        this.port = port;
+        this.workerId = workerId;
+        this.batchRunner = batchRunner;
+    }
+
+    /**
+     * Run batches until the coordinator has none left
+     *
+     * @return Results of the batches this worker ran
+     */
+    public List<ShardResult> run() throws IOException {
+        List<ShardResult> results = new ArrayList<>();
+        try (Socket socket = new Socket(host, port);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
+            writer.println(new JSONObject().put("type", "hello").put("worker", workerId));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject message = new JSONObject(line);
+                if (!"batch".equals(message.getString("type"))) {
+                    break;
+                }
+                ShardBatch batch = ShardBatch.fromJson(message);
+                LOGGER.info("Shard worker " + workerId + " running " + batch);
+                ShardResult result;
+                try {
+                    result = batchRunner.run(batch);
+                } catch (Exception e) {
+                    LOGGER.error("Shard worker " + workerId + " failed to run " + batch, e);
+                    result = ShardResult.aborted(batch);
+                }
+                results.add(result);
+                writer.println(result.toJson());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Start a worker JVM on this machine with the current classpath. The worker owns every
+     * count-th device starting at index and writes its output below its own directory.
+     */
+    public static Process launch(String host, int port, String pack, int index, int count)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        System.getProperties().forEach((key, value) -> {
+            if (isForwarded(key.toString())) {
+                command.add("-D" + key + "=" + value);
+            }
+        });
+        command.add(ShardWorker.class.getName());
+        command.add(host);
+        command.add(String.valueOf(port));
+        command.add(pack);
+        command.add("worker-" + index);
+
+        ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+        Map<String, String> environment = builder.environment();
+        environment.put("SHARD_ROLE", "worker");
+        environment.put("SHARD_INDEX", String.valueOf(index));
+        environment.put("SHARD_COUNT", String.valueOf(count));
+        environment.put("OUTPUT_DIRECTORY", getOverriddenStringValue("OUTPUT_DIRECTORY", "target")
+                + File.separator + "shard-" + index);
+        return builder.start();
+    }
+
+    private static boolean isForwarded(String property) {
+        return !(property.startsWith("java.") || property.startsWith("sun.")
+                || property.startsWith("jdk.") || property.startsWith("os.")
+                || property.startsWith("user.") || property.startsWith("file.")
+                || property.startsWith("line.") || property.startsWith("path.")
+                || property.startsWith("SHARD_") || property.equals("OUTPUT_DIRECTORY"));
+    }
+
+    /**
+     * Worker JVM entry point: host, port, test package and optionally a worker id
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            throw new IllegalArgumentException(
+                    "Usage: ShardWorker <host> <port> <package> [workerId]");
+        }
+        String workerId = args.length > 3 ? args[3]
+                : getOverriddenStringValue("SHARD_INDEX", "worker");
+        ATDRunner atdRunner = new ATDRunner();
+        List<ShardResult> results = new ShardWorker(args[0], Integer.parseInt(args[1]),
+                workerId, batch -> atdRunner.runShardBatch(args[2], batch)).run();
+        LOGGER.info("Shard worker " + workerId + " ran " + results.size() + " batches");
+        System.exit(0);
+    }
+}
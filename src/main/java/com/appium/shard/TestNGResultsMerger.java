@@ -0,0 +1,67 @@
+package com.appium.shard;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Merges the testng-results.xml files written by shard workers into one report: the suites
+ * of every file are copied under a single root whose counters are the sums of the inputs.
+ */
+public class TestNGResultsMerger {
+    private static final Logger LOGGER = Logger.getLogger(TestNGResultsMerger.class.getName());
+    private static final String[] COUNTERS = {"total", "passed", "failed", "skipped", "ignored"};
+
+    public void merge(List<File> resultFiles, File target) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd",
+                false);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document merged = builder.newDocument();
+        Element root = merged.createElement("testng-results");
+        merged.appendChild(root);
+        long[] totals = new long[COUNTERS.length];
+
+        for (File resultFile : resultFiles) {
+            if (!resultFile.isFile()) {
+                LOGGER.warn("Skipping missing shard results " + resultFile);
+                continue;
+            }
+            Element source = builder.parse(resultFile).getDocumentElement();
+            for (int i = 0; i < COUNTERS.length; i++) {
+                String value = source.getAttribute(COUNTERS[i]);
+                if (!value.isEmpty()) {
+                    totals[i] += Long.parseLong(value);
+                }
+            }
+            NodeList children = source.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    root.appendChild(merged.importNode(child, true));
+                }
+            }
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            root.setAttribute(COUNTERS[i], String.valueOf(totals[i]));
+        }
+
+        target.getParentFile().mkdirs();
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.transform(new DOMSource(merged), new StreamResult(target));
+        LOGGER.info("Merged " + resultFiles.size() + " shard results into " + target);
+    }
+}
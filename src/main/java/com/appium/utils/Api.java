@@ -1,37 +1,220 @@
 package com.appium.utils;
 
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
 import org.openqa.selenium.remote.http.HttpClient;
 import org.openqa.selenium.remote.http.HttpMethod;
 import org.openqa.selenium.remote.http.HttpRequest;
 import org.openqa.selenium.remote.http.HttpResponse;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+
 
 public class Api extends Helpers {
+    private static final Logger LOGGER = Logger.getLogger(Api.class.getName());
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final ApiMetrics METRICS = new ApiMetrics();
+
+    /**
+     * One client for every device farm call, so connections are kept alive and reused
+     * instead of every call setting up its own connection pool and dispatcher
+     */
+    private static final class ClientHolder {
+        // Daemon threads, so pending async calls don't keep the JVM alive after the run
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+        private static final OkHttpClient CLIENT = new OkHttpClient.Builder()
+                .dispatcher(new Dispatcher(new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                        60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                            Thread thread = new Thread(runnable,
+                                    "api-dispatcher-" + THREAD_COUNT.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        })))
+                .connectTimeout(getOverriddenIntValue("API_CONNECT_TIMEOUT", 10),
+                        TimeUnit.SECONDS)
+                .readTimeout(getOverriddenIntValue("API_READ_TIMEOUT", 30), TimeUnit.SECONDS)
+                .writeTimeout(getOverriddenIntValue("API_WRITE_TIMEOUT", 30), TimeUnit.SECONDS)
+                .connectionPool(new ConnectionPool(
+                        getOverriddenIntValue("API_MAX_IDLE_CONNECTIONS", 5), 5, TimeUnit.MINUTES))
+                .addInterceptor(METRICS)
+                .build();
+    }
+
+    static OkHttpClient client() {
+        return ClientHolder.CLIENT;
+    }
 
     public String getResponse(String url) {
         String body;
         try {
-            OkHttpClient client = new OkHttpClient();
             Request request = new Request.Builder()
                     .url(url)
                     .build();
-            Response response = client.newCall(request).execute();
-            body = response.body().string();
-            response.close();
-
+            try (Response response = client().newCall(request).execute()) {
+                body = response.body().string();
+            }
         } catch (Exception e) {
             throw new RuntimeException("unable to call device farm endpoints " + e.getMessage());
         }
         return body;
     }
-}
\ No newline at end of file
+
+    /**
+     * Send a GET request without blocking the caller
+     *
+     * @return Future completing with the response body, or exceptionally if the call failed
+     * or was answered with an error status
+     */
+    public CompletableFuture<String> getAsync(String url) {
+        return send(new Request.Builder().url(url).get().build());
+    }
+
+    /**
+     * Send a PUT request with a JSON body without blocking the caller
+     */
+    public CompletableFuture<String> putAsync(String url, String json) {
+        return send(new Request.Builder().url(url).put(RequestBody.create(JSON, json)).build());
+    }
+
+    /**
+     * Send a POST request with a JSON body without blocking the caller
+     */
+    public CompletableFuture<String> postAsync(String url, String json) {
+        return send(new Request.Builder().url(url).post(RequestBody.create(JSON, json)).build());
+    }
+
+    /**
+     * Send a conditional GET carrying the validators of a previous response
+     *
+     * @param etag         ETag of the previous response, null if there was none
+     * @param lastModified Last-Modified of the previous response, null if there was none
+     * @return Future completing with empty if the server answered 304 Not Modified
+     */
+    public CompletableFuture<Optional<ConditionalResponse>> getIfModifiedAsync(
+            String url, String etag, String lastModified) {
+        Request.Builder builder = new Request.Builder().url(url).get();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        CompletableFuture<Optional<ConditionalResponse>> future = new CompletableFuture<>();
+        client().newCall(builder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(new RuntimeException(
+                        "unable to call device farm endpoints " + e.getMessage(), e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (response.code() == 304) {
+                        future.complete(Optional.empty());
+                    } else if (response.isSuccessful()) {
+                        future.complete(Optional.of(new ConditionalResponse(
+                                body == null ? "" : body.string(), response.header("ETag"),
+                                response.header("Last-Modified"))));
+                    } else {
+                        future.completeExceptionally(new RuntimeException("device farm endpoint "
+                                + url + " returned " + response.code()));
+                    }
+                } catch (IOException e) {
+                    onFailure(call, e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return Call count, error count and latency of every endpoint called so far
+     */
+    public static Map<String, ApiMetrics.Stats> getMetrics() {
+        return METRICS.snapshot();
+    }
+
+    public static void logMetrics() {
+        getMetrics().forEach((endpoint, stats) -> LOGGER.info(endpoint + ": " + stats));
+    }
+
+    /**
+     * Body of a conditional GET along with the validators to send next time
+     */
+    public static final class ConditionalResponse {
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+
+        ConditionalResponse(String body, String etag, String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private CompletableFuture<String> send(Request request) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        client().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(new RuntimeException(
+                        "unable to call device farm endpoints " + e.getMessage(), e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody body = response.body()) {
+                    String content = body == null ? "" : body.string();
+                    if (response.isSuccessful()) {
+                        future.complete(content);
+                    } else {
+                        future.completeExceptionally(new RuntimeException(
+                                "device farm endpoint " + request.method() + " " + request.url()
+                                        + " returned " + response.code() + ": " + content));
+                    }
+                } catch (IOException e) {
+                    onFailure(call, e);
+                }
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,109 @@
+package com.appium.utils;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Latency of the device farm calls made through {@link Api}, per HTTP method and path.
+ * Calls that throw or answer with an error status are counted as errors.
+ */
+public class ApiMetrics implements Interceptor {
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Endpoint endpoint = endpoints.computeIfAbsent(
+                request.method() + " " + request.url().encodedPath(), key -> new Endpoint());
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Response response = chain.proceed(request);
+            failed = response.code() >= 400;
+            return response;
+        } finally {
+            endpoint.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * @return Snapshot of the statistics by endpoint, sorted by endpoint
+     */
+    public Map<String, Stats> snapshot() {
+        Map<String, Stats> snapshot = new TreeMap<>();
+        endpoints.forEach((key, endpoint) -> snapshot.put(key, endpoint.stats()));
+        return snapshot;
+    }
+
+    public void reset() {
+        endpoints.clear();
+    }
+
+    private static final class Endpoint {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos, boolean failed) {
+            calls.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulate(nanos);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+
+        private Stats stats() {
+            long count = calls.get();
+            return new Stats(count, errors.get(),
+                    count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count),
+                    TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+        }
+    }
+
+    public static final class Stats {
+        private final long calls;
+        private final long errors;
+        private final long averageMillis;
+        private final long maxMillis;
+
+        Stats(long calls, long errors, long averageMillis, long maxMillis) {
+            this.calls = calls;
+            this.errors = errors;
+            this.averageMillis = averageMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getAverageMillis() {
+            return averageMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return calls + " calls, " + errors + " errors, avg " + averageMillis
+                    + "ms, max " + maxMillis + "ms";
+        }
+    }
+}
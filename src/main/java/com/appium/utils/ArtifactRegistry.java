@@ -0,0 +1,213 @@
+package com.appium.utils;
+
+import com.appium.filelocations.FileLocations;
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
+
+/**
+ * Files produced by the tests (screenshots, videos, device logs), registered by whoever
+ * writes them. Lookups by device, test class and method are served from memory, and every
+ * registration is appended to artifacts.jsonl in the output directory, tagged with the run
+ * (RUN_ID, random by default), device, class and method.
+ */
+public class ArtifactRegistry {
+    private static final Logger LOGGER = Logger.getLogger(ArtifactRegistry.class.getName());
+
+    public enum Type {
+        SCREENSHOT, VIDEO, DEVICE_LOG
+    }
+
+    private static final class Holder {
+        private static final ArtifactRegistry INSTANCE = new ArtifactRegistry(
+                new File(System.getProperty("user.dir") + FileLocations.OUTPUT_DIRECTORY
+                        + "artifacts.jsonl"),
+                getOverriddenStringValue("RUN_ID", UUID.randomUUID().toString()));
+    }
+
+    private final File manifest;
+    private final String runId;
+    private final Map<String, List<Artifact>> byTest = new ConcurrentHashMap<>();
+    private Writer writer;
+
+    ArtifactRegistry(File manifest, String runId) {
+        this.manifest = manifest;
+        this.runId = runId;
+    }
+
+    public static ArtifactRegistry getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public Artifact register(Type type, String udid, String className, String methodName,
+                             String name, String path) {
+        return register(type, udid, className, methodName, name, path,
+                CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Register a file that is already written, named after the file
+     */
+    public Artifact register(Type type, String udid, String className, String methodName,
+                             File file) {
+        String outputDirectory = new File(System.getProperty("user.dir")
+                + FileLocations.OUTPUT_DIRECTORY).getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if (path.startsWith(outputDirectory)) {
+            path = path.substring(outputDirectory.length());
+        }
+        return register(type, udid, className, methodName, file.getName(), path);
+    }
+
+    /**
+     * Register a file that may still be being written
+     *
+     * @param path    Path relative to the output directory
+     * @param written Completes once the file is on disk
+     */
+    public Artifact register(Type type, String udid, String className, String methodName,
+                             String name, String path, CompletableFuture<?> written) {
+        Artifact artifact = new Artifact(type, udid, className, methodName, name, path,
+                written);
+        byTest.computeIfAbsent(key(udid, className, methodName),
+                        key -> new CopyOnWriteArrayList<>())
+                .add(artifact);
+        append(artifact);
+        return artifact;
+    }
+
+    /**
+     * @return Artifacts of every attempt of the test method on the device, in registration
+     *         order
+     */
+    public List<Artifact> find(String udid, String className, String methodName) {
+        return Collections.unmodifiableList(byTest.getOrDefault(
+                key(udid, className, methodName), Collections.emptyList()));
+    }
+
+    /**
+     * Read the artifacts of a run back from a manifest
+     */
+    public static List<JSONObject> read(File manifest, String runId) throws IOException {
+        List<JSONObject> artifacts = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                JSONObject artifact = new JSONObject(line);
+                if (runId.equals(artifact.optString("run"))) {
+                    artifacts.add(artifact);
+                }
+            }
+        }
+        return artifacts;
+    }
+
+    public File getManifest() {
+        return manifest;
+    }
+
+    private synchronized void append(Artifact artifact) {
+        try {
+            if (writer == null) {
+                manifest.getAbsoluteFile().getParentFile().mkdirs();
+                writer = Files.newBufferedWriter(manifest.toPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(artifact.toJson(runId).toString());
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to append " + artifact.getPath() + " to " + manifest, e);
+        }
+    }
+
+    private static String key(String udid, String className, String methodName) {
+        return udid + "/" + className + "/" + methodName;
+    }
+
+    public static final class Artifact {
+        private final Type type;
+        private final String udid;
+        private final String className;
+        private final String methodName;
+        private final String name;
+        private final String path;
+        private final CompletableFuture<?> written;
+        private final long registeredAt = System.currentTimeMillis();
+
+        private Artifact(Type type, String udid, String className, String methodName,
+                         String name, String path, CompletableFuture<?> written) {
+            this.type = type;
+            this.udid = udid;
+            this.className = className;
+            this.methodName = methodName;
+            this.name = name;
+            this.path = path;
+            this.written = written;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getUdid() {
+            return udid;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Path relative to the output directory
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public CompletableFuture<?> getWritten() {
+            return written;
+        }
+
+        /**
+         * @return Epoch milliseconds the artifact was registered at
+         */
+        public long getRegisteredAt() {
+            return registeredAt;
+        }
+
+        private JSONObject toJson(String runId) {
+            return new JSONObject()
+                    .put("run", runId)
+                    .put("type", type.name())
+                    .put("udid", udid)
+                    .put("class", className)
+                    .put("method", methodName)
+                    .put("name", name)
+                    .put("path", path);
+        }
+    }
+}
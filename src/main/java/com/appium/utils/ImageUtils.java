@@ -1,28 +1,213 @@
 package com.appium.utils;
 
-import org.im4java.core.ConvertCmd;
-import org.im4java.core.IM4JavaException;
-import org.im4java.core.IMOperation;
+import org.apache.log4j.Logger;
 
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+
 /**
  * Created by saikrisv on 17/03/16.
+ * <p>
+ * Device frames are composed in-process: decoded frame images are cached by path and the
+ * frames directory is listed once, so framing a screenshot costs one decode of the screen
+ * and one JPEG encode, which runs on a small worker pool.
  */
 
 public class ImageUtils {
+    private static final Logger LOGGER = Logger.getLogger(ImageUtils.class.getName());
+    private static final Map<String, CachedFrame> FRAMES = new ConcurrentHashMap<>();
+    private static final Map<String, FrameDirectory> FRAME_DIRECTORIES =
+            new ConcurrentHashMap<>();
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService ENCODERS = Executors.newFixedThreadPool(
+            getOverriddenIntValue("FRAME_ENCODER_THREADS", 2), runnable -> {
+                Thread thread = new Thread(runnable,
+                        "frame-encoder-" + THREAD_COUNT.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
 
     public void wrapDeviceFrames(String deviceFrame, String deviceScreenToBeFramed,
-                                 String framedDeviceScreen)
-            throws InterruptedException, IOException, IM4JavaException {
-        IMOperation op = new IMOperation();
-        op.addImage(deviceFrame);
-        op.addImage(deviceScreenToBeFramed);
-        op.gravity("center");
-        op.composite();
-        op.opaque("none");
-        op.addImage(framedDeviceScreen);
-        ConvertCmd cmd = new ConvertCmd();
-        cmd.run(op);
+                                 String framedDeviceScreen) throws IOException {
+        try {
+            wrapDeviceFramesAsync(deviceFrame, deviceScreenToBeFramed, framedDeviceScreen)
+                    .join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
     }
-}
 
+    /**
+     * Center the screen on the device frame and write the result as JPEG on the encoder
+     * pool. The output is replaced atomically, so it may be the screen file itself.
+     */
+    public CompletableFuture<Void> wrapDeviceFramesAsync(String deviceFrame,
+                                                         String deviceScreenToBeFramed,
+                                                         String framedDeviceScreen) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                BufferedImage screen = ImageIO.read(new File(deviceScreenToBeFramed));
+                if (screen == null) {
+                    throw new IOException("Unsupported image " + deviceScreenToBeFramed);
+                }
+                writeJpeg(compose(loadFrame(new File(deviceFrame)), screen),
+                        new File(framedDeviceScreen));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ENCODERS);
+    }
+
+    /**
+     * Find the frame for a device model in the frames directory. A frame matches when the
+     * model contains its file name without the .png extension, ignoring case.
+     */
+    public Optional<File> findDeviceFrame(File frameDirectory, String deviceModel) {
+        if (deviceModel == null || !frameDirectory.isDirectory()) {
+            return Optional.empty();
+        }
+        FrameDirectory frames = FRAME_DIRECTORIES.compute(frameDirectory.getAbsolutePath(),
+                (path, cached) -> cached != null && cached.isCurrent(frameDirectory)
+                        ? cached : new FrameDirectory(frameDirectory));
+        String model = deviceModel.toLowerCase(Locale.ROOT);
+        return frames.byName.entrySet().stream()
+                .filter(frame -> model.contains(frame.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst();
+    }
+
+    /**
+     * Write a JPEG copy of the image scaled down to the given width, keeping its aspect ratio.
+     * Images already narrower than that are copied at their own size.
+     */
+    public void writeThumbnail(String image, String thumbnail, int width) throws IOException {
+        BufferedImage source = ImageIO.read(new File(image));
+        if (source == null) {
+            throw new IOException("Unsupported image " + image);
+        }
+        writeJpeg(scale(source, width), new File(thumbnail));
+    }
+
+    static BufferedImage scale(BufferedImage image, int width) {
+        int targetWidth = Math.max(1, Math.min(width, image.getWidth()));
+        int targetHeight = Math.max(1,
+                (int) ((long) image.getHeight() * targetWidth / image.getWidth()));
+        BufferedImage scaled = new BufferedImage(targetWidth, targetHeight,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    static BufferedImage compose(BufferedImage frame, BufferedImage screen) {
+        BufferedImage framed = new BufferedImage(frame.getWidth(), frame.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = framed.createGraphics();
+        try {
+            // Transparent parts of the frame come out black, as with -opaque none
+            graphics.setColor(Color.BLACK);
+            graphics.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+            graphics.drawImage(frame, 0, 0, null);
+            graphics.drawImage(screen, (frame.getWidth() - screen.getWidth()) / 2,
+                    (frame.getHeight() - screen.getHeight()) / 2, null);
+        } finally {
+            graphics.dispose();
+        }
+        return framed;
+    }
+
+    static BufferedImage loadFrame(File frameFile) throws IOException {
+        String key = frameFile.getAbsolutePath();
+        CachedFrame cached = FRAMES.get(key);
+        if (cached != null && cached.lastModified == frameFile.lastModified()) {
+            return cached.image;
+        }
+        BufferedImage image = ImageIO.read(frameFile);
+        if (image == null) {
+            throw new IOException("Unsupported device frame " + frameFile);
+        }
+        FRAMES.put(key, new CachedFrame(image, frameFile.lastModified()));
+        return image;
+    }
+
+    private static void writeJpeg(BufferedImage image, File target) throws IOException {
+        target.getAbsoluteFile().getParentFile().mkdirs();
+        Path temp = Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(),
+                target.getName(), ".tmp");
+        try {
+            if (!ImageIO.write(image, "jpeg", temp.toFile())) {
+                throw new IOException("No JPEG writer available");
+            }
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        LOGGER.debug("Image written to " + target);
+    }
+
+    private static final class CachedFrame {
+        private final BufferedImage image;
+        private final long lastModified;
+
+        private CachedFrame(BufferedImage image, long lastModified) {
+            this.image = image;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final class FrameDirectory {
+        private final long lastModified;
+        private final Map<String, File> byName;
+
+        private FrameDirectory(File directory) {
+            lastModified = directory.lastModified();
+            Map<String, File> frames = new LinkedHashMap<>();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isFile()) {
+                        frames.put(file.getName().toLowerCase(Locale.ROOT)
+                                .split(".png")[0], file);
+                    }
+                }
+            }
+            byName = Collections.unmodifiableMap(frames);
+        }
+
+        private boolean isCurrent(File directory) {
+            return directory.lastModified() == lastModified;
+        }
+    }
+}
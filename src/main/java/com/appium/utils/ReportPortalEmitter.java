@@ -0,0 +1,351 @@
+package com.appium.utils;
+
+import com.epam.reportportal.service.LoggingContext;
+import com.epam.reportportal.utils.MimeTypeDetector;
+import com.epam.ta.reportportal.ws.model.log.SaveLogRQ;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenBooleanValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
+
+/**
+ * Hands ReportPortal log lines and attachments to a few uploader threads through a bounded
+ * queue, so reading and typing attachment files no longer happens on the test thread.
+ * <p>
+ * The ReportPortal logging context of the calling thread is captured when a log is queued,
+ * so the log still lands on the right test item. ReportPortal stops accepting logs for an
+ * item once the item is finished, so listeners call {@link #awaitCurrentThread(Duration)}
+ * after their own teardown, which emits whatever the uploaders haven't started yet on the
+ * calling thread instead of waiting behind the logs of other tests, and
+ * {@link #flush(Duration)} when the suite finishes.
+ * When the queue is full the caller either waits (BLOCK) or the log is dropped (DROP),
+ * as set by RP_EMIT_OVERFLOW. An uploader takes up to RP_EMIT_DRAIN_SIZE logs off the queue
+ * at a time; grouping them into requests is left to the ReportPortal client
+ * (rp.batch.size.logs).
+ */
+public class ReportPortalEmitter {
+    private static final Logger LOGGER = Logger.getLogger(ReportPortalEmitter.class.getName());
+    public static final Duration DEFAULT_FLUSH_TIMEOUT = Duration.ofSeconds(60);
+
+    public enum OverflowPolicy {
+        BLOCK, DROP
+    }
+
+    private static final class Holder {
+        private static final ReportPortalEmitter INSTANCE = fromEnvironment();
+    }
+
+    private final boolean async;
+    private final BlockingQueue<CompletableTask> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int drainSize;
+    private final ThreadLocal<List<CompletableTask>> submitted =
+            ThreadLocal.withInitial(ArrayList::new);
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object drained = new Object();
+
+    ReportPortalEmitter(boolean async, int capacity, int threads, int drainSize,
+                        OverflowPolicy overflowPolicy) {
+        this.async = async;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.overflowPolicy = overflowPolicy;
+        this.drainSize = Math.max(1, drainSize);
+        if (async) {
+            for (int i = 0; i < Math.max(1, threads); i++) {
+                Thread uploader = new Thread(this::upload, "rp-emitter-" + i);
+                uploader.setDaemon(true);
+                uploader.start();
+            }
+        }
+    }
+
+    public static ReportPortalEmitter getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    static ReportPortalEmitter fromEnvironment() {
+        OverflowPolicy policy;
+        String configured = getOverriddenStringValue("RP_EMIT_OVERFLOW", "BLOCK");
+        try {
+            policy = OverflowPolicy.valueOf(configured.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Unknown RP_EMIT_OVERFLOW " + configured + ", using BLOCK");
+            policy = OverflowPolicy.BLOCK;
+        }
+        return new ReportPortalEmitter(getOverriddenBooleanValue("RP_EMIT_ASYNC", true),
+                getOverriddenIntValue("RP_EMIT_QUEUE_SIZE", 512),
+                getOverriddenIntValue("RP_EMIT_THREADS", 2),
+                getOverriddenIntValue("RP_EMIT_DRAIN_SIZE", 16), policy);
+    }
+
+    /**
+     * Queue a log line for the test item running on the calling thread
+     *
+     * @return false if there is no item to log to or the log was dropped
+     */
+    public boolean emitLog(String message, String level, Date date) {
+        return emitLog(message, level, date, null);
+    }
+
+    /**
+     * Queue a log line with an attachment for the test item running on the calling thread.
+     * The file is read by an uploader thread, so it has to stay in place until then.
+     *
+     * @return false if there is no item to log to or the log was dropped
+     */
+    public boolean emitLog(String message, String level, Date date, File file) {
+        return emitLog(message, level, date, file, null);
+    }
+
+    /**
+     * Queue a log line with an attachment that is still being written. The log is taken for
+     * the test item running on the calling thread, but only handed to the uploaders once
+     * {@code ready} completes, and not at all if it fails.
+     *
+     * @return false if there is no item to log to or the log was dropped
+     */
+    public boolean emitLog(String message, String level, Date date, File file,
+                           CompletableFuture<?> ready) {
+        LoggingContext context = LoggingContext.context();
+        if (context == null) {
+            return false;
+        }
+        return submit(() -> {
+            SaveLogRQ.File attachment = file == null ? null : toAttachment(file);
+            context.emit(itemUuid -> {
+                SaveLogRQ request = new SaveLogRQ();
+                request.setItemUuid(itemUuid);
+                request.setMessage(message);
+                request.setLevel(level);
+                request.setLogTime(date);
+                request.setFile(attachment);
+                return request;
+            });
+        }, ready);
+    }
+
+    boolean submit(Runnable emission) {
+        return submit(emission, null);
+    }
+
+    boolean submit(Runnable emission, CompletableFuture<?> ready) {
+        if (!async) {
+            if (ready == null || ready.handle((result, error) -> error == null).join()) {
+                emission.run();
+            }
+            return true;
+        }
+        CompletableTask task = new CompletableTask(emission, ready);
+        pending.incrementAndGet();
+        List<CompletableTask> ownTasks = submitted.get();
+        ownTasks.removeIf(own -> own.future.isDone());
+        ownTasks.add(task);
+        if (ready == null) {
+            return enqueue(task);
+        }
+        ready.whenComplete((result, error) -> {
+            if (error == null) {
+                enqueue(task);
+            } else if (task.claim()) {
+                task.future.complete(null);
+                finished();
+            }
+        });
+        return true;
+    }
+
+    private boolean enqueue(CompletableTask task) {
+        boolean queued;
+        try {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                queue.put(task);
+                queued = true;
+            } else {
+                queued = queue.offer(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued && task.claim()) {
+            dropped.incrementAndGet();
+            LOGGER.debug("ReportPortal emission queue full, dropping log");
+            task.future.complete(null);
+            finished();
+        }
+        return queued;
+    }
+
+    /**
+     * Hand the logs queued by the calling thread to ReportPortal. Logs no uploader has
+     * started on are emitted right here, so they don't wait behind the queued logs of other
+     * threads; only logs already being uploaded and attachments still being written are
+     * waited for.
+     *
+     * @return true if every log of this thread was handed over within the timeout
+     */
+    public boolean awaitCurrentThread(Duration timeout) {
+        List<CompletableTask> ownTasks = submitted.get();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            for (CompletableTask task : ownTasks) {
+                if (task.ready != null) {
+                    try {
+                        task.ready.get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+                    } catch (ExecutionException e) {
+                        // Not emitted at all, see submit
+                        continue;
+                    }
+                }
+                if (task.claim()) {
+                    task.run();
+                    finished();
+                }
+            }
+            CompletableFuture.allOf(ownTasks.stream().map(task -> task.future)
+                    .toArray(CompletableFuture[]::new))
+                    .get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            LOGGER.warn("ReportPortal logs of " + Thread.currentThread().getName()
+                    + " still pending after " + timeout);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return true;
+        } finally {
+            submitted.remove();
+        }
+    }
+
+    /**
+     * Wait for every queued log to be handed to ReportPortal
+     *
+     * @return true if the queue drained within the timeout
+     */
+    public boolean flush(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (drained) {
+            while (pending.get() > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    LOGGER.warn(pending.get() + " ReportPortal logs still pending after "
+                            + timeout);
+                    return false;
+                }
+                try {
+                    drained.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        if (dropped.get() > 0) {
+            LOGGER.warn(dropped.get() + " ReportPortal logs were dropped, queue was full");
+        }
+        return true;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private void upload() {
+        List<CompletableTask> taken = new ArrayList<>(drainSize);
+        while (true) {
+            try {
+                taken.add(queue.take());
+                queue.drainTo(taken, drainSize - 1);
+                for (CompletableTask task : taken) {
+                    // The test thread may have emitted it already while awaiting its logs
+                    if (task.claim()) {
+                        task.run();
+                        finished();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                taken.clear();
+            }
+        }
+    }
+
+    private void finished() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+    }
+
+    private static SaveLogRQ.File toAttachment(File file) {
+        SaveLogRQ.File attachment = new SaveLogRQ.File();
+        try {
+            attachment.setContentType(MimeTypeDetector.detect(file));
+            attachment.setContent(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            LOGGER.error("Unable to attach " + file + " to ReportPortal", e);
+            return null;
+        }
+        attachment.setName(UUID.randomUUID().toString());
+        return attachment;
+    }
+
+    private static final class CompletableTask {
+        private final Runnable emission;
+        private final CompletableFuture<?> ready;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private CompletableTask(Runnable emission, CompletableFuture<?> ready) {
+            this.emission = emission;
+            this.ready = ready;
+        }
+
+        /**
+         * @return true for exactly one caller, which then has to run or settle the task
+         */
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        private void run() {
+            try {
+                emission.run();
+                future.complete(null);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to emit ReportPortal log", e);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
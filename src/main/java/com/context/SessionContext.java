@@ -8,15 +8,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
 
 public class SessionContext {
     static final String TEST_RUNNER = "testrunner";
-    private static final HashMap<String, TestExecutionContext> allTestsExecutionContext;
+    private static final Map<Long, TestExecutionContext> allTestsExecutionContext;
+    private static final ThreadLocal<TestExecutionContext> currentTestExecutionContext =
+            new ThreadLocal<>();
     private static final Logger LOGGER = Logger.getLogger(SessionContext.class.getName());
     private static final Properties reportPortalProperties;
     private static String reportPortalLaunchURL = "";
@@ -24,23 +27,57 @@ public class SessionContext {
     static {
         LOGGER.info("SessionContext default constructor");
         new SessionContext();
-        allTestsExecutionContext = new HashMap<>();
+        allTestsExecutionContext = new ConcurrentHashMap<>();
         reportPortalProperties = loadReportPortalProperties();
         LOGGER.info("Initialized SessionContext");
     }
 
-    static synchronized void addContext(long threadId, TestExecutionContext testExecutionContext) {
-        allTestsExecutionContext.put(String.valueOf(threadId), testExecutionContext);
+    /**
+     * Make the context current for the calling thread
+     */
+    static void addContext(TestExecutionContext testExecutionContext) {
+        long threadId = Thread.currentThread().getId();
+        currentTestExecutionContext.set(testExecutionContext);
+        allTestsExecutionContext.put(threadId, testExecutionContext);
         LOGGER.info(String.format("Adding context for thread - %s", threadId));
     }
 
-    public static synchronized TestExecutionContext getTestExecutionContext(long threadId) {
-        return allTestsExecutionContext.get(String.valueOf(threadId));
+    /**
+     * @return Context of the test running on the calling thread, null if there is none
+     */
+    public static TestExecutionContext getTestExecutionContext() {
+        TestExecutionContext context = currentTestExecutionContext.get();
+        return context == null || context.removed ? null : context;
     }
 
-    public static synchronized void remove(long threadId) {
+    /**
+     * Look up the context of another thread. The calling thread should use
+     * {@link #getTestExecutionContext()}, which needs no lookup.
+     */
+    public static TestExecutionContext getTestExecutionContext(long threadId) {
+        if (threadId == Thread.currentThread().getId()) {
+            return getTestExecutionContext();
+        }
+        return allTestsExecutionContext.get(threadId);
+    }
+
+    /**
+     * Remove the context of the calling thread
+     */
+    public static void remove() {
+        remove(Thread.currentThread().getId());
+    }
+
+    public static void remove(long threadId) {
         LOGGER.info(String.format("Removing context for thread - %s", threadId));
-        allTestsExecutionContext.remove(String.valueOf(threadId));
+        TestExecutionContext removed = allTestsExecutionContext.remove(threadId);
+        if (removed != null) {
+            // The owning thread may still hold it as its current context
+            removed.removed = true;
+        }
+        if (threadId == Thread.currentThread().getId()) {
+            currentTestExecutionContext.remove();
+        }
     }
 
     private static Properties loadReportPortalProperties() {
@@ -2,20 +2,20 @@ package com.context;
 
 import org.apache.log4j.Logger;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TestExecutionContext {
     private final String testName;
-    private final HashMap<String, Object> testExecutionState;
+    private final ConcurrentHashMap<String, Object> testExecutionState;
     private final String NOT_SET = "NOT-YET-SET";
+    volatile boolean removed;
     private static final Logger LOGGER = Logger.getLogger(
             TestExecutionContext.class.getSimpleName());
 
     public TestExecutionContext(String testName) {
-        SessionContext.addContext(Thread.currentThread().getId(), this);
         this.testName = testName;
-        this.testExecutionState = new HashMap<>();
+        this.testExecutionState = new ConcurrentHashMap<>();
+        SessionContext.addContext(this);
         LOGGER.info(String.format("%s - TestExecution context created", testName));
     }
 
@@ -23,19 +23,38 @@ public class TestExecutionContext {
         return testName;
     }
 
+    /**
+     * Store a value for the test, removing the key when the value is null
+     */
     public void addTestState(String key, Object details) {
-        testExecutionState.put(key, details);
+        if (details == null) {
+            testExecutionState.remove(key);
+        } else {
+            testExecutionState.put(key, details);
+        }
+    }
+
+    public <T> void addTestState(TestStateKey<T> key, T details) {
+        addTestState(key.getName(), details);
     }
 
     public Object getTestState(String key) {
         return testExecutionState.get(key);
     }
 
+    public <T> T getTestState(TestStateKey<T> key) {
+        return key.cast(testExecutionState.get(key.getName()));
+    }
+
     public String getTestStateAsString(String key) {
         return (String) testExecutionState.get(key);
     }
 
-    public HashMap<String, Object> getAllTestState() {
+    /**
+     * @return Live state of the test, writes go straight to it. It holds no null values,
+     *         storing null through {@link #addTestState(String, Object)} removes the key.
+     */
+    public ConcurrentHashMap<String, Object> getAllTestState() {
         return testExecutionState;
     }
 }
@@ -0,0 +1,40 @@
+package com.context;
+
+import com.appium.capabilities.DriverSession;
+import io.appium.java_client.AppiumDriver;
+
+/**
+ * Name and type of a value kept in a {@link TestExecutionContext}. The name is the plain
+ * string key, so values stored through a typed key can still be read by name.
+ */
+public final class TestStateKey<T> {
+    public static final TestStateKey<AppiumDriver> APPIUM_DRIVER =
+            new TestStateKey<>("appiumDriver", AppiumDriver.class);
+    public static final TestStateKey<String> DEVICE_ID =
+            new TestStateKey<>("deviceId", String.class);
+    public static final TestStateKey<DriverSession> DEVICE_INFO =
+            new TestStateKey<>("deviceInfo", DriverSession.class);
+    public static final TestStateKey<String> DEVICE_LOG =
+            new TestStateKey<>("deviceLog", String.class);
+
+    private final String name;
+    private final Class<T> type;
+
+    public TestStateKey(String name, Class<T> type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    T cast(Object value) {
+        return type.cast(value);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -8,9 +8,10 @@ import com.appium.manager.AppiumServerManager;
 import com.appium.plugin.PluginClI;
 import com.appium.utils.CommandPrompt;
 import com.appium.utils.OverriddenVariable;
+import com.appium.utils.ReportPortalEmitter;
 import com.context.SessionContext;
 import com.context.TestExecutionContext;
-import com.epam.reportportal.service.ReportPortal;
+import com.context.TestStateKey;
 import io.appium.java_client.AppiumDriver;
 import io.cucumber.plugin.ConcurrentEventListener;
 import io.cucumber.plugin.event.EventPublisher;
@@ -42,7 +43,7 @@ public class CucumberScenarioListener implements ConcurrentEventListener {
     public CucumberScenarioListener() throws Exception {
         LOGGER.info(String.format("ThreadID: %d: CucumberScenarioListener%n",
                 Thread.currentThread().getId()));
-        new ATDRunner();
+        new ATDRunner().awaitReady();
         appiumServerManager = new AppiumServerManager();
         appiumDriverManager = new AppiumDriverManager();
     }
@@ -107,11 +108,12 @@ public class CucumberScenarioListener implements ConcurrentEventListener {
                 scenarioReportDirectory);
 
         TestExecutionContext testExecutionContext = new TestExecutionContext(scenarioName);
-        testExecutionContext.addTestState("appiumDriver", createdAppiumDriver);
-        testExecutionContext.addTestState("deviceId",
+        testExecutionContext.addTestState(TestStateKey.APPIUM_DRIVER, createdAppiumDriver);
+        testExecutionContext.addTestState(TestStateKey.DEVICE_ID,
                 AppiumDeviceManager.getAppiumDevice().getUdid());
-        testExecutionContext.addTestState("deviceInfo", AppiumDeviceManager.getAppiumDevice());
-        testExecutionContext.addTestState("deviceLog", deviceLogFileName);
+        testExecutionContext.addTestState(TestStateKey.DEVICE_INFO,
+                AppiumDeviceManager.getAppiumDevice());
+        testExecutionContext.addTestState(TestStateKey.DEVICE_LOG, deviceLogFileName);
         testExecutionContext.addTestState("scenarioRunCount", scenarioRunCount);
         testExecutionContext.addTestState("normalisedScenarioName", normalisedScenarioName);
         testExecutionContext.addTestState("scenarioDirectory", scenarioReportDirectory);
@@ -192,21 +194,23 @@ public class CucumberScenarioListener implements ConcurrentEventListener {
                 String.format("ThreadID: %d: afterScenario: for scenario: %s%n",
                         threadId, event.getTestCase().toString()));
 
-        TestExecutionContext testExecutionContext =
-                SessionContext.getTestExecutionContext(threadId);
+        TestExecutionContext testExecutionContext = SessionContext.getTestExecutionContext();
 
-        AppiumDriver driver = (AppiumDriver) testExecutionContext.getTestState("appiumDriver");
+        AppiumDriver driver = testExecutionContext.getTestState(TestStateKey.APPIUM_DRIVER);
         attachCloudExecutionReportLinkToReportPortal(driver);
         stopAppiumDriver();
-        String deviceLogFileName = testExecutionContext.getTestStateAsString("deviceLog");
+        String deviceLogFileName = testExecutionContext.getTestState(TestStateKey.DEVICE_LOG);
         if (null != deviceLogFileName) {
             LOGGER.debug(String.format("Attaching device logs %s to ReportPortal: ",
                     deviceLogFileName));
             File file = new File(deviceLogFileName);
-            ReportPortal.emitLog("ADB Logs - " + file.getName(),
+            ReportPortalEmitter.getInstance().emitLog("ADB Logs - " + file.getName(),
                     "DEBUG", new Date(), file);
         }
-        SessionContext.remove(threadId);
+        // ReportPortal closes the scenario for logging once this handler returns
+        ReportPortalEmitter.getInstance()
+                .awaitCurrentThread(ReportPortalEmitter.DEFAULT_FLUSH_TIMEOUT);
+        SessionContext.remove();
         LOGGER.info("$$$$$   TEST-CASE  -- " + scenarioName + "  ENDED   $$$$$");
     }
 
@@ -223,19 +227,19 @@ public class CucumberScenarioListener implements ConcurrentEventListener {
             String link = (String) driver.executeScript("pCloudy_getReportLink");
             String message = "pCloudy Report link available here: " + link;
             LOGGER.info(message);
-            ReportPortal.emitLog(message, "DEBUG", new Date());
+            ReportPortalEmitter.getInstance().emitLog(message, "DEBUG", new Date());
         } else if ((PluginClI.getInstance().isCloudExecution()) && isRunningOnHeadspin()) {
             String sessionId = driver.getSessionId().toString();
             String link = "https://ui-dev.headspin.io/sessions/" + sessionId + "/waterfall";
             String message = "Headspin Report link available here: " + link;
             LOGGER.info(message);
-            ReportPortal.emitLog(message, "DEBUG", new Date());
+            ReportPortalEmitter.getInstance().emitLog(message, "DEBUG", new Date());
         } else if ((PluginClI.getInstance().isCloudExecution()) && isRunningOnBrowserStack()) {
             String sessionId = driver.getSessionId().toString();
             String link = getReportLinkFromBrowserStack(sessionId);
             String message = "BrowserStack Report link available here: " + link;
             LOGGER.info(message);
-            ReportPortal.emitLog(message, "DEBUG", new Date());
+            ReportPortalEmitter.getInstance().emitLog(message, "DEBUG", new Date());
         }
     }
 
@@ -274,6 +278,8 @@ public class CucumberScenarioListener implements ConcurrentEventListener {
         LOGGER.info(String.format("ThreadID: %d: afterSuite: %n",
                 Thread.currentThread().getId()));
         try {
+            ReportPortalEmitter.getInstance().flush(ReportPortalEmitter.DEFAULT_FLUSH_TIMEOUT);
+            appiumDriverManager.drainSessionPool();
             appiumServerManager.destroyAppiumNode();
             SessionContext.setReportPortalLaunchURL();
         } catch (Exception e) {
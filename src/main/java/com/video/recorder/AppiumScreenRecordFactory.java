@@ -3,9 +3,14 @@ package com.video.recorder;
 
 import java.io.IOException;
 
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
+
 public class AppiumScreenRecordFactory {
 
     public static IScreenRecord recordScreen() {
+        if ("rolling".equalsIgnoreCase(getOverriddenStringValue("VIDEO_RECORDING_MODE"))) {
+            return new RollingScreenRecorder();
+        }
         return new AppiumScreenRecorder();
     }
 }
@@ -4,17 +4,35 @@ import com.appium.entities.MobilePlatform;
 import com.appium.filelocations.FileLocations;
 import com.appium.manager.AppiumDeviceManager;
 import com.appium.manager.AppiumDriverManager;
+import com.appium.plugin.PluginClI;
+import com.appium.utils.ArtifactRegistry;
 import com.appium.utils.Helpers;
+import io.appium.java_client.AppiumDriver;
 import io.appium.java_client.android.AndroidDriver;
 import io.appium.java_client.android.AndroidStartScreenRecordingOptions;
+import io.appium.java_client.android.AndroidStopScreenRecordingOptions;
 import io.appium.java_client.ios.IOSDriver;
-import org.apache.commons.io.FileUtils;
+import io.appium.java_client.ios.IOSStartScreenRecordingOptions;
+import io.appium.java_client.ios.IOSStopScreenRecordingOptions;
+import io.appium.java_client.screenrecording.BaseStopScreenRecordingOptions;
+import io.appium.java_client.screenrecording.CanRecordScreen;
+import io.appium.java_client.screenrecording.ScreenRecordingUploadOptions;
+import org.apache.commons.io.input.CharSequenceInputStream;
 import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.Optional;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenBooleanValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
 
 public class AppiumScreenRecorder extends Helpers implements IScreenRecord {
     private static final Logger LOGGER = Logger.getLogger(AppiumScreenRecorder.class.getName());
@@ -22,54 +40,162 @@ public class AppiumScreenRecorder extends Helpers implements IScreenRecord {
     @Override
     public void stopVideoRecording(String className, String methodName,
                                    String videoFileName) {
+        String videoLocation = videoLocation();
+        if (videoLocation == null) {
+            LOGGER.error("Video recording not supported for platform: "
+                                 + AppiumDeviceManager.getMobilePlatform().platformName);
+            return;
+        }
+        stopAndSaveVideo(AppiumDriverManager.getDriver(),
+                AppiumDeviceManager.getMobilePlatform(), videoLocation);
+        registerVideo(new File(videoLocation));
+    }
+
+    void registerVideo(File video) {
+        if (video.exists()) {
+            ArtifactRegistry.getInstance().register(ArtifactRegistry.Type.VIDEO,
+                    AppiumDeviceManager.getAppiumDevice().getUdid(),
+                    getCurrentTestClassName(), getCurrentTestMethodName(), video);
+        }
+    }
+
+    /**
+     * @return Where the video of the current test goes, null if the platform can't record
+     */
+    String videoLocation() {
         String videoPath = System.getProperty("user.dir");
-        if (AppiumDeviceManager.getMobilePlatform()
-            .equals(MobilePlatform.IOS)) {
-            String videoLocationIOS =
-                videoPath + FileLocations.IOS_SCREENSHOTS_DIRECTORY
-                    + AppiumDeviceManager.getAppiumDevice().getUdid()
-                    + "/" + getCurrentTestClassName()
-                    + "/" + getCurrentTestMethodName()
-                    + "/" + getCurrentTestMethodName() + ".mp4";
-            String base64 = ((IOSDriver) AppiumDriverManager.getDriver()).stopRecordingScreen();
-            saveVideo(base64, videoLocationIOS);
+        String screenshotsDirectory;
+        if (AppiumDeviceManager.getMobilePlatform().equals(MobilePlatform.IOS)) {
+            screenshotsDirectory = FileLocations.IOS_SCREENSHOTS_DIRECTORY;
         } else if (AppiumDeviceManager.getMobilePlatform().equals(MobilePlatform.ANDROID)) {
-            String videoLocationAndroid =
-                videoPath + FileLocations.ANDROID_SCREENSHOTS_DIRECTORY
-                    + AppiumDeviceManager.getAppiumDevice().getUdid()
-                    + "/" + getCurrentTestClassName()
-                    + "/" + getCurrentTestMethodName()
-                    + "/" + getCurrentTestMethodName() + ".mp4";
-            String base64 = ((AndroidDriver) AppiumDriverManager.getDriver()).stopRecordingScreen();
-            saveVideo(base64, videoLocationAndroid);
+            screenshotsDirectory = FileLocations.ANDROID_SCREENSHOTS_DIRECTORY;
         } else {
-            LOGGER.error("Video recording not supported for platform: "
-                                 + AppiumDeviceManager.getMobilePlatform().platformName);
+            return null;
+        }
+        return videoPath + screenshotsDirectory
+                + AppiumDeviceManager.getAppiumDevice().getUdid()
+                + "/" + getCurrentTestClassName()
+                + "/" + getCurrentTestMethodName()
+                + "/" + getCurrentTestMethodName() + ".mp4";
+    }
+
+    void stopAndSaveVideo(AppiumDriver driver, MobilePlatform platform,
+                          String videoLocation) {
+        if (platform.equals(MobilePlatform.IOS)) {
+            stopAndSaveVideo((IOSDriver) driver, new IOSStopScreenRecordingOptions(),
+                    videoLocation);
+        } else if (platform.equals(MobilePlatform.ANDROID)) {
+            stopAndSaveVideo((AndroidDriver) driver, new AndroidStopScreenRecordingOptions(),
+                    videoLocation);
         }
     }
 
-    private void saveVideo(String base64, String videoLocation) {
-        byte[] decode = Base64.getDecoder().decode(base64);
+    /**
+     * Stop the recording and have the Appium server upload it to the {@link VideoReceiver},
+     * or fall back to the base64 response when uploads are off (VIDEO_UPLOAD=false), the
+     * execution runs in a cloud, or the receiver can't be started
+     */
+    private <T extends BaseStopScreenRecordingOptions<T>> void stopAndSaveVideo(
+            CanRecordScreen driver, T options, String videoLocation) {
+        File video = new File(videoLocation);
+        Optional<VideoReceiver.Upload> upload = expectUpload(video);
+        if (!upload.isPresent()) {
+            saveVideo(driver.stopRecordingScreen(), video);
+            return;
+        }
         try {
-            FileUtils.writeByteArrayToFile(new File(videoLocation),
-                decode);
+            String base64 = driver.stopRecordingScreen(options.withUploadOptions(
+                    ScreenRecordingUploadOptions.uploadOptions()
+                            .withRemotePath(upload.get().getUrl())
+                            .withHttpMethod(ScreenRecordingUploadOptions.RequestMethod.PUT)
+                            // Sent as the file part of a multipart/form-data body
+                            .withFileFieldName("file")));
+            if (base64 != null && !base64.isEmpty()) {
+                upload.get().cancel();
+                saveVideo(base64, video);
+                return;
+            }
+            upload.get().await(Duration.ofSeconds(
+                    getOverriddenIntValue("VIDEO_UPLOAD_TIMEOUT", 300)));
+        } catch (Exception e) {
+            upload.get().cancel();
+            LOGGER.error("Unable to receive video " + videoLocation, e);
+        }
+    }
+
+    private Optional<VideoReceiver.Upload> expectUpload(File video) {
+        if (!getOverriddenBooleanValue("VIDEO_UPLOAD", true)
+                || PluginClI.getInstance().isCloudExecution()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(VideoReceiver.getInstance(getOverriddenStringValue(
+                    "VIDEO_RECEIVER_HOST", getHostMachineIpAddress())).expect(video));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to start video receiver, falling back to base64 videos", e);
+            return Optional.empty();
+        }
+    }
+
+    private void saveVideo(String base64, File video) {
+        try {
+            decodeTo(base64, video);
         } catch (IOException e) {
             LOGGER.error("Unable to save video", e);
         }
     }
 
+    /**
+     * Decode base64 straight into the file, a buffer at a time, instead of holding the
+     * decoded video as well
+     */
+    static void decodeTo(CharSequence base64, File video) throws IOException {
+        video.getAbsoluteFile().getParentFile().mkdirs();
+        try (InputStream decoded = Base64.getMimeDecoder().wrap(
+                new CharSequenceInputStream(base64, StandardCharsets.US_ASCII))) {
+            Files.copy(decoded, video.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     @Override
     public void startVideoRecording() {
-        if (AppiumDeviceManager.getMobilePlatform()
-            .equals(MobilePlatform.IOS)) {
-            ((IOSDriver) AppiumDriverManager.getDriver()).startRecordingScreen();
-        } else if (AppiumDeviceManager.getMobilePlatform().equals(MobilePlatform.ANDROID)) {
-            ((AndroidDriver) AppiumDriverManager.getDriver())
-                .startRecordingScreen(new AndroidStartScreenRecordingOptions()
-                .withTimeLimit(Duration.ofSeconds(1800)));
+        MobilePlatform platform = AppiumDeviceManager.getMobilePlatform();
+        if (platform.equals(MobilePlatform.IOS)) {
+            startRecording(AppiumDriverManager.getDriver(), platform, null);
+        } else if (platform.equals(MobilePlatform.ANDROID)) {
+            startRecording(AppiumDriverManager.getDriver(), platform, Duration.ofSeconds(1800));
         } else {
             LOGGER.error("Video recording not supported for platform: "
-                             + AppiumDeviceManager.getMobilePlatform().platformName);
+                             + platform.platformName);
+        }
+    }
+
+    /**
+     * Start recording with a forced restart, dropping whatever the device was still recording
+     *
+     * @param timeLimit Longest recording, the platform default when null
+     */
+    void startRecording(AppiumDriver driver, MobilePlatform platform, Duration timeLimit) {
+        if (platform.equals(MobilePlatform.IOS)) {
+            IOSStartScreenRecordingOptions options = new IOSStartScreenRecordingOptions()
+                    .enableForcedRestart();
+            ((IOSDriver) driver).startRecordingScreen(timeLimit == null
+                    ? options : options.withTimeLimit(timeLimit));
+        } else if (platform.equals(MobilePlatform.ANDROID)) {
+            AndroidStartScreenRecordingOptions options = new AndroidStartScreenRecordingOptions()
+                    .enableForcedRestart();
+            ((AndroidDriver) driver).startRecordingScreen(timeLimit == null
+                    ? options : options.withTimeLimit(timeLimit));
         }
     }
+
+    /**
+     * Recordings are started with a forced restart, so the device drops this one when the
+     * next one starts or the session ends, without it ever being transferred
+     */
+    @Override
+    public void discardVideoRecording() {
+        LOGGER.debug("Discarding screen recording of "
+                + AppiumDeviceManager.getAppiumDevice().getUdid());
+    }
 }
@@ -9,4 +9,11 @@ public interface IScreenRecord {
 
     void startVideoRecording();
 
+    /**
+     * Drop the running recording without transferring it. Recorders that don't override
+     * this leave it running until the next one starts or the session ends.
+     */
+    default void discardVideoRecording() {
+    }
+
 }
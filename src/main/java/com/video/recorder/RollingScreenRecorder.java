@@ -0,0 +1,163 @@
+package com.video.recorder;
+
+import com.appium.entities.MobilePlatform;
+import com.appium.filelocations.FileLocations;
+import com.appium.manager.AppiumDeviceManager;
+import com.appium.manager.AppiumDriverManager;
+import io.appium.java_client.AppiumDriver;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+import static com.appium.utils.OverriddenVariable.getOverriddenStringValue;
+
+/**
+ * Records the screen in fixed-length segments (VIDEO_SEGMENT_SECONDS) and keeps the last
+ * VIDEO_SEGMENTS of them per device, so long tests don't run past the device time limit and
+ * neither the device nor the host piles up footage. On failure only the last
+ * VIDEO_FAILURE_SEGMENTS segments are joined into the test video.
+ * <p>
+ * Enabled with VIDEO_RECORDING_MODE=rolling. There is a short gap in the footage where one
+ * segment is stopped and the next one started. Appium can only hand a recording over when
+ * it is stopped, so every segment is transferred to the host as it is rotated, also for tests
+ * that pass; only the final segment of a discarded recording stays on the device. Without
+ * ffmpeg the kept segments are saved as numbered parts (method_part1.mp4, ...).
+ */
+public class RollingScreenRecorder extends AppiumScreenRecorder {
+    private static final Logger LOGGER = Logger.getLogger(RollingScreenRecorder.class.getName());
+    private static final int MAX_TIME_LIMIT_SECONDS = 1800;
+    private static final Map<String, Recording> RECORDINGS = new ConcurrentHashMap<>();
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ScheduledExecutorService ROTATOR = Executors.newScheduledThreadPool(
+            getOverriddenIntValue("VIDEO_SEGMENT_THREADS", 4), runnable -> {
+                Thread thread = new Thread(runnable,
+                        "video-segments-" + THREAD_COUNT.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    @Override
+    public void startVideoRecording() {
+        MobilePlatform platform = AppiumDeviceManager.getMobilePlatform();
+        if (!platform.equals(MobilePlatform.ANDROID) && !platform.equals(MobilePlatform.IOS)) {
+            super.startVideoRecording();
+            return;
+        }
+        String udid = AppiumDeviceManager.getAppiumDevice().getUdid();
+        Recording recording = new Recording(AppiumDriverManager.getDriver(), platform,
+                new SegmentRing(new File(System.getProperty("user.dir")
+                        + FileLocations.OUTPUT_DIRECTORY + "videoSegments"
+                        + File.separator + udid), getOverriddenIntValue("VIDEO_SEGMENTS", 5)),
+                Duration.ofSeconds(getOverriddenIntValue("VIDEO_SEGMENT_SECONDS", 60)));
+        Recording previous = RECORDINGS.put(udid, recording);
+        if (previous != null) {
+            previous.discard();
+        }
+        recording.start();
+    }
+
+    @Override
+    public void stopVideoRecording(String className, String methodName, String videoFileName) {
+        Recording recording = RECORDINGS.remove(AppiumDeviceManager.getAppiumDevice().getUdid());
+        String videoLocation = videoLocation();
+        if (recording == null || videoLocation == null) {
+            super.stopVideoRecording(className, methodName, videoFileName);
+            return;
+        }
+        recording.finish(new File(videoLocation),
+                getOverriddenIntValue("VIDEO_FAILURE_SEGMENTS", 3));
+    }
+
+    @Override
+    public void discardVideoRecording() {
+        Recording recording = RECORDINGS.remove(AppiumDeviceManager.getAppiumDevice().getUdid());
+        if (recording != null) {
+            recording.discard();
+        }
+    }
+
+    private final class Recording {
+        private final AppiumDriver driver;
+        private final MobilePlatform platform;
+        private final SegmentRing segments;
+        private final Duration segmentLength;
+        private ScheduledFuture<?> rotation;
+        private boolean closed;
+
+        private Recording(AppiumDriver driver, MobilePlatform platform, SegmentRing segments,
+                          Duration segmentLength) {
+            this.driver = driver;
+            this.platform = platform;
+            this.segments = segments;
+            this.segmentLength = segmentLength;
+        }
+
+        private synchronized void start() {
+            startSegment();
+            rotation = ROTATOR.scheduleWithFixedDelay(this::rotate, segmentLength.toMillis(),
+                    segmentLength.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void rotate() {
+            if (closed) {
+                return;
+            }
+            try {
+                stopSegment();
+                startSegment();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to rotate video segment: " + e.getMessage());
+            }
+        }
+
+        private void startSegment() {
+            // The device must not stop on its own before the segment is rotated
+            startRecording(driver, platform, Duration.ofSeconds(Math.min(
+                    MAX_TIME_LIMIT_SECONDS, segmentLength.getSeconds() + 30)));
+        }
+
+        private void stopSegment() {
+            File segment = segments.nextSegment();
+            stopAndSaveVideo(driver, platform, segment.getPath());
+            segments.add(segment);
+        }
+
+        private synchronized void finish(File video, int failureSegments) {
+            close();
+            try {
+                stopSegment();
+                List<File> videos = SegmentRing.stitch(segments.last(failureSegments), video,
+                        getOverriddenStringValue("FFMPEG_PATH", "ffmpeg"));
+                LOGGER.info("Saved last " + videos.size() + " video file(s) to " + video);
+                videos.forEach(RollingScreenRecorder.this::registerVideo);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Unable to save video " + video, e);
+            } finally {
+                segments.clear();
+            }
+        }
+
+        private synchronized void discard() {
+            close();
+            segments.clear();
+        }
+
+        private void close() {
+            closed = true;
+            if (rotation != null) {
+                rotation.cancel(false);
+            }
+        }
+    }
+}
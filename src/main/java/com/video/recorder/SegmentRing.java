@@ -0,0 +1,140 @@
+package com.video.recorder;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last few video segments recorded on a device. Adding a segment beyond the capacity
+ * deletes the oldest one, so the host keeps a fixed amount of footage per device.
+ */
+class SegmentRing {
+    private static final Logger LOGGER = Logger.getLogger(SegmentRing.class.getName());
+
+    private final File directory;
+    private final int capacity;
+    private final Deque<File> segments = new ArrayDeque<>();
+    private int nextIndex;
+
+    SegmentRing(File directory, int capacity) {
+        this.directory = directory;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @return File for the next segment to be written to
+     */
+    synchronized File nextSegment() {
+        return new File(directory, "segment-" + nextIndex++ + ".mp4");
+    }
+
+    synchronized void add(File segment) {
+        if (!segment.exists()) {
+            return;
+        }
+        segments.addLast(segment);
+        while (segments.size() > capacity) {
+            delete(segments.removeFirst());
+        }
+    }
+
+    /**
+     * @return Up to the given number of the most recent segments, oldest first
+     */
+    synchronized List<File> last(int count) {
+        List<File> all = new ArrayList<>(segments);
+        return new ArrayList<>(all.subList(Math.max(0, all.size() - count), all.size()));
+    }
+
+    synchronized void clear() {
+        segments.forEach(SegmentRing::delete);
+        segments.clear();
+    }
+
+    /**
+     * Join the segments into the target video with ffmpeg's concat demuxer, which copies the
+     * streams without re-encoding. Without ffmpeg the segments are kept next to the target as
+     * numbered parts instead.
+     *
+     * @return The files the footage ended up in
+     */
+    static List<File> stitch(List<File> segments, File target, String ffmpeg)
+            throws IOException {
+        target.getAbsoluteFile().getParentFile().mkdirs();
+        List<File> videos = new ArrayList<>();
+        if (segments.isEmpty()) {
+            return videos;
+        }
+        if (segments.size() == 1) {
+            Files.copy(segments.get(0).toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            videos.add(target);
+            return videos;
+        }
+        if (concat(segments, target, ffmpeg)) {
+            videos.add(target);
+            return videos;
+        }
+        Files.deleteIfExists(target.toPath());
+        String baseName = target.getName().replaceFirst("\\.mp4$", "");
+        for (int i = 0; i < segments.size(); i++) {
+            File part = new File(target.getAbsoluteFile().getParentFile(),
+                    baseName + "_part" + (i + 1) + ".mp4");
+            Files.copy(segments.get(i).toPath(), part.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            videos.add(part);
+        }
+        return videos;
+    }
+
+    private static boolean concat(List<File> segments, File target, String ffmpeg) {
+        File list = null;
+        try {
+            list = File.createTempFile("segments", ".txt");
+            List<String> lines = new ArrayList<>();
+            for (File segment : segments) {
+                lines.add("file '" + segment.getAbsolutePath().replace("'", "'\\''") + "'");
+            }
+            Files.write(list.toPath(), lines, StandardCharsets.UTF_8);
+            Process process = new ProcessBuilder(ffmpeg, "-y", "-loglevel", "error",
+                    "-f", "concat", "-safe", "0", "-i", list.getAbsolutePath(),
+                    "-c", "copy", target.getAbsolutePath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!process.waitFor(5, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            LOGGER.debug("ffmpeg is not available, keeping video segments apart: "
+                    + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (list != null) {
+                delete(list);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete " + file, e);
+        }
+    }
+}
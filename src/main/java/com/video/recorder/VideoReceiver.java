@@ -0,0 +1,281 @@
+package com.video.recorder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.appium.utils.OverriddenVariable.getOverriddenIntValue;
+
+/**
+ * HTTP endpoint the Appium server uploads finished screen recordings to. Each recording gets
+ * its own upload URL, and the request body is streamed straight into the video file, so a
+ * recording never has to fit in memory. Both raw bodies and the multipart/form-data uploads
+ * Appium sends by default are accepted.
+ */
+public class VideoReceiver {
+    private static final Logger LOGGER = Logger.getLogger(VideoReceiver.class.getName());
+    private static final String CONTEXT = "/videos/";
+
+    private static volatile VideoReceiver instance;
+
+    private final HttpServer server;
+    private final String host;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    VideoReceiver(String host, int port) throws IOException {
+        this.host = host;
+        AtomicInteger threadCount = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(CONTEXT, this::receive);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable,
+                    "video-receiver-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        LOGGER.info("Receiving screen recordings on port " + getPort());
+    }
+
+    /**
+     * Start the receiver on VIDEO_RECEIVER_PORT (any free port by default) the first time it is
+     * needed. Appium reaches it on the given host address.
+     */
+    public static VideoReceiver getInstance(String host) throws IOException {
+        if (instance == null) {
+            synchronized (VideoReceiver.class) {
+                if (instance == null) {
+                    instance = new VideoReceiver(host,
+                            getOverriddenIntValue("VIDEO_RECEIVER_PORT", 0));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Register a recording to be uploaded into the given file
+     */
+    public Upload expect(File target) {
+        String token = UUID.randomUUID().toString();
+        Upload upload = new Upload(token, target);
+        uploads.put(token, upload);
+        return upload;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void receive(HttpExchange exchange) throws IOException {
+        String token = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+        Upload upload = uploads.remove(token);
+        try (InputStream body = exchange.getRequestBody()) {
+            if (upload == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!"PUT".equals(exchange.getRequestMethod())) {
+                upload.received.completeExceptionally(new IOException(
+                        "Unexpected " + exchange.getRequestMethod() + " upload"));
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            try {
+                upload.received.complete(write(body,
+                        boundaryOf(exchange.getRequestHeaders().getFirst("Content-Type")),
+                        upload.target));
+                exchange.sendResponseHeaders(204, -1);
+            } catch (IOException | UncheckedIOException e) {
+                upload.received.completeExceptionally(e);
+                exchange.sendResponseHeaders(500, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @param boundary Multipart boundary of the body, null when the body is the video itself
+     */
+    static File write(InputStream body, String boundary, File target) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        Path temp = Files.createTempFile(directory.toPath(), target.getName(), ".part");
+        try {
+            if (boundary == null) {
+                Files.copy(body, temp, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                try (OutputStream output = new BufferedOutputStream(
+                        Files.newOutputStream(temp))) {
+                    copyFilePart(new BufferedInputStream(body), boundary, output);
+                }
+            }
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target;
+    }
+
+    static String boundaryOf(String contentType) throws IOException {
+        if (contentType == null
+                || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].equalsIgnoreCase("boundary")) {
+                return pair[1].replaceAll("^\"|\"$", "");
+            }
+        }
+        throw new IOException("Multipart upload without a boundary");
+    }
+
+    /**
+     * Copy the first part carrying a file out of a multipart/form-data body, which is how
+     * Appium uploads recordings unless told otherwise. The body is scanned as it arrives.
+     */
+    private static void copyFilePart(InputStream body, String boundary, OutputStream output)
+            throws IOException {
+        byte[] delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        // The first delimiter may start the body without a preceding line break
+        String line = readLine(body);
+        while (line != null && !line.startsWith("--" + boundary)) {
+            line = readLine(body);
+        }
+        while (line != null && !line.equals("--" + boundary + "--")) {
+            boolean file = false;
+            while ((line = readLine(body)) != null && !line.isEmpty()) {
+                String header = line.toLowerCase(Locale.ROOT);
+                file |= header.startsWith("content-disposition:")
+                        && header.contains("filename=");
+            }
+            if (line == null) {
+                break;
+            }
+            if (file) {
+                copyUntil(body, delimiter, output);
+                return;
+            }
+            copyUntil(body, delimiter, OutputStream.nullOutputStream());
+            line = "--" + boundary + readLine(body);
+        }
+        throw new IOException("Multipart upload without a file part");
+    }
+
+    /**
+     * Copy bytes up to the delimiter, consuming it
+     */
+    private static void copyUntil(InputStream input, byte[] delimiter, OutputStream output)
+            throws IOException {
+        int[] fallback = new int[delimiter.length];
+        for (int i = 1, k = 0; i < delimiter.length; i++) {
+            while (k > 0 && delimiter[i] != delimiter[k]) {
+                k = fallback[k - 1];
+            }
+            if (delimiter[i] == delimiter[k]) {
+                k++;
+            }
+            fallback[i] = k;
+        }
+        int matched = 0;
+        int next;
+        while ((next = input.read()) != -1) {
+            byte b = (byte) next;
+            while (matched > 0 && b != delimiter[matched]) {
+                // The bytes matched so far that can't start the delimiter are content
+                int keep = fallback[matched - 1];
+                output.write(delimiter, 0, matched - keep);
+                matched = keep;
+            }
+            if (b == delimiter[matched]) {
+                if (++matched == delimiter.length) {
+                    return;
+                }
+            } else {
+                output.write(b);
+            }
+        }
+        throw new IOException("Multipart upload ended before its closing boundary");
+    }
+
+    /**
+     * @return The line without its line break, null at the end of the stream
+     */
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int next;
+        while ((next = input.read()) != -1) {
+            if (next == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r'
+                        ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) next);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    public final class Upload {
+        private final String token;
+        private final File target;
+        private final CompletableFuture<File> received = new CompletableFuture<>();
+
+        private Upload(String token, File target) {
+            this.token = token;
+            this.target = target;
+        }
+
+        /**
+         * @return URL for the Appium server to PUT the recording to
+         */
+        public String getUrl() {
+            return "http://" + host + ":" + getPort() + CONTEXT + token;
+        }
+
+        /**
+         * Wait for the recording to be written
+         *
+         * @return The video file
+         */
+        public File await(Duration timeout) throws Exception {
+            try {
+                return received.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } finally {
+                cancel();
+            }
+        }
+
+        public void cancel() {
+            uploads.remove(token);
+        }
+    }
+}
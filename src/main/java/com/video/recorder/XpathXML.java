@@ -18,7 +18,13 @@ import javax.xml.xpath.XPathFactory;
 
 /**
  * Created by saikrisv on 2016/11/07.
+ *
+ * @deprecated Nothing in the runner reads parallel.xml back any more, and the file is written
+ *     in the background while the suite runs, so it may be missing or still incomplete when
+ *     {@link #parseXML(int)} reads it. Read the test parameters from the TestNG context
+ *     instead.
  */
+@Deprecated
 public class XpathXML {
 
     public static final String PARALLEL_FILE_LOCATION = FileLocations.PARALLEL_XML_LOCATION;
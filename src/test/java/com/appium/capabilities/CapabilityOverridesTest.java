@@ -0,0 +1,62 @@
+package com.appium.capabilities;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class CapabilityOverridesTest {
+
+    @Test
+    public void appliesTypedOverridesByPath() {
+        JSONObject capabilities = new JSONObject("{"
+                + "\"android\":{\"app\":\"app.apk\",\"appium:noReset\":false,"
+                + "\"appium:newCommandTimeout\":60,\"appium:skip_unlock\":\"no\","
+                + "\"chromeOptions\":{\"args\":[\"--incognito\",3]}},"
+                + "\"hostMachines\":[{\"machineIP\":\"127.0.0.1\"}],"
+                + "\"iOS\":{\"app\":\"app.ipa\"}}");
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put("atd_android_app", "other.apk");
+        overrides.put("atd_android_appium:noReset", "true");
+        overrides.put("atd_android_appium:newCommandTimeout", "not a number");
+        overrides.put("atd_android_appium:skip_unlock", "yes");
+        overrides.put("atd_android_chromeOptions_args_0", "--headless");
+        overrides.put("atd_hostMachines_0_machineIP", "10.0.0.2");
+        overrides.put("atd_unknown", "ignored");
+
+        JSONObject resolved = new CapabilityOverrides(overrides).apply(capabilities, "atd_");
+
+        JSONObject android = resolved.getJSONObject("android");
+        assertEquals(android.get("app"), "other.apk");
+        assertEquals(android.get("appium:noReset"), Boolean.TRUE);
+        assertEquals(android.get("appium:newCommandTimeout"), "not a number");
+        assertEquals(android.get("appium:skip_unlock"), "yes");
+        assertEquals(android.getJSONObject("chromeOptions").getJSONArray("args").toList(),
+                new JSONArray("[\"--headless\",3]").toList());
+        assertEquals(resolved.getJSONArray("hostMachines").getJSONObject(0)
+                .get("machineIP"), "10.0.0.2");
+        assertSame(resolved.get("iOS"), capabilities.get("iOS"));
+        assertEquals(resolved.length(), 3);
+    }
+
+    @Test
+    public void replacesObjectsWithJsonFragments() {
+        JSONObject capabilities = new JSONObject("{\"android\":{\"appium:port\":4723,"
+                + "\"chromeOptions\":{\"args\":[]}}}");
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put("atd_android_appium:port", " 4724 ");
+        overrides.put("atd_android_chromeOptions", "{\"args\":[\"--headless\"]}");
+
+        JSONObject android = new CapabilityOverrides(overrides).apply(capabilities, "atd_")
+                .getJSONObject("android");
+
+        assertEquals(android.get("appium:port"), 4724);
+        assertEquals(android.getJSONObject("chromeOptions").getJSONArray("args").get(0),
+                "--headless");
+    }
+}
@@ -0,0 +1,72 @@
+package com.appium.capabilities;
+
+import org.json.JSONObject;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+public class CapabilityTemplateCacheTest {
+
+    @Test
+    public void reloadsTemplateWhenFileChanges() throws Exception {
+        File capabilities = File.createTempFile("capabilities", ".json");
+        write(capabilities, "{\"android\":{\"appium:platformVersion\":\"13\"}}");
+        CapabilityTemplateCache cache = new CapabilityTemplateCache();
+        List<Boolean> loads = new ArrayList<>();
+
+        Map<String, Object> first = cache.get(capabilities, "android",
+                changed -> load(capabilities, loads, changed));
+        assertSame(cache.get(capabilities, "android",
+                changed -> load(capabilities, loads, changed)), first);
+        cache.get(capabilities, "iOS", changed -> load(capabilities, loads, changed));
+        assertEquals(loads, Arrays.asList(false, false));
+
+        write(capabilities, "{\"android\":{\"appium:platformVersion\":\"14\","
+                + "\"appium:chromeOptions\":{\"args\":[\"--headless\"]}}}");
+        Map<String, Object> reloaded = cache.get(capabilities, "android",
+                changed -> load(capabilities, loads, changed));
+        assertEquals(loads, Arrays.asList(false, false, true));
+        assertEquals(reloaded.get("appium:platformVersion"), "14");
+        assertEquals(((Map<?, ?>) reloaded.get("appium:chromeOptions")).get("args"),
+                Collections.singletonList("--headless"));
+
+        DesiredCapabilities session = new DesiredCapabilities(reloaded);
+        session.setCapability("appium:udid", "emulator-5554");
+        assertFalse(reloaded.containsKey("appium:udid"));
+        assertFalse(session.asMap().containsKey("app"));
+    }
+
+    private static Map<String, Object> load(File file, List<Boolean> loads, boolean changed) {
+        loads.add(changed);
+        try {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8));
+            Map<String, Object> template = new LinkedHashMap<>(
+                    CapabilityTemplateCache.toMap(json.getJSONObject("android")));
+            template.put("app", null);
+            return Collections.unmodifiableMap(template);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void write(File file, String content) throws Exception {
+        long previous = file.lastModified();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        // Coarse file systems may keep the old time; the size changes anyway here
+        file.setLastModified(Math.max(previous + 2000, System.currentTimeMillis()));
+    }
+}
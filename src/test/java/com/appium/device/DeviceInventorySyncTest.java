@@ -0,0 +1,64 @@
+package com.appium.device;
+
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DeviceInventorySyncTest {
+
+    @Test
+    public void appliesOnlyChangedInventory() throws Exception {
+        AtomicReference<String> inventory = new AtomicReference<>(
+                "[{\"udid\":\"a\"},{\"udid\":\"b\",\"offline\":true}]");
+        AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/device-farm/api/device", exchange -> {
+            String etag = "\"" + inventory.get().hashCode() + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = inventory.get().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            Device device = new Device();
+            device.udid = "a";
+            DevicePool pool = new DevicePool(Collections.singletonList(device));
+            AtomicInteger changes = new AtomicInteger();
+            DeviceInventorySync sync = new DeviceInventorySync("http://127.0.0.1:"
+                    + server.getAddress().getPort() + "/device-farm/api/device", pool,
+                    devices -> devices, changes::incrementAndGet);
+
+            assertTrue(sync.sync().join());
+            assertEquals(pool.size(), 2);
+            assertTrue(pool.isOffline("b"));
+            assertFalse(sync.sync().join());
+            assertEquals(notModified.get(), 1);
+
+            inventory.set("[{\"udid\":\"b\"}]");
+            assertTrue(sync.sync().join());
+            assertFalse(pool.contains("a"));
+            assertEquals(pool.tryAcquire().get().getUdid(), "b");
+            assertEquals(changes.get(), 2);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
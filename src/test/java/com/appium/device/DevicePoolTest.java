@@ -0,0 +1,155 @@
+package com.appium.device;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DevicePoolTest {
+
+    private static List<Device> devices(int count) {
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Device device = new Device();
+            device.udid = "udid-" + i;
+            device.name = "device-" + i;
+            devices.add(device);
+        }
+        return devices;
+    }
+
+    @Test
+    public void tryAcquireReturnsEmptyWhenExhausted() {
+        DevicePool pool = new DevicePool(devices(2));
+        Optional<DeviceLease> first = pool.tryAcquire();
+        Optional<DeviceLease> second = pool.tryAcquire();
+
+        assertTrue(first.isPresent());
+        assertTrue(second.isPresent());
+        assertFalse(pool.tryAcquire().isPresent());
+        assertTrue(first.get().getDevice().isBusy());
+
+        assertTrue(first.get().release());
+        assertFalse(first.get().release());
+        assertFalse(first.get().getDevice().isBusy());
+        assertTrue(pool.tryAcquire().isPresent());
+    }
+
+    @Test
+    public void releaseHooksRunOnceWhenTheDeviceIsHandedBack() {
+        DevicePool pool = new DevicePool(devices(1));
+        DeviceLease lease = pool.tryAcquire().get();
+        AtomicInteger released = new AtomicInteger();
+        lease.onRelease(released::incrementAndGet);
+
+        assertEquals(released.get(), 0);
+        assertTrue(pool.release("udid-0"));
+        assertFalse(lease.release());
+        assertEquals(released.get(), 1);
+
+        lease.onRelease(released::incrementAndGet);
+        assertEquals(released.get(), 2);
+    }
+
+    @Test
+    public void acquireWaitsForRelease() throws Exception {
+        DevicePool pool = new DevicePool(devices(1));
+        DeviceLease held = pool.tryAcquire().get();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                TimeUnit.MILLISECONDS.sleep(300);
+                return held.release();
+            });
+            Optional<DeviceLease> lease = pool.acquire(Duration.ofSeconds(10));
+            assertTrue(lease.isPresent());
+            assertEquals(lease.get().getUdid(), "udid-0");
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(pool.acquire(Duration.ofMillis(100)).isPresent());
+    }
+
+    @Test
+    public void concurrentLeasesNeverShareADevice() throws Exception {
+        int deviceCount = 8;
+        int threadCount = 32;
+        DevicePool pool = new DevicePool(devices(deviceCount));
+        Set<String> inUse = ConcurrentHashMap.newKeySet();
+        AtomicInteger collisions = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        DeviceLease lease = pool.acquire(Duration.ofSeconds(30)).get();
+                        if (!inUse.add(lease.getUdid())) {
+                            collisions.incrementAndGet();
+                        }
+                        inUse.remove(lease.getUdid());
+                        lease.release();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(collisions.get(), 0);
+        assertEquals(pool.getFreeDevices().size(), deviceCount);
+    }
+
+    @Test
+    public void updateAddsDrainsAndTakesDevicesOffline() throws Exception {
+        DevicePool pool = new DevicePool(devices(2));
+        DeviceLease held = pool.tryAcquire("udid-0").get();
+
+        List<Device> refreshed = devices(3).subList(1, 3);
+        refreshed.get(0).offline = true;
+        assertTrue(pool.update(refreshed));
+        assertFalse(pool.update(refreshed));
+
+        // udid-0 is gone but its lease stays valid until released
+        assertFalse(pool.contains("udid-0"));
+        assertFalse(held.isReleased());
+        // udid-1 went offline, so only the new udid-2 can be leased
+        assertEquals(pool.tryAcquire().get().getUdid(), "udid-2");
+        assertFalse(pool.tryAcquire().isPresent());
+        assertTrue(held.release());
+        assertFalse(pool.tryAcquire("udid-0").isPresent());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                TimeUnit.MILLISECONDS.sleep(300);
+                return pool.update(devices(3).subList(1, 3));
+            });
+            Optional<DeviceLease> lease = pool.acquire(Duration.ofSeconds(10));
+            assertTrue(lease.isPresent());
+            assertEquals(lease.get().getUdid(), "udid-1");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
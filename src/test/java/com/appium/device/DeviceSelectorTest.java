@@ -0,0 +1,87 @@
+package com.appium.device;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class DeviceSelectorTest {
+
+    private static Device device(String udid, String platform, String version,
+                                 boolean realDevice) {
+        Device device = new Device();
+        device.udid = udid;
+        device.platform = platform;
+        device.platformVersion = version;
+        device.realDevice = realDevice;
+        device.deviceType = realDevice ? "real" : "emulator";
+        return device;
+    }
+
+    private final List<Device> devices = Arrays.asList(
+            device("pixel-12", "android", "12", true),
+            device("pixel-13", "android", "13", true),
+            device("emulator-14", "android", "14", false),
+            device("pixel-14", "android", "14.1", true),
+            device("iphone-16", "ios", "16.4.1", true));
+
+    private List<String> select(DeviceQuery query) {
+        return new DevicePool(devices).select(query).stream()
+                .map(Device::getUdid)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void matchesPlatformVersionRangeAndRealDevice() {
+        assertEquals(select(DeviceQuery.any().platform("Android")
+                        .minPlatformVersion("13").realDevice(true)),
+                Arrays.asList("pixel-13", "pixel-14"));
+        assertEquals(select(DeviceQuery.any().platform("android").maxPlatformVersion("13")),
+                Arrays.asList("pixel-12", "pixel-13"));
+        assertEquals(select(DeviceQuery.any().deviceType("emulator")),
+                Arrays.asList("emulator-14"));
+        assertEquals(select(DeviceQuery.any().platform("ios").minPlatformVersion("16.4")),
+                Arrays.asList("iphone-16"));
+        assertTrue(select(DeviceQuery.any().minPlatformVersion("20")).isEmpty());
+        assertTrue(select(DeviceQuery.any().platform("windows")).isEmpty());
+    }
+
+    @Test
+    public void acquiresOnlyMatchingDevices() throws Exception {
+        DevicePool pool = new DevicePool(devices);
+        DeviceQuery query = DeviceQuery.any().platform("android").minPlatformVersion("14");
+
+        DeviceLease first = pool.tryAcquire(query).get();
+        DeviceLease second = pool.tryAcquire(query).get();
+        assertTrue(first.getUdid().endsWith("-14"));
+        assertTrue(second.getUdid().endsWith("-14"));
+        assertFalse(pool.tryAcquire(query).isPresent());
+        assertFalse(pool.acquire(DeviceQuery.any().platform("windows"),
+                Duration.ofMinutes(5)).isPresent());
+        assertEquals(pool.getFreeDevices().size(), 3);
+    }
+
+    @Test
+    public void parsesDottedVersions() {
+        assertTrue(DeviceSelector.parseVersion("16.4.1") > DeviceSelector.parseVersion("16.4"));
+        assertTrue(DeviceSelector.parseVersion("10") > DeviceSelector.parseVersion("9.3"));
+        assertEquals(DeviceSelector.parseVersion("beta"), -1);
+    }
+
+    @Test
+    public void rejectsQueryVersionsThatAreNotNumbers() {
+        expectThrows(IllegalArgumentException.class,
+                () -> DeviceQuery.any().minPlatformVersion("v13"));
+        expectThrows(IllegalArgumentException.class,
+                () -> DeviceQuery.any().maxPlatformVersion("latest"));
+        assertEquals(DeviceQuery.any().minPlatformVersion("13").maxPlatformVersion(null)
+                .getMinPlatformVersion(), "13");
+    }
+}
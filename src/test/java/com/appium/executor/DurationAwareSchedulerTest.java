@@ -0,0 +1,38 @@
+package com.appium.executor;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class DurationAwareSchedulerTest {
+
+    @Test
+    public void estimatesFallBackToClassAverage() throws Exception {
+        File file = new File(Files.createTempDirectory("durations").toFile(),
+                "test-durations.json");
+        TestDurationHistory history = new TestDurationHistory(file);
+        history.record("com.test.LoginTest", "login", 10_000);
+        history.record("com.test.LoginTest", "logout", 20_000);
+        history.record("com.test.LoginTest", "login", 20_000);
+        history.save();
+
+        TestDurationHistory loaded = TestDurationHistory.load(file);
+        assertEquals(loaded.estimate("com.test.LoginTest", "login").getAsDouble(), 13_000d);
+        assertEquals(loaded.estimate("com.test.LoginTest", "newTest").getAsDouble(), 16_500d);
+        assertFalse(loaded.estimate("com.test.OtherTest", "newTest").isPresent());
+    }
+
+    @Test
+    public void predictsMakespanOfGreedyAssignment() {
+        assertEquals(DurationAwareScheduler.predictMakespan(
+                Arrays.asList(8d, 7d, 6d, 5d, 4d), 2), 17d);
+        assertEquals(DurationAwareScheduler.predictMakespan(
+                Arrays.asList(4d, 5d, 6d, 7d, 8d), 2), 18d);
+        assertEquals(DurationAwareScheduler.predictMakespan(Arrays.asList(1d, 2d), 4), 2d);
+    }
+}
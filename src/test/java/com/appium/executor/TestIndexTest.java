@@ -0,0 +1,61 @@
+package com.appium.executor;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestIndexTest {
+
+    @Test
+    public void indexesTestMethodsAndReusesUnchangedEntries() throws Exception {
+        File classesRoot = new File(OtherTests.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        File indexFile = new File(Files.createTempDirectory("index").toFile(), "test-index.json");
+        ClassLoader classLoader = getClass().getClassLoader();
+
+        Set<Method> methods = TestIndex.load(indexFile).getTestMethods(classesRoot,
+                Collections.singletonList("com.appium.executor"), classLoader);
+        assertTrue(indexFile.exists());
+        assertTrue(methods.contains(OtherTests.class.getMethod("test1")));
+        assertTrue(methods.contains(OtherTests.class.getMethod("test2")));
+        assertTrue(methods.contains(getClass().getMethod(
+                "indexesTestMethodsAndReusesUnchangedEntries")));
+
+        long indexedAt = indexFile.lastModified();
+        Set<Method> reloaded = TestIndex.load(indexFile).getTestMethods(classesRoot,
+                Collections.singletonList("com.appium.executor"), classLoader);
+        assertEquals(reloaded, methods);
+        assertEquals(indexFile.lastModified(), indexedAt);
+    }
+
+    @Test
+    public void doesNotKeepClassesThatFailedToLoad() throws Exception {
+        File classesRoot = Files.createTempDirectory("classes").toFile();
+        File broken = new File(classesRoot, "com/broken/BrokenTest.class");
+        broken.getParentFile().mkdirs();
+        Files.write(broken.toPath(), "not a class file".getBytes(StandardCharsets.UTF_8));
+        File indexFile = new File(classesRoot, "test-index.json");
+
+        try (URLClassLoader classLoader = new URLClassLoader(
+                new URL[] {classesRoot.toURI().toURL()}, null)) {
+            Set<Method> methods = TestIndex.load(indexFile).getTestMethods(classesRoot,
+                    Collections.singletonList("com.broken"), classLoader);
+            assertTrue(methods.isEmpty());
+        }
+
+        String index = new String(Files.readAllBytes(indexFile.toPath()),
+                StandardCharsets.UTF_8);
+        assertFalse(index.contains("BrokenTest"), index);
+    }
+}
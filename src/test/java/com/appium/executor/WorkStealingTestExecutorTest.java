@@ -0,0 +1,116 @@
+package com.appium.executor;
+
+import org.testng.annotations.Test;
+import org.testng.internal.DynamicGraph;
+import org.testng.thread.IWorker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class WorkStealingTestExecutorTest {
+
+    @Test
+    public void idleWorkersStealFromSlowDevice() throws Exception {
+        DynamicGraph<String> graph = new DynamicGraph<>();
+        for (int i = 0; i < 12; i++) {
+            graph.addNode("test" + i);
+        }
+        graph.addNode("dependent");
+        graph.addEdge(0, "dependent", "test0");
+
+        Map<String, String> ranOn = new ConcurrentHashMap<>();
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Integer> bound = new ConcurrentHashMap<>();
+        List<String> lifecycle = Collections.synchronizedList(new ArrayList<>());
+        WorkStealingTestExecutor<String> executor = new WorkStealingTestExecutor<>("tests",
+                graph, nodes -> nodes.stream()
+                .map(node -> new SleepingWorker(node, ranOn, finished, bound))
+                .collect(Collectors.toList()), 3, null,
+                new WorkStealingTestExecutor.WorkerLifecycle() {
+                    @Override
+                    public void started(int worker) {
+                        bound.put(Thread.currentThread().getName(), worker);
+                        lifecycle.add("started-" + worker);
+                    }
+
+                    @Override
+                    public void stopped(int worker) {
+                        bound.remove(Thread.currentThread().getName());
+                        lifecycle.add("stopped-" + worker);
+                    }
+                });
+
+        executor.run();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(ranOn.size(), 13);
+        // Every method ran on a worker holding its device, each worker bound once
+        assertTrue(ranOn.values().stream().noneMatch(thread -> thread.startsWith("unbound")),
+                ranOn.toString());
+        assertEquals(lifecycle.stream().sorted().collect(Collectors.toList()),
+                Arrays.asList("started-0", "started-1", "started-2",
+                        "stopped-0", "stopped-1", "stopped-2"));
+        assertTrue(bound.isEmpty());
+        assertTrue(finished.indexOf("dependent") > finished.indexOf("test0"));
+        // Worker 0 is slow, so the others end up running most of its share
+        long onSlowDevice = ranOn.values().stream().filter(t -> t.endsWith("-0")).count();
+        assertTrue(onSlowDevice < 4, "slow device ran " + onSlowDevice + " tests");
+        assertTrue(executor.getSteals() > 0);
+    }
+
+    private static final class SleepingWorker implements IWorker<String> {
+        private final String node;
+        private final Map<String, String> ranOn;
+        private final List<String> finished;
+        private final Map<String, Integer> bound;
+
+        private SleepingWorker(String node, Map<String, String> ranOn, List<String> finished,
+                               Map<String, Integer> bound) {
+            this.node = node;
+            this.ranOn = ranOn;
+            this.finished = finished;
+            this.bound = bound;
+        }
+
+        @Override
+        public void run() {
+            String thread = Thread.currentThread().getName();
+            ranOn.put(node, bound.containsKey(thread) ? thread : "unbound " + thread);
+            try {
+                TimeUnit.MILLISECONDS.sleep(thread.endsWith("-0") ? 400 : 20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.add(node);
+        }
+
+        @Override
+        public List<String> getTasks() {
+            return Collections.singletonList(node);
+        }
+
+        @Override
+        public long getTimeOut() {
+            return 0;
+        }
+
+        @Override
+        public int getPriority() {
+            return 0;
+        }
+
+        @Override
+        public int compareTo(IWorker<String> other) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.appium.manager;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class ATDBootstrapTest {
+
+    @Test
+    public void runsIndependentStepsConcurrently() throws Exception {
+        ATDBootstrap bootstrap = new ATDBootstrap();
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        CompletableFuture<Boolean> server = bootstrap.run("server", () -> {
+            bothStarted.countDown();
+            return bothStarted.await(5, TimeUnit.SECONDS);
+        });
+        CompletableFuture<Boolean> tests = bootstrap.run("tests", () -> {
+            bothStarted.countDown();
+            return bothStarted.await(5, TimeUnit.SECONDS);
+        });
+
+        assertTrue(ATDBootstrap.await(server));
+        assertTrue(ATDBootstrap.await(tests));
+    }
+
+    @Test
+    public void rethrowsWhatMadeAStepFail() {
+        ATDBootstrap bootstrap = new ATDBootstrap();
+        CompletableFuture<Object> devices = bootstrap.run("server", () -> {
+            throw new IOException("port in use");
+        }).thenCompose(done -> bootstrap.run("devices", () -> "never"));
+
+        IOException e = expectThrows(IOException.class, () -> ATDBootstrap.await(devices));
+        assertEquals(e.getMessage(), "port in use");
+    }
+}
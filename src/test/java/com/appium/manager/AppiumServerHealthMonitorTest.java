@@ -0,0 +1,137 @@
+package com.appium.manager;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class AppiumServerHealthMonitorTest {
+    private final AtomicInteger ports = new AtomicInteger(4723);
+
+    @Test
+    public void restartsAnInstanceThatStopsAnswering() throws Exception {
+        AppiumServerPool pool = new AppiumServerPool(1, instance -> new FakeServer());
+        pool.start();
+        URL hung = pool.getUrl();
+        AppiumServerHealthMonitor monitor = new AppiumServerHealthMonitor(pool, url -> {
+            if (url.equals(hung)) {
+                throw new IOException("Read timed out");
+            }
+            return 5;
+        }, udid -> false, udids -> { }, 2, 5000, 0, Duration.ofMinutes(5));
+
+        monitor.check();
+        assertEquals(pool.getUrl(), hung);
+        monitor.check();
+
+        assertNotEquals(pool.getUrl(), hung);
+        assertFalse(pool.isDraining(0));
+        monitor.check();
+        assertEquals(monitor.getLatency(0), 5.0);
+    }
+
+    @Test
+    public void drainsABloatedInstanceBeforeRestartingIt() throws Exception {
+        FakeServer[] servers = new FakeServer[2];
+        AppiumServerPool pool = new AppiumServerPool(2, instance -> {
+            servers[instance] = new FakeServer();
+            return servers[instance];
+        });
+        pool.start();
+        String udid = "emulator-5554";
+        int preferred = AppiumServerPool.rank(udid, 2).get(0);
+        URL bloated = pool.getUrl(udid);
+        servers[preferred].residentMemory = 2048;
+        Set<String> busy = new HashSet<>();
+        busy.add(udid);
+        List<String> evicted = new ArrayList<>();
+        AppiumServerHealthMonitor monitor = new AppiumServerHealthMonitor(pool, url -> 5,
+                busy::contains, evicted::addAll, 3, 5000, 1024, Duration.ofMinutes(5));
+
+        monitor.check();
+        assertTrue(pool.isDraining(preferred));
+        assertEquals(evicted, Collections.singletonList(udid));
+        assertEquals(servers[preferred].getUrl(), bloated);
+        assertNotEquals(pool.getUrl(udid), bloated);
+
+        busy.clear();
+        monitor.check();
+        assertFalse(pool.isDraining(preferred));
+        assertNotEquals(servers[preferred].getUrl(), bloated);
+        assertEquals(pool.getUrl(udid), servers[preferred].getUrl());
+    }
+
+    @Test
+    public void averagesResponseTimes() throws Exception {
+        AppiumServerPool pool = new AppiumServerPool(1, instance -> new FakeServer());
+        pool.start();
+        AtomicInteger millis = new AtomicInteger(100);
+        AppiumServerHealthMonitor monitor = new AppiumServerHealthMonitor(pool,
+                url -> millis.get(), udid -> false, udids -> { }, 3, 5000, 0, Duration.ofMinutes(5));
+
+        monitor.check();
+        millis.set(200);
+        monitor.check();
+
+        assertEquals(monitor.getLatency(0), 130.0, 0.001);
+    }
+
+    @Test
+    public void readsResidentMemoryFromProcStatus() throws IOException {
+        File status = File.createTempFile("status", "");
+        status.deleteOnExit();
+        Files.write(status.toPath(), ("Name:\tnode\nVmPeak:\t 900000 kB\n"
+                + "VmRSS:\t  524288 kB\nThreads:\t11\n").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(AppiumServerHealthMonitor.residentMemory(status.toPath()),
+                512L * 1024 * 1024);
+        assertEquals(AppiumServerHealthMonitor.residentMemory(
+                new File(status.getPath() + ".missing").toPath()), -1);
+    }
+
+    private final class FakeServer implements AppiumServerPool.Server {
+        private final URL url;
+        private volatile boolean running = true;
+        private volatile long residentMemory = 100;
+
+        private FakeServer() throws MalformedURLException {
+            url = new URL("http://127.0.0.1:" + ports.getAndIncrement() + "/wd/hub");
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+
+        @Override
+        public long getResidentMemory() {
+            return residentMemory;
+        }
+    }
+}
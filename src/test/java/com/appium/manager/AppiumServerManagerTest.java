@@ -0,0 +1,38 @@
+package com.appium.manager;
+
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class AppiumServerManagerTest {
+
+    @Test
+    public void plainServerConfigDropsOnlyTheDeviceFarmPlugin() {
+        JSONObject serverConfig = new JSONObject("{\"server\": {\"port\": 31337,"
+                + "\"use-plugins\": [\"device-farm\", \"images\"],"
+                + "\"plugin\": {\"device-farm\": {\"platform\": \"android\"},"
+                + "\"images\": {\"threshold\": 0.5}}}}");
+
+        JSONObject server = AppiumServerManager.withoutDeviceFarm(serverConfig)
+                .getJSONObject("server");
+
+        assertEquals(server.getJSONArray("use-plugins").toList().toString(), "[images]");
+        assertFalse(server.getJSONObject("plugin").has("device-farm"));
+        assertEquals(server.getInt("port"), 31337);
+        assertEquals(serverConfig.getJSONObject("server").getJSONArray("use-plugins").length(),
+                2);
+    }
+
+    @Test
+    public void plainServerConfigWithoutOtherPluginsHasNoPluginSettings() {
+        JSONObject server = AppiumServerManager.withoutDeviceFarm(new JSONObject(
+                "{\"server\": {\"use-plugins\": [\"device-farm\"],"
+                        + "\"plugin\": {\"device-farm\": {\"platform\": \"android\"}}}}"))
+                .getJSONObject("server");
+
+        assertFalse(server.has("use-plugins"));
+        assertFalse(server.has("plugin"));
+    }
+}
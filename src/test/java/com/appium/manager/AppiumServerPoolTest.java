@@ -0,0 +1,161 @@
+package com.appium.manager;
+
+import com.appium.device.Device;
+import com.appium.entities.MobilePlatform;
+import io.appium.java_client.android.options.UiAutomator2Options;
+import io.appium.java_client.ios.options.XCUITestOptions;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class AppiumServerPoolTest {
+
+    @Test
+    public void addingAnInstanceOnlyMovesDevicesToIt() {
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            String udid = "emulator-" + (5554 + 2 * i);
+            int before = AppiumServerPool.rank(udid, 4).get(0);
+            int after = AppiumServerPool.rank(udid, 5).get(0);
+            assertTrue(after == before || after == 4, udid + " moved from " + before
+                    + " to " + after);
+            assertEquals(AppiumServerPool.rank(udid, 4).get(0).intValue(), before);
+            used.add(before);
+        }
+        assertEquals(used.size(), 4);
+    }
+
+    @Test
+    public void restartsTheInstanceOfADeviceWhenItDied() throws Exception {
+        AtomicInteger starts = new AtomicInteger();
+        FakeServer[] servers = new FakeServer[2];
+        AppiumServerPool pool = new AppiumServerPool(2, instance -> {
+            starts.incrementAndGet();
+            servers[instance] = new FakeServer(4723 + instance);
+            return servers[instance];
+        });
+        pool.start();
+        String udid = "emulator-5554";
+        int instance = AppiumServerPool.rank(udid, 2).get(0);
+        URL url = pool.getUrl(udid);
+
+        servers[instance].running = false;
+
+        assertEquals(pool.getUrl(udid), url);
+        assertTrue(servers[instance].running);
+        assertEquals(starts.get(), 3);
+    }
+
+    @Test
+    public void movesDevicesOffAnInstanceThatDoesNotStart() throws Exception {
+        String udid = "emulator-5554";
+        int preferred = AppiumServerPool.rank(udid, 2).get(0);
+        AppiumServerPool pool = new AppiumServerPool(2, instance -> {
+            if (instance == preferred) {
+                throw new IOException("port in use");
+            }
+            return new FakeServer(4723 + instance);
+        });
+        pool.start();
+
+        assertNotEquals(pool.getUrl(udid).getPort(), 4723 + preferred);
+    }
+
+    @Test
+    public void givesDevicesOnOnePlainInstanceTheirOwnPortsAndDerivedData() throws Exception {
+        AppiumServerPool pool = new AppiumServerPool(2,
+                instance -> new FakeServer(4723 + instance));
+        pool.start();
+        List<String> udids = IntStream.range(0, 100).mapToObj(i -> "udid-" + i)
+                .filter(udid -> AppiumServerPool.rank(udid, 2).get(0) == 1)
+                .limit(2).collect(Collectors.toList());
+        assertEquals(pool.getUrl(udids.get(0)), pool.getUrl(udids.get(1)));
+        assertEquals(pool.getInstance(udids.get(0)), 1);
+        assertEquals(pool.getInstance(udids.get(1)), 1);
+        assertEquals(pool.getInstance("never-routed"), -1);
+
+        DeviceSessionPorts ports = new DeviceSessionPorts("derivedData");
+        XCUITestOptions first = new XCUITestOptions();
+        XCUITestOptions second = new XCUITestOptions().setWdaLocalPort(8100);
+        ports.apply(first, MobilePlatform.IOS, device(udids.get(0)));
+        ports.apply(second, MobilePlatform.IOS, device(udids.get(1)));
+
+        assertNotEquals(first.getWdaLocalPort().get(), second.getWdaLocalPort().get());
+        assertEquals(second.getWdaLocalPort().get().intValue(), 8100);
+        assertNotEquals(first.getMjpegServerPort().get(), second.getMjpegServerPort().get());
+        assertNotEquals(first.getDerivedDataPath().get(), second.getDerivedDataPath().get());
+        // A device keeps its values for the next session
+        XCUITestOptions again = new XCUITestOptions();
+        ports.apply(again, MobilePlatform.IOS, device(udids.get(0)));
+        assertEquals(again.getWdaLocalPort(), first.getWdaLocalPort());
+
+        UiAutomator2Options android = new UiAutomator2Options();
+        ports.apply(android, MobilePlatform.ANDROID, device(udids.get(1)));
+        assertNotEquals(android.getSystemPort().get(), first.getWdaLocalPort().get());
+        assertNotEquals(android.getSystemPort().get(), android.getChromedriverPort().get());
+    }
+
+    @Test
+    public void failsWhenNoInstanceStarts() {
+        AppiumServerPool pool = new AppiumServerPool(2, instance -> {
+            throw new IOException("appium not installed");
+        });
+
+        IOException e = expectThrows(IOException.class, pool::start);
+        assertEquals(e.getMessage(), "appium not installed");
+    }
+
+    @Test
+    public void failsWhenNoStartedInstanceIsRunning() throws Exception {
+        AppiumServerPool pool = new AppiumServerPool(2, instance -> {
+            FakeServer server = new FakeServer(4723 + instance);
+            server.running = false;
+            return server;
+        });
+
+        expectThrows(IllegalStateException.class, pool::start);
+    }
+
+    private static Device device(String udid) {
+        Device device = new Device();
+        device.udid = udid;
+        return device;
+    }
+
+    private static final class FakeServer implements AppiumServerPool.Server {
+        private final URL url;
+        private volatile boolean running = true;
+
+        private FakeServer(int port) throws MalformedURLException {
+            url = new URL("http://127.0.0.1:" + port + "/wd/hub");
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        public void stop() {
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.appium.manager;
+
+import com.appium.device.Device;
+import com.appium.device.DeviceLease;
+import com.appium.device.DevicePool;
+import com.appium.device.DeviceQuery;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class AppiumSessionPoolTest {
+    private DevicePool devices;
+
+    private static Device device(String udid, String platform) {
+        Device device = new Device();
+        device.udid = udid;
+        device.platform = platform;
+        return device;
+    }
+
+    private static DesiredCapabilities capabilities(String app) {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("appium:app", app);
+        return capabilities;
+    }
+
+    private PooledSession session(String udid, DesiredCapabilities capabilities)
+            throws Exception {
+        DeviceLease lease = devices.tryAcquire(udid).get();
+        return new PooledSession(new StubDriver("session-" + udid, "com.example.app"), lease,
+                null, capabilities);
+    }
+
+    @BeforeMethod
+    public void createDevicePool() {
+        devices = new DevicePool(Arrays.asList(device("emulator-5554", "android"),
+                device("iphone-1", "ios")));
+    }
+
+    @AfterMethod
+    public void clearResetStrategy() {
+        System.clearProperty("SESSION_RESET_STRATEGY");
+    }
+
+    @Test
+    public void lendsSessionsOnlyForTheSameCapabilitiesAndAMatchingDevice() throws Exception {
+        AppiumSessionPool pool = new AppiumSessionPool(AppiumSessionPool.ResetStrategy.NONE,
+                () -> devices);
+        PooledSession session = session("emulator-5554", capabilities("app.apk"));
+        pool.offer(session);
+
+        assertFalse(pool.borrow(capabilities("other.apk"), DeviceQuery.any()).isPresent());
+        assertFalse(pool.borrow(capabilities("app.apk"), DeviceQuery.any().platform("ios"))
+                .isPresent());
+        Optional<PooledSession> borrowed = pool.borrow(capabilities("app.apk"),
+                DeviceQuery.any().platform("android"));
+
+        assertSame(borrowed.get(), session);
+        assertEquals(session.getReuseCount(), 1);
+        assertEquals(pool.size(), 0);
+        assertTrue(devices.isBusy("emulator-5554"));
+    }
+
+    @Test
+    public void evictsSessionsFailingTheHealthCheck() throws Exception {
+        AppiumSessionPool pool = new AppiumSessionPool(AppiumSessionPool.ResetStrategy.NONE,
+                () -> devices);
+        PooledSession broken = session("emulator-5554", capabilities("app.apk"));
+        ((StubDriver) broken.getDriver()).healthy = false;
+        pool.offer(broken);
+
+        assertEquals(pool.size(), 0);
+        assertNull(broken.getDriver().getSessionId());
+        assertFalse(devices.isBusy("emulator-5554"));
+
+        PooledSession diesWhileIdle = session("emulator-5554", capabilities("app.apk"));
+        pool.offer(diesWhileIdle);
+        ((StubDriver) diesWhileIdle.getDriver()).healthy = false;
+
+        assertFalse(pool.borrow(capabilities("app.apk"), DeviceQuery.any()).isPresent());
+        assertFalse(devices.isBusy("emulator-5554"));
+    }
+
+    @Test
+    public void resetsTheAppAsTheStrategySays() throws Exception {
+        System.setProperty("SESSION_RESET_STRATEGY", " clear_data ");
+        assertEquals(AppiumSessionPool.ResetStrategy.fromEnvironment(),
+                AppiumSessionPool.ResetStrategy.CLEAR_DATA);
+        System.setProperty("SESSION_RESET_STRATEGY", "REINSTALL");
+        assertEquals(AppiumSessionPool.ResetStrategy.fromEnvironment(),
+                AppiumSessionPool.ResetStrategy.RESTART_APP);
+
+        PooledSession restarted = session("emulator-5554", capabilities("app.apk"));
+        new AppiumSessionPool(AppiumSessionPool.ResetStrategy.RESTART_APP, () -> devices)
+                .offer(restarted);
+        assertEquals(scripts(restarted), Arrays.asList("mobile: terminateApp",
+                "mobile: activateApp"));
+
+        PooledSession untouched = session("iphone-1", capabilities("app.apk"));
+        new AppiumSessionPool(AppiumSessionPool.ResetStrategy.NONE, () -> devices)
+                .offer(untouched);
+        assertTrue(scripts(untouched).isEmpty());
+    }
+
+    @Test
+    public void evictsAnIdleSessionToFreeAMatchingDevice() throws Exception {
+        AppiumSessionPool pool = new AppiumSessionPool(AppiumSessionPool.ResetStrategy.NONE,
+                () -> devices);
+        PooledSession android = session("emulator-5554", capabilities("app.apk"));
+        PooledSession ios = session("iphone-1", capabilities("app.ipa"));
+        pool.offer(android);
+        pool.offer(ios);
+
+        assertTrue(pool.evictIdle(DeviceQuery.any().platform("ios")));
+
+        assertFalse(devices.isBusy("iphone-1"));
+        assertTrue(devices.isBusy("emulator-5554"));
+        assertFalse(pool.evictIdle(DeviceQuery.any().platform("ios")));
+        assertEquals(pool.size(), 1);
+    }
+
+    @Test
+    public void drainingQuitsEverySessionAndReleasesItsDevice() throws Exception {
+        AppiumSessionPool pool = new AppiumSessionPool(AppiumSessionPool.ResetStrategy.NONE,
+                () -> devices);
+        List<PooledSession> sessions = new ArrayList<>();
+        sessions.add(session("emulator-5554", capabilities("app.apk")));
+        sessions.add(session("iphone-1", capabilities("app.ipa")));
+        sessions.forEach(pool::offer);
+
+        pool.drain();
+
+        assertEquals(pool.size(), 0);
+        assertEquals(devices.getFreeDevices().size(), 2);
+        for (PooledSession session : sessions) {
+            assertTrue(((StubDriver) session.getDriver()).commands
+                    .contains(DriverCommand.QUIT));
+            assertTrue(session.getLease().isReleased());
+        }
+    }
+
+    private static List<String> scripts(PooledSession session) {
+        List<String> scripts = new ArrayList<>();
+        for (String command : ((StubDriver) session.getDriver()).commands) {
+            if (command.startsWith("mobile:")) {
+                scripts.add(command);
+            }
+        }
+        return scripts;
+    }
+}
@@ -0,0 +1,69 @@
+package com.appium.manager;
+
+import org.apache.commons.io.IOUtils;
+import org.openqa.selenium.logging.LogEntry;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class DeviceLogRecorderTest {
+
+    @Test
+    public void streamsEntriesWhileRunning() throws Exception {
+        AtomicInteger polls = new AtomicInteger();
+        File file = new File(Files.createTempDirectory("logcat").toFile(), "logcat.txt.gz");
+        DeviceLogRecorder recorder = new DeviceLogRecorder(() -> {
+            int poll = polls.getAndIncrement();
+            List<LogEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                entries.add(new LogEntry(Level.INFO, poll, "poll " + poll + " line " + i));
+            }
+            return entries;
+        }, file, true);
+
+        recorder.start(Duration.ofMillis(20));
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertTrue(polls.get() > 2, "polled " + polls.get() + " times");
+        File written = recorder.stop();
+        int totalPolls = polls.get();
+        assertEquals(recorder.stop(), written);
+        assertEquals(polls.get(), totalPolls);
+
+        try (InputStream input = new GZIPInputStream(new FileInputStream(written))) {
+            List<String> lines = IOUtils.readLines(input, StandardCharsets.UTF_8);
+            assertEquals(lines.size(), totalPolls * 100);
+            assertTrue(lines.get(0).contains("poll 0 line 0"));
+            assertTrue(lines.get(lines.size() - 1).contains("line 99"));
+        }
+    }
+
+    @Test
+    public void keepsRecordingWhenAPollFails() throws Exception {
+        AtomicInteger polls = new AtomicInteger();
+        File file = File.createTempFile("logcat", ".txt");
+        DeviceLogRecorder recorder = new DeviceLogRecorder(() -> {
+            if (polls.getAndIncrement() == 0) {
+                throw new IllegalStateException("session busy");
+            }
+            return Collections.singletonList(new LogEntry(Level.INFO, 0, "recovered"));
+        }, file, false);
+        recorder.start(Duration.ofHours(1));
+        recorder.stop();
+        assertEquals(Files.readAllLines(file.toPath()).size(), 1);
+    }
+}
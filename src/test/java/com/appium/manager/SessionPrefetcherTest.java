@@ -0,0 +1,160 @@
+package com.appium.manager;
+
+import com.appium.device.Device;
+import com.appium.device.DeviceLease;
+import com.appium.device.DevicePool;
+import com.appium.device.DeviceQuery;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SessionPrefetcherTest {
+    private DevicePool devices;
+    private final AtomicInteger created = new AtomicInteger();
+
+    @BeforeMethod
+    public void createDevicePool() {
+        devices = new DevicePool(Arrays.asList(device("emulator-5554", "android"),
+                device("emulator-5556", "android"), device("iphone-1", "ios")));
+        created.set(0);
+    }
+
+    private static Device device(String udid, String platform) {
+        Device device = new Device();
+        device.udid = udid;
+        device.platform = platform;
+        return device;
+    }
+
+    private static DesiredCapabilities capabilities(String app) {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("appium:app", app);
+        return capabilities;
+    }
+
+    private Function<DeviceLease, PooledSession> createSession(DesiredCapabilities capabilities) {
+        return lease -> {
+            created.incrementAndGet();
+            try {
+                return new PooledSession(new StubDriver("session-" + lease.getUdid(), "app"),
+                        lease, null, capabilities);
+            } catch (Exception e) {
+                lease.release();
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static void release(PooledSession session) {
+        session.getLease().release();
+    }
+
+    @Test
+    public void prefetchesUpToCapacityAndFreesTheSlotOfATakenSession() {
+        SessionPrefetcher prefetcher = new SessionPrefetcher(2, () -> devices);
+        DesiredCapabilities capabilities = capabilities("app.apk");
+        DeviceQuery android = DeviceQuery.any().platform("android");
+
+        prefetcher.prefetch(capabilities, android, createSession(capabilities));
+        prefetcher.prefetch(capabilities, android, createSession(capabilities));
+        assertEquals(devices.getFreeDevices().size(), 1);
+
+        Optional<PooledSession> taken = prefetcher.take(capabilities, android);
+        assertTrue(taken.isPresent());
+        release(taken.get());
+        prefetcher.prefetch(capabilities, DeviceQuery.any(), createSession(capabilities));
+
+        assertEquals(devices.getFreeDevices().size(), 1);
+        prefetcher.drain(SessionPrefetcherTest::release);
+        assertEquals(created.get(), 3);
+        assertEquals(devices.getFreeDevices().size(), 3);
+    }
+
+    @Test
+    public void failedPrefetchGivesUpItsSlot() throws Exception {
+        SessionPrefetcher prefetcher = new SessionPrefetcher(1, () -> devices);
+        DesiredCapabilities capabilities = capabilities("app.apk");
+        AtomicInteger attempts = new AtomicInteger();
+        Function<DeviceLease, PooledSession> failing = lease -> {
+            attempts.incrementAndGet();
+            lease.release();
+            throw new IllegalStateException("session not created");
+        };
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (attempts.get() < 2 && System.nanoTime() < deadline) {
+            prefetcher.prefetch(capabilities, DeviceQuery.any(), failing);
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+
+        assertTrue(attempts.get() >= 2, "the failed prefetch kept its slot");
+        assertFalse(prefetcher.take(capabilities, DeviceQuery.any()).isPresent());
+        assertEquals(devices.getFreeDevices().size(), 3);
+    }
+
+    @Test
+    public void takesOnlySessionsWithTheSameCapabilities() {
+        SessionPrefetcher prefetcher = new SessionPrefetcher(1, () -> devices);
+        DesiredCapabilities capabilities = capabilities("app.apk");
+        prefetcher.prefetch(capabilities, DeviceQuery.any(), createSession(capabilities));
+
+        assertFalse(prefetcher.take(capabilities("other.apk"), DeviceQuery.any()).isPresent());
+        // The session is still waiting for a caller, so no second one is started
+        prefetcher.prefetch(capabilities, DeviceQuery.any(), createSession(capabilities));
+        assertEquals(devices.getFreeDevices().size(), 2);
+
+        Optional<PooledSession> taken = prefetcher.take(capabilities, DeviceQuery.any());
+        assertTrue(taken.isPresent());
+        release(taken.get());
+        assertEquals(created.get(), 1);
+    }
+
+    @Test
+    public void discardsOneSessionOnAMatchingDevice() {
+        SessionPrefetcher prefetcher = new SessionPrefetcher(3, () -> devices);
+        DesiredCapabilities capabilities = capabilities("app.apk");
+        prefetcher.prefetch(capabilities, DeviceQuery.any(), createSession(capabilities));
+        assertEquals(devices.getFreeDevices().size(), 0);
+        List<PooledSession> discarded = new ArrayList<>();
+
+        assertTrue(prefetcher.discardOne(DeviceQuery.any().platform("ios"), session -> {
+            discarded.add(session);
+            release(session);
+        }));
+
+        assertEquals(discarded.size(), 1);
+        assertEquals(discarded.get(0).getUdid(), "iphone-1");
+        assertFalse(devices.isBusy("iphone-1"));
+        assertFalse(prefetcher.discardOne(DeviceQuery.any().platform("ios"),
+                SessionPrefetcherTest::release));
+    }
+
+    @Test
+    public void drainReleasesEveryPrefetchedDevice() {
+        SessionPrefetcher prefetcher = new SessionPrefetcher(3, () -> devices);
+        DesiredCapabilities capabilities = capabilities("app.apk");
+        prefetcher.prefetch(capabilities, DeviceQuery.any(), createSession(capabilities));
+        List<PooledSession> discarded = new ArrayList<>();
+
+        prefetcher.drain(session -> {
+            discarded.add(session);
+            release(session);
+        });
+
+        assertEquals(discarded.size(), 3);
+        assertEquals(devices.getFreeDevices().size(), 3);
+        assertFalse(prefetcher.take(capabilities, DeviceQuery.any()).isPresent());
+    }
+}
@@ -0,0 +1,63 @@
+package com.appium.manager;
+
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.InteractsWithApps;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.CommandPayload;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.Response;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Driver attached to a made-up session that answers every command itself instead of talking
+ * to a server, recording the commands it was sent
+ */
+class StubDriver extends AppiumDriver implements InteractsWithApps {
+    final List<String> commands = new CopyOnWriteArrayList<>();
+    private final Capabilities capabilities;
+    volatile boolean healthy = true;
+
+    StubDriver(String sessionId, String bundleId) throws Exception {
+        super(new URL("http://127.0.0.1:4723/session/" + sessionId), "android",
+                "UiAutomator2");
+        setSessionId(sessionId);
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("appium:bundleId", bundleId);
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return capabilities;
+    }
+
+    @Override
+    protected Response execute(CommandPayload payload) {
+        return execute(payload.getName(), payload.getParameters());
+    }
+
+    @Override
+    public Response execute(String command, Map<String, ?> parameters) {
+        String name = command;
+        if (DriverCommand.EXECUTE_SCRIPT.equals(command)) {
+            name = String.valueOf(parameters.get("script"));
+        }
+        commands.add(name);
+        if (DriverCommand.GET_CURRENT_WINDOW_HANDLE.equals(command) && !healthy) {
+            throw new WebDriverException("session is gone");
+        }
+        Response response = new Response(getSessionId());
+        if (DriverCommand.GET_CURRENT_WINDOW_HANDLE.equals(command)) {
+            response.setValue("NATIVE_APP");
+        } else if (DriverCommand.EXECUTE_SCRIPT.equals(command)) {
+            response.setValue(true);
+        }
+        return response;
+    }
+}
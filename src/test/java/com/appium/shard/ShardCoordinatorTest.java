@@ -0,0 +1,104 @@
+package com.appium.shard;
+
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ShardCoordinatorTest {
+
+    @Test
+    public void requeuesBatchOfDisconnectedWorker() throws Exception {
+        List<ShardBatch> batches = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            batches.add(new ShardBatch(i, Collections.singletonMap("com.example.Test" + i,
+                    Arrays.asList("first", "second"))));
+        }
+        Map<Integer, String> ranBy = new ConcurrentHashMap<>();
+        try (ShardCoordinator coordinator = new ShardCoordinator(batches, 0)) {
+            coordinator.start();
+
+            // A worker that dies right after being leased a batch
+            int abandoned;
+            try (Socket socket = new Socket(coordinator.getHost(), coordinator.getPort());
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(
+                         socket.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
+                writer.println(new JSONObject().put("type", "hello").put("worker", "crash"));
+                abandoned = new JSONObject(reader.readLine()).getInt("id");
+            }
+
+            List<CompletableFuture<List<ShardResult>>> workers = new ArrayList<>();
+            for (String workerId : Arrays.asList("worker-0", "worker-1")) {
+                ShardWorker worker = new ShardWorker(coordinator.getHost(),
+                        coordinator.getPort(), workerId, batch -> {
+                            ranBy.put(batch.getId(), workerId);
+                            TimeUnit.MILLISECONDS.sleep(20);
+                            return new ShardResult(batch.getId(), batch.getMethodCount(),
+                                    batch.getId() == 3 ? 1 : 0, 0, null);
+                        });
+                workers.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return worker.run();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }));
+            }
+
+            assertTrue(coordinator.awaitCompletion(Duration.ofSeconds(30)));
+            int ranByWorkers = 0;
+            for (CompletableFuture<List<ShardResult>> worker : workers) {
+                ranByWorkers += worker.get(30, TimeUnit.SECONDS).size();
+            }
+            List<ShardResult> results = coordinator.getResults();
+            assertEquals(results.size(), 6);
+            assertEquals(ranByWorkers, 6);
+            assertTrue(ranBy.containsKey(abandoned));
+            assertTrue(results.get(3).hasFailure());
+        }
+    }
+
+    @Test
+    public void mergesShardResults() throws Exception {
+        File directory = Files.createTempDirectory("shards").toFile();
+        File first = write(new File(directory, "first.xml"),
+                "<testng-results total=\"2\" passed=\"2\" failed=\"0\" skipped=\"0\">"
+                        + "<suite name=\"first\"/></testng-results>");
+        File second = write(new File(directory, "second.xml"),
+                "<testng-results total=\"3\" passed=\"1\" failed=\"1\" skipped=\"1\">"
+                        + "<suite name=\"second\"/></testng-results>");
+        File merged = new File(directory, "testng-results.xml");
+
+        new TestNGResultsMerger().merge(Arrays.asList(first, second), merged);
+
+        String xml = new String(Files.readAllBytes(merged.toPath()), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("total=\"5\""), xml);
+        assertTrue(xml.contains("passed=\"3\""), xml);
+        assertTrue(xml.contains("failed=\"1\""), xml);
+        assertTrue(xml.contains("name=\"first\"") && xml.contains("name=\"second\""), xml);
+    }
+
+    private File write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,77 @@
+package com.appium.utils;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class ApiTest {
+    private HttpServer server;
+    private String baseUrl;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api-test/device", exchange -> {
+            byte[] response = ("GET".equals(exchange.getRequestMethod()) ? "[]"
+                    : exchange.getRequestMethod() + " " + IOUtils.toString(
+                    exchange.getRequestBody(), StandardCharsets.UTF_8))
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.createContext("/api-test/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api-test/";
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void sharesClientAndRecordsLatencyPerEndpoint() {
+        Api api = new Api();
+        assertEquals(api.getResponse(baseUrl + "device"), "[]");
+        assertEquals(api.getAsync(baseUrl + "device").join(), "[]");
+        assertEquals(api.putAsync(baseUrl + "device", "{\"busy\": true}").join(),
+                "PUT {\"busy\": true}");
+        assertEquals(api.postAsync(baseUrl + "device", "{}").join(), "POST {}");
+        assertSame(Api.client(), Api.client());
+
+        ApiMetrics.Stats get = Api.getMetrics().get("GET /api-test/device");
+        assertTrue(get.getCalls() >= 2);
+        assertEquals(get.getErrors(), 0);
+        assertTrue(Api.getMetrics().get("PUT /api-test/device").getCalls() >= 1);
+    }
+
+    @Test
+    public void failsFutureOnErrorStatus() {
+        CompletionException error = expectThrows(CompletionException.class,
+                () -> new Api().getAsync(baseUrl + "missing").join());
+        assertTrue(error.getCause().getMessage().contains("404"));
+        assertTrue(Api.getMetrics().get("GET /api-test/missing").getErrors() >= 1);
+    }
+
+    @Test
+    public void runsAsyncCallsOnDaemonThreads() throws Exception {
+        assertTrue(Api.client().dispatcher().executorService()
+                .submit(() -> Thread.currentThread().isDaemon()).get());
+    }
+}
@@ -0,0 +1,56 @@
+package com.appium.utils;
+
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ArtifactRegistryTest {
+
+    @Test
+    public void findsArtifactsByDeviceAndMethod() throws Exception {
+        File manifest = new File(Files.createTempDirectory("artifacts").toFile(),
+                "artifacts.jsonl");
+        Files.write(manifest.toPath(),
+                "{\"run\":\"previous\",\"type\":\"VIDEO\",\"path\":\"old.mp4\"}\n".getBytes());
+        ArtifactRegistry registry = new ArtifactRegistry(manifest, "run-1");
+        registry.register(ArtifactRegistry.Type.SCREENSHOT, "emulator-5554", "LoginTest",
+                "login", "home", "screenshot/android/emulator-5554/LoginTest/login/a.jpeg");
+        registry.register(ArtifactRegistry.Type.VIDEO, "emulator-5554", "LoginTest",
+                "login", "login.mp4", "screenshot/android/emulator-5554/LoginTest/login.mp4");
+        registry.register(ArtifactRegistry.Type.SCREENSHOT, "emulator-5556", "LoginTest",
+                "login", "home", "screenshot/android/emulator-5556/LoginTest/login/a.jpeg");
+
+        List<ArtifactRegistry.Artifact> artifacts = registry.find("emulator-5554", "LoginTest", "login");
+        assertEquals(artifacts.size(), 2);
+        assertEquals(artifacts.get(0).getName(), "home");
+        assertEquals(artifacts.get(1).getType(), ArtifactRegistry.Type.VIDEO);
+        assertTrue(registry.find("emulator-5554", "LoginTest", "logout").isEmpty());
+
+        List<JSONObject> persisted = ArtifactRegistry.read(manifest, "run-1");
+        assertEquals(persisted.size(), 3);
+        assertEquals(persisted.get(2).getString("udid"), "emulator-5556");
+        assertEquals(persisted.get(0).getString("class"), "LoginTest");
+    }
+
+    @Test
+    public void keepsSameNamedMethodsOfDifferentClassesApart() throws Exception {
+        ArtifactRegistry registry = new ArtifactRegistry(new File(
+                Files.createTempDirectory("artifacts").toFile(), "artifacts.jsonl"), "run-1");
+        registry.register(ArtifactRegistry.Type.SCREENSHOT, "emulator-5554", "LoginTest",
+                "testLogin", "home", "screenshot/android/emulator-5554/LoginTest/a.jpeg");
+        registry.register(ArtifactRegistry.Type.SCREENSHOT, "emulator-5554", "SsoTest",
+                "testLogin", "home", "screenshot/android/emulator-5554/SsoTest/a.jpeg");
+
+        List<ArtifactRegistry.Artifact> artifacts =
+                registry.find("emulator-5554", "SsoTest", "testLogin");
+        assertEquals(artifacts.size(), 1);
+        assertEquals(artifacts.get(0).getClassName(), "SsoTest");
+        assertEquals(registry.find("emulator-5554", "LoginTest", "testLogin").size(), 1);
+    }
+}
@@ -0,0 +1,72 @@
+package com.appium.utils;
+
+import org.testng.annotations.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ImageUtilsTest {
+
+    @Test
+    public void centersScreenOnCachedFrame() throws Exception {
+        File directory = Files.createTempDirectory("frames").toFile();
+        BufferedImage frameImage = new BufferedImage(100, 200, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 100; x++) {
+            for (int y = 0; y < 200; y++) {
+                frameImage.setRGB(x, y, Color.WHITE.getRGB());
+            }
+        }
+        File frame = new File(directory, "Pixel_7.png");
+        ImageIO.write(frameImage, "png", frame);
+        BufferedImage screenImage = new BufferedImage(50, 100, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 50; x++) {
+            for (int y = 0; y < 100; y++) {
+                screenImage.setRGB(x, y, Color.RED.getRGB());
+            }
+        }
+        File screen = new File(directory, "screen.jpeg");
+        ImageIO.write(screenImage, "png", screen);
+
+        ImageUtils imageUtils = new ImageUtils();
+        assertEquals(imageUtils.findDeviceFrame(directory, "Google PIXEL_7 Pro").get(), frame);
+        assertFalse(imageUtils.findDeviceFrame(directory, "iPhone 15").isPresent());
+        assertSame(ImageUtils.loadFrame(frame), ImageUtils.loadFrame(frame));
+
+        imageUtils.wrapDeviceFramesAsync(frame.getPath(), screen.getPath(), screen.getPath())
+                .join();
+        BufferedImage framed = ImageIO.read(screen);
+        assertEquals(framed.getWidth(), 100);
+        assertEquals(framed.getHeight(), 200);
+        assertTrue(isClose(new Color(framed.getRGB(50, 100)), Color.RED));
+        assertTrue(isClose(new Color(framed.getRGB(5, 5)), Color.WHITE));
+    }
+
+    @Test
+    public void writesThumbnailKeepingAspectRatio() throws Exception {
+        File directory = Files.createTempDirectory("thumbnails").toFile();
+        File screen = new File(directory, "screen.png");
+        ImageIO.write(new BufferedImage(400, 800, BufferedImage.TYPE_INT_RGB), "png", screen);
+        File thumbnail = new File(directory, "nested/screen_thumb.jpeg");
+
+        new ImageUtils().writeThumbnail(screen.getPath(), thumbnail.getPath(), 100);
+
+        BufferedImage scaled = ImageIO.read(thumbnail);
+        assertEquals(scaled.getWidth(), 100);
+        assertEquals(scaled.getHeight(), 200);
+    }
+
+    private static boolean isClose(Color actual, Color expected) {
+        // JPEG is lossy
+        return Math.abs(actual.getRed() - expected.getRed()) < 30
+                && Math.abs(actual.getGreen() - expected.getGreen()) < 30
+                && Math.abs(actual.getBlue() - expected.getBlue()) < 30;
+    }
+}
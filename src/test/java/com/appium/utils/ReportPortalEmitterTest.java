@@ -0,0 +1,116 @@
+package com.appium.utils;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ReportPortalEmitterTest {
+
+    @Test
+    public void dropsWhenQueueIsFull() throws Exception {
+        ReportPortalEmitter emitter = new ReportPortalEmitter(true, 2, 1, 4,
+                ReportPortalEmitter.OverflowPolicy.DROP);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        assertTrue(emitter.submit(() -> {
+            started.countDown();
+            await(release);
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(emitter.submit(() -> { }));
+        assertTrue(emitter.submit(() -> { }));
+        assertFalse(emitter.submit(() -> { }));
+        assertEquals(emitter.getDropped(), 1);
+
+        assertFalse(emitter.flush(Duration.ofMillis(100)));
+        release.countDown();
+        assertTrue(emitter.flush(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    public void waitsForLogsOfCallingThreadOnly() {
+        ReportPortalEmitter emitter = new ReportPortalEmitter(true, 64, 2, 8,
+                ReportPortalEmitter.OverflowPolicy.BLOCK);
+        List<Integer> emitted = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int log = i;
+            assertTrue(emitter.submit(() -> {
+                sleep(5);
+                emitted.add(log);
+            }));
+        }
+        assertTrue(emitter.awaitCurrentThread(Duration.ofSeconds(10)));
+        assertEquals(emitted.size(), 20);
+        // Nothing left for this thread to wait on
+        assertTrue(emitter.awaitCurrentThread(Duration.ofMillis(1)));
+    }
+
+    @Test
+    public void emitsOwnLogsWhileUploadersAreBusy() throws Exception {
+        ReportPortalEmitter emitter = new ReportPortalEmitter(true, 8, 1, 4,
+                ReportPortalEmitter.OverflowPolicy.BLOCK);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread otherTest = new Thread(() -> emitter.submit(() -> {
+            started.countDown();
+            await(release);
+        }));
+        otherTest.start();
+        otherTest.join();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        List<String> emittedBy = new CopyOnWriteArrayList<>();
+        assertTrue(emitter.submit(() -> emittedBy.add(Thread.currentThread().getName())));
+        assertTrue(emitter.awaitCurrentThread(Duration.ofSeconds(1)));
+        assertEquals(emittedBy, Collections.singletonList(Thread.currentThread().getName()));
+
+        release.countDown();
+        assertTrue(emitter.flush(Duration.ofSeconds(10)));
+        assertEquals(emittedBy.size(), 1);
+    }
+
+    @Test
+    public void holdsLogsUntilAttachmentIsWritten() {
+        ReportPortalEmitter emitter = new ReportPortalEmitter(true, 8, 1, 4,
+                ReportPortalEmitter.OverflowPolicy.BLOCK);
+        List<String> emitted = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        assertTrue(emitter.submit(() -> emitted.add("written"), written));
+        assertTrue(emitter.submit(() -> emitted.add("failed"), failed));
+
+        assertFalse(emitter.flush(Duration.ofMillis(100)));
+        assertTrue(emitted.isEmpty());
+        written.complete(null);
+        failed.completeExceptionally(new IllegalStateException("disk full"));
+        assertTrue(emitter.awaitCurrentThread(Duration.ofSeconds(10)));
+        assertTrue(emitter.flush(Duration.ofSeconds(10)));
+        assertEquals(emitted, Collections.singletonList("written"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
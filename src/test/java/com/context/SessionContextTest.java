@@ -0,0 +1,40 @@
+package com.context;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class SessionContextTest {
+
+    @Test
+    public void keepsOneContextPerThread() throws Exception {
+        TestExecutionContext context = new TestExecutionContext("login");
+        context.addTestState(TestStateKey.DEVICE_ID, "emulator-5554");
+        context.addTestState(TestStateKey.DEVICE_LOG, null);
+        assertSame(SessionContext.getTestExecutionContext(), context);
+        assertEquals(context.getTestState(TestStateKey.DEVICE_ID), "emulator-5554");
+        assertEquals(context.getTestStateAsString("deviceId"), "emulator-5554");
+        assertFalse(context.getAllTestState().containsKey("deviceLog"));
+
+        long testThread = Thread.currentThread().getId();
+        TestExecutionContext other = CompletableFuture.supplyAsync(() -> {
+            assertNull(SessionContext.getTestExecutionContext());
+            assertSame(SessionContext.getTestExecutionContext(testThread), context);
+            TestExecutionContext own = new TestExecutionContext("logout");
+            assertSame(SessionContext.getTestExecutionContext(), own);
+            return own;
+        }).get();
+        assertSame(SessionContext.getTestExecutionContext(), context);
+
+        // Removing a context from another thread also clears it as that thread's current one
+        CompletableFuture.runAsync(() -> SessionContext.remove(testThread)).get();
+        assertNull(SessionContext.getTestExecutionContext());
+        assertNull(SessionContext.getTestExecutionContext(testThread));
+        assertFalse(other.removed);
+    }
+}
@@ -0,0 +1,48 @@
+package com.video.recorder;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SegmentRingTest {
+
+    @Test
+    public void keepsOnlyLatestSegments() throws Exception {
+        File directory = Files.createTempDirectory("segments").toFile();
+        SegmentRing ring = new SegmentRing(directory, 3);
+        File first = null;
+        for (int i = 0; i < 5; i++) {
+            File segment = ring.nextSegment();
+            Files.write(segment.toPath(), ("segment " + i).getBytes(StandardCharsets.UTF_8));
+            ring.add(segment);
+            if (first == null) {
+                first = segment;
+            }
+        }
+        assertFalse(first.exists());
+        assertEquals(directory.listFiles().length, 3);
+        List<File> last = ring.last(2);
+        assertEquals(last, Arrays.asList(new File(directory, "segment-3.mp4"),
+                new File(directory, "segment-4.mp4")));
+
+        // Without ffmpeg the segments are kept as numbered parts
+        File video = new File(directory, "video/test.mp4");
+        List<File> videos = SegmentRing.stitch(last, video, "no-such-ffmpeg");
+        assertEquals(videos.size(), 2);
+        assertFalse(video.exists());
+        assertEquals(new String(Files.readAllBytes(videos.get(1).toPath()),
+                StandardCharsets.UTF_8), "segment 4");
+
+        ring.clear();
+        assertTrue(ring.last(2).isEmpty());
+        assertFalse(last.get(0).exists());
+    }
+}
@@ -0,0 +1,99 @@
+package com.video.recorder;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+public class VideoReceiverTest {
+
+    @Test
+    public void streamsUploadIntoVideoFile() throws Exception {
+        byte[] video = new byte[3 * 1024 * 1024];
+        new Random(7).nextBytes(video);
+        File target = new File(Files.createTempDirectory("videos").toFile(),
+                "udid/Class/method/method.mp4");
+        VideoReceiver receiver = new VideoReceiver("127.0.0.1", 0);
+        try {
+            VideoReceiver.Upload upload = receiver.expect(target);
+            assertEquals(put(upload.getUrl(), video), 204);
+            assertEquals(upload.await(Duration.ofSeconds(10)), target);
+            assertEquals(Files.readAllBytes(target.toPath()), video);
+            // An upload URL only accepts one recording
+            assertEquals(put(upload.getUrl(), video), 404);
+        } finally {
+            receiver.stop();
+        }
+    }
+
+    @Test
+    public void extractsTheFilePartOfAMultipartUpload() throws Exception {
+        // Content that starts like the delimiter must not end the part
+        byte[] video = new byte[2 * 1024 * 1024];
+        new Random(13).nextBytes(video);
+        byte[] almostDelimiter = "\r\n--appium-boundar\r\n-".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(almostDelimiter, 0, video, 4096, almostDelimiter.length);
+        File target = new File(Files.createTempDirectory("videos").toFile(), "video.mp4");
+        VideoReceiver receiver = new VideoReceiver("127.0.0.1", 0);
+        try {
+            VideoReceiver.Upload upload = receiver.expect(target);
+            // Shaped like the form-data body Appium sends when fileFieldName is set
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(("--appium-boundary\r\n"
+                    + "Content-Disposition: form-data; name=\"device\"\r\n\r\n"
+                    + "emulator-5554\r\n"
+                    + "--appium-boundary\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; "
+                    + "filename=\"appium-video.mp4\"\r\n"
+                    + "Content-Type: video/mp4\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            body.write(video);
+            body.write("\r\n--appium-boundary--\r\n".getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(put(upload.getUrl(), body.toByteArray(),
+                    "multipart/form-data; boundary=appium-boundary"), 204);
+            assertEquals(upload.await(Duration.ofSeconds(10)), target);
+            assertEquals(Files.readAllBytes(target.toPath()), video);
+        } finally {
+            receiver.stop();
+        }
+    }
+
+    @Test
+    public void decodesBase64IntoFile() throws Exception {
+        byte[] video = new byte[1024 * 1024 + 17];
+        new Random(11).nextBytes(video);
+        File target = new File(Files.createTempDirectory("videos").toFile(), "video.mp4");
+
+        AppiumScreenRecorder.decodeTo(Base64.getMimeEncoder().encodeToString(video), target);
+
+        assertEquals(Files.readAllBytes(target.toPath()), video);
+    }
+
+    private static int put(String url, byte[] body) throws Exception {
+        return put(url, body, "video/mp4");
+    }
+
+    private static int put(String url, byte[] body, String contentType) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+        int code = connection.getResponseCode();
+        connection.disconnect();
+        return code;
+    }
+}